@@ -0,0 +1,65 @@
+package org.main;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+
+// Evaluates a workbook without a view, for pipelines on machines without a display: reads every page, compiles
+// all formulas, recalculates all of them from scratch rather than trusting the saved results, and exports the
+// results with ResultExporter. Parsing and the levels of the recalculation run on a pool of the given number
+// of threads. Each phase is timed on its own.
+public class BatchEvaluator {
+    public record Report(int cells, int formulas, long exported, int threads,
+                         long loadNanos, long compileNanos, long recalculationNanos, long exportNanos) {
+    }
+
+    private final int threads;
+
+    public BatchEvaluator(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    // One thread per core
+    public BatchEvaluator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    // Reads the workbook and writes its results to the output, in the format its name calls for. The workbook
+    // is not changed.
+    public Report run(Path workbookPath, Path output) throws IOException {
+        var pool = new ForkJoinPool(threads);
+        try (var workbook = WorkbookFile.openReadOnly(workbookPath)) {
+            long start = System.nanoTime();
+            var tableModel = workbook.getTableModel();
+            tableModel.readPages();
+            var formulaCells = new ArrayList<Cell>();
+            tableModel.getCellStore().forEach(cell -> {
+                if (cell.getTemplate() != null) {
+                    formulaCells.add(cell);
+                }
+            });
+            long loaded = System.nanoTime();
+
+            var engine = tableModel.getRecalculationEngine();
+            engine.setPool(pool);
+            engine.setMode(RecalculationEngine.Mode.PARALLEL);
+            tableModel.loadWorkbook();
+            long compiled = System.nanoTime();
+
+            engine.recalculate(formulaCells);
+            long recalculated = System.nanoTime();
+
+            long exported = ResultExporter.forFile(tableModel, output).exportFile(output);
+            long end = System.nanoTime();
+            return new Report(tableModel.getCellCount(), formulaCells.size(), exported, threads,
+                    loaded - start, compiled - loaded, recalculated - compiled, end - recalculated);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -1,47 +1,151 @@
 package org.main;
 
+import org.parser.Expr;
+import org.parser.FormulaCompiler;
+import org.parser.FormulaTemplate;
 import org.parser.Parser;
 
 
 public class Cell {
-    private String value;
-    private String parsedValue;
-    private final CellDependencyGraph cellDependencyGraph;
+    // Formula shared with every cell holding the same formula relative to its position, null if empty
+    private FormulaTemplate template;
+    // Computed result, display strings are only produced on demand by getParsedValue
+    private CellType type = CellType.EMPTY;
+    private double number;
+    private String text;
+    private CellError error;
     private final TableModel tableModel;
     private final int row;
     private final int column;
-    private final Parser parser;
+    private Expr expr; // Compiled formula, reused by every recalculation until the text changes
+    // The formula failed to compile and the error or text it left stands until the text changes, so evaluating
+    // the cell on a pool thread never touches the dependency graph
+    private boolean uncompilable;
+    private volatile boolean pending; // Waiting for a recalculation pass, read by the view while a pass runs
 
 
-    public Cell(int row, int column, String value, String parsedValue, CellDependencyGraph cellDependencyGraph, TableModel tableModel, Parser parser) {
+    public Cell(int row, int column, TableModel tableModel) {
         this.row = row;
         this.column = column;
-        this.value = value;
-        this.parsedValue = parsedValue;
-        this.cellDependencyGraph = cellDependencyGraph;
         this.tableModel = tableModel;
-        this.parser = parser;
     }
 
-    public Cell copy() {
-        return new Cell(row, column, value, parsedValue, cellDependencyGraph, tableModel, parser);
+    // Keeps the running aggregates of the ranges containing this cell up to date
+    private void resultChanged(CellType oldType, double oldNumber) {
+        boolean changed = oldType != type || (type == CellType.NUMBER
+                && Double.doubleToRawLongBits(oldNumber) != Double.doubleToRawLongBits(number));
+        if (changed && tableModel != null) {
+            tableModel.resultChanged(this, oldType, oldNumber);
+        }
     }
 
     public void setValue(String value) {
-        this.value = value;
+        setTemplate(templateOf(value));
+    }
+
+    void setTemplate(FormulaTemplate template) {
+        assignTemplate(template);
         tableModel.handleCellUpdate(this);
     }
 
+    // Same without notifying the listener, for bulk writes that recalculate all cells afterwards
+    void assignValue(String value) {
+        assignTemplate(templateOf(value));
+    }
+
+    private FormulaTemplate templateOf(String value) {
+        return value.isEmpty() ? null : tableModel.getFormulaTemplates().intern(tableModel, value, row, column);
+    }
+
+    private void assignTemplate(FormulaTemplate template) {
+        tableModel.loadWorkbook();
+        tableModel.materialize(this);
+        this.template = template;
+        tableModel.formulaChanged(this);
+        if (expr != null) {
+            expr.collectRanges(tableModel.getRangeAggregates()::release);
+        }
+        expr = null;
+        uncompilable = false;
+        getCellDependencyGraph().removeDependent(this); // References are registered again when the new formula is evaluated
+    }
+
+    // Sets the formula and the result the cell was saved with, for a cell read from a workbook file. Cells are
+    // read before any formula is compiled, so no range aggregate counts them yet.
+    void restore(FormulaTemplate template, CellType type, double number, String text, CellError error) {
+        this.template = template;
+        this.type = type;
+        this.number = number;
+        this.text = text;
+        this.error = error;
+    }
+
+    // The formula text, rendered from the template for the position of this cell
     public String getValue() {
-        return value;
+        return template == null ? "" : template.render(tableModel, row, column);
+    }
+
+    public FormulaTemplate getTemplate() {
+        return template;
     }
 
     public void setParsedValue(String parsedValue) {
-        this.parsedValue = parsedValue;
+        var oldType = type;
+        if (parsedValue == null || parsedValue.isEmpty()) {
+            type = CellType.EMPTY;
+        } else {
+            type = CellType.TEXT;
+            text = parsedValue;
+        }
+        error = null;
+        resultChanged(oldType, number);
     }
 
     public String getParsedValue() {
-        return parsedValue;
+        return switch (type) {
+            case EMPTY -> "";
+            case NUMBER -> String.valueOf(number);
+            case TEXT -> text;
+            case ERROR -> getValue(); // Errors show the formula as it was typed
+        };
+    }
+
+    public boolean isPending() {
+        return pending;
+    }
+
+    void setPending(boolean pending) {
+        this.pending = pending;
+    }
+
+    public CellType getType() {
+        return type;
+    }
+
+    public double getNumber() {
+        return number;
+    }
+
+    public CellError getError() {
+        return error;
+    }
+
+    private void setNumber(double number) {
+        var oldType = type;
+        var oldNumber = this.number;
+        type = CellType.NUMBER;
+        this.number = number;
+        text = null;
+        error = null;
+        resultChanged(oldType, oldNumber);
+    }
+
+    private void setError(CellError error) {
+        var oldType = type;
+        type = CellType.ERROR;
+        text = null;
+        this.error = error;
+        resultChanged(oldType, number);
     }
 
     public int getRow() {
@@ -53,19 +157,74 @@ public class Cell {
     }
 
     public void parse() {
+        tableModel.getRecalculationEngine().recalculate(this);
+    }
+
+    void evaluate() {
+        if (template == null) {
+            setParsedValue("");
+        } else if (expr != null || (!uncompilable && compile())) {
+            try {
+                setNumber(expr.evaluate());
+            } catch (Exception e) {
+                setError(CellError.VALUE);
+            }
+        }
+        pending = false;
+    }
+
+    // Parses the formula ahead of its compilation. Touches nothing but the template, so the formulas of many
+    // cells can be prepared on several threads at once.
+    void prepare() {
+        if (template != null && expr == null) {
+            template.prepare(tableModel, row, column);
+        }
+    }
+
+    // Binds the template to this cell and registers its references, marking the cell as an error if either fails,
+    // or as text if its value is no formula at all
+    private boolean compile() {
+        Expr compiled;
         try {
-            var expr = parser.parse(this);
-            var result = expr.evaluate();
-            parsedValue = String.valueOf(result);
+            compiled = template.bind(this);
         } catch (Exception e) {
-            setParsedValue(value);
-        } finally {
-            tableModel.handleCellUpdate(this);
+            var value = getValue();
+            if (Parser.looksLikeFormula(value)) {
+                setError(CellError.PARSE);
+            } else {
+                setParsedValue(value); // A label
+            }
+            uncompilable = true;
+            return false;
+        }
+        var cycle = new boolean[1];
+        var cellDependencyGraph = getCellDependencyGraph();
+        compiled.collectReferences(referencedCell -> {
+            if (!cycle[0] && !cellDependencyGraph.addDependency(referencedCell, this)) {
+                cycle[0] = true;
+            }
+        });
+        compiled.collectRanges(range -> {
+            if (!cycle[0] && !cellDependencyGraph.addRangeDependency(range, this)) {
+                cycle[0] = true;
+            }
+        });
+        if (cycle[0]) {
+            cellDependencyGraph.removeDependent(this);
+            setError(CellError.CYCLE);
+            uncompilable = true;
+            return false;
         }
-        var dependents = cellDependencyGraph.getAllDependents(this);
-        for (var dependent : dependents) {
-            dependent.parse();
+        compiled.collectRanges(tableModel.getRangeAggregates()::acquire);
+        expr = FormulaCompiler.tiered(compiled, tableModel.getCompileThreshold());
+        return true;
+    }
+
+    Expr getCompiledExpr() {
+        if (expr == null && !uncompilable) {
+            compile();
         }
+        return expr;
     }
 
     public TableModel getTableModel() {
@@ -73,6 +232,6 @@ public class Cell {
     }
 
     public CellDependencyGraph getCellDependencyGraph() {
-        return cellDependencyGraph;
+        return tableModel.getCellDependencyGraph();
     }
 }
@@ -1,37 +1,45 @@
 package org.main;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 
+// Keeps a topological order of all cells that take part in a dependency (Pearce-Kelly dynamic
+// topological sort). Adding an edge that already agrees with the order is O(1); otherwise only the
+// cells between the two endpoints in that order are searched and renumbered. All traversals use an
+// explicit stack so that very long chains do not overflow the call stack.
+//
+// Range references such as A1:A100000 are not expanded into per-cell edges. They are kept in a RangeIndex
+// and act as implicit edges from every cell inside the range to the formula, found by a stabbing query.
 public class CellDependencyGraph {
     private final Map<Cell, Set<Cell>> cellDependencyGraph = new HashMap<>();
     private final Map<Cell, Set<Cell>> inverseCellDependencyGraph = new HashMap<>();
+    private final RangeIndex rangeIndex = new RangeIndex();
+    private final Map<Cell, Integer> order = new HashMap<>();
+    private final CellStore cells; // Used to enumerate the cells inside a range, may be null
+    private int lowestOrder = 0;
+    private int highestOrder = 0;
 
-    public CellDependencyGraph() {}
-
-    public CellDependencyGraph(CellDependencyGraph another) {
-        for (Map.Entry<Cell, Set<Cell>> entry : another.cellDependencyGraph.entrySet()) {
-            cellDependencyGraph.put(entry.getKey(), new HashSet<>(entry.getValue()));
-        }
-        for (Map.Entry<Cell, Set<Cell>> entry : another.inverseCellDependencyGraph.entrySet()) {
-            inverseCellDependencyGraph.put(entry.getKey(), new HashSet<>(entry.getValue()));
-        }
+    public CellDependencyGraph() {
+        this((CellStore) null);
     }
 
-    public void restore(CellDependencyGraph another) {
-        cellDependencyGraph.clear();
-        inverseCellDependencyGraph.clear();
-        for (Map.Entry<Cell, Set<Cell>> entry : another.cellDependencyGraph.entrySet()) {
-            cellDependencyGraph.put(entry.getKey(), new HashSet<>(entry.getValue()));
-        }
-        for (Map.Entry<Cell, Set<Cell>> entry : another.inverseCellDependencyGraph.entrySet()) {
-            inverseCellDependencyGraph.put(entry.getKey(), new HashSet<>(entry.getValue()));
-        }
+    public CellDependencyGraph(CellStore cells) {
+        this.cells = cells;
     }
 
     public boolean addDependency(Cell independent, Cell dependent) {
+        if (independent.equals(dependent)) {
+            return false; // A cell referencing itself is the smallest possible cycle
+        }
+        var dependents = cellDependencyGraph.get(independent);
+        if (dependents != null && dependents.contains(dependent)) {
+            return true; // Already known, nothing to reorder
+        }
 
-        if (createsCycle(dependent, independent)) {
+        ensureOrdered(dependent, false);
+        ensureOrdered(independent, true);
+        if (!placeBefore(independent, dependent)) {
             return false; // Dependency would create a cycle, so it is not added
         }
 
@@ -41,46 +49,227 @@ public class CellDependencyGraph {
         return true; // Dependency added successfully
     }
 
-    private boolean createsCycle(Cell current, Cell target) {
-        if (current.equals(target)) {
-            return true; // Cycle detected
+    // Makes the dependent read every cell of the range, including cells that are written later on
+    public boolean addRangeDependency(CellRange range, Cell dependent) {
+        if (range.contains(dependent.getRow(), dependent.getColumn())) {
+            return false; // A formula over a range that contains it depends on itself
+        }
+        ensureOrdered(dependent, false);
+        var cycle = new boolean[1];
+        forEachOrderedCellIn(range, cell -> {
+            if (!cycle[0] && !placeBefore(cell, dependent)) {
+                cycle[0] = true;
+            }
+        });
+        if (cycle[0]) {
+            return false;
+        }
+        rangeIndex.add(range, dependent);
+        return true;
+    }
+
+    // Cells without edges have no constraints, so new independents go first and new dependents last. A new
+    // dependent that is already read through a range goes first as well, since it must precede that reader.
+    private void ensureOrdered(Cell cell, boolean independent) {
+        if (!order.containsKey(cell)) {
+            boolean readByRange = !independent && hasRangeDependents(cell);
+            order.put(cell, independent || readByRange ? --lowestOrder : ++highestOrder);
+        }
+    }
+
+    // Repositions cells if needed so that independent precedes dependent, fails if that would close a cycle
+    private boolean placeBefore(Cell independent, Cell dependent) {
+        int lowerBound = order.get(dependent);
+        int upperBound = order.get(independent);
+        return upperBound < lowerBound || reorder(independent, dependent, lowerBound, upperBound);
+    }
+
+    // The new edge independent -> dependent points backwards in the current order. Collects the cells
+    // reachable from the dependent and the cells reaching the independent inside the affected window
+    // [lowerBound, upperBound] and reassigns their order positions so that the edge points forward.
+    private boolean reorder(Cell independent, Cell dependent, int lowerBound, int upperBound) {
+        var forward = new ArrayList<Cell>();
+        if (collect(dependent, forward, independent, upperBound, true)) {
+            return false;
+        }
+        var backward = new ArrayList<Cell>();
+        collect(independent, backward, null, lowerBound, false);
+
+        Comparator<Cell> byOrder = Comparator.comparingInt(order::get);
+        forward.sort(byOrder);
+        backward.sort(byOrder);
+        int[] positions = new int[forward.size() + backward.size()];
+        int i = 0;
+        for (Cell cell : backward) {
+            positions[i++] = order.get(cell);
+        }
+        for (Cell cell : forward) {
+            positions[i++] = order.get(cell);
+        }
+        Arrays.sort(positions);
+        i = 0;
+        for (Cell cell : backward) {
+            order.put(cell, positions[i++]);
+        }
+        for (Cell cell : forward) {
+            order.put(cell, positions[i++]);
+        }
+        return true;
+    }
+
+    // Iterative DFS over the edges in one direction, staying inside the window given by bound. Returns true
+    // if target is reached.
+    private boolean collect(Cell start, List<Cell> result, Cell target, int bound, boolean forward) {
+        var visited = new HashSet<Cell>();
+        var stack = new ArrayDeque<Cell>();
+        var reachedTarget = new boolean[1];
+        visited.add(start);
+        stack.push(start);
+        while (!stack.isEmpty() && !reachedTarget[0]) {
+            var cell = stack.pop();
+            result.add(cell);
+            Consumer<Cell> visit = next -> {
+                if (next.equals(target)) {
+                    reachedTarget[0] = true; // Cycle detected
+                    return;
+                }
+                int position = order.get(next);
+                boolean inWindow = forward ? position < bound : position > bound;
+                if (inWindow && visited.add(next)) {
+                    stack.push(next);
+                }
+            };
+            if (forward) {
+                forEachDependent(cell, visit);
+            } else {
+                forEachIndependent(cell, visit);
+            }
+        }
+        return reachedTarget[0];
+    }
+
+    // Direct dependents, both by single-cell reference and through a range
+    private void forEachDependent(Cell cell, Consumer<Cell> consumer) {
+        cellDependencyGraph.getOrDefault(cell, Collections.emptySet()).forEach(consumer);
+        rangeIndex.forEachDependent(cell.getRow(), cell.getColumn(), consumer);
+    }
+
+    // Direct independents that take part in the order, cells inside a range without edges of their own are skipped
+    private void forEachIndependent(Cell cell, Consumer<Cell> consumer) {
+        inverseCellDependencyGraph.getOrDefault(cell, Collections.emptySet()).forEach(consumer);
+        for (var range : rangeIndex.getRanges(cell)) {
+            forEachOrderedCellIn(range, consumer);
         }
-        Set<Cell> nextCells = cellDependencyGraph.get(current);
-        if (nextCells != null) {
-            for (Cell next : nextCells) {
-                if (createsCycle(next, target)) {
-                    return true;
+    }
+
+    // Walks whichever is smaller, the ordered cells or the stored cells of the range
+    private void forEachOrderedCellIn(CellRange range, Consumer<Cell> consumer) {
+        long area = (long) (range.getBottom() - range.getTop() + 1) * (range.getRight() - range.getLeft() + 1);
+        if (cells == null || order.size() < area) {
+            for (var cell : order.keySet()) {
+                if (range.contains(cell.getRow(), cell.getColumn())) {
+                    consumer.accept(cell);
                 }
             }
+        } else {
+            cells.forEachInRange(range.getTop(), range.getLeft(), range.getBottom(), range.getRight(), cell -> {
+                if (order.containsKey(cell)) {
+                    consumer.accept(cell);
+                }
+            });
         }
-        return false;
+    }
+
+    private boolean hasRangeDependents(Cell cell) {
+        var found = new boolean[1];
+        rangeIndex.forEachDependent(cell.getRow(), cell.getColumn(), dependent -> found[0] = true);
+        return found[0];
+    }
+
+    public Set<Cell> getDependents(Cell cell) {
+        var dependents = new HashSet<Cell>();
+        forEachDependent(cell, dependents::add);
+        return Collections.unmodifiableSet(dependents);
     }
 
     public List<Cell> getAllDependents(Cell cell) {
         List<Cell> result = new ArrayList<>();
-        Set<Cell> dependents = cellDependencyGraph.getOrDefault(cell, new HashSet<>());
-        for (Cell dependent : dependents) {
-            getAllDependentsDFS(dependent, result);
+        Set<Cell> visited = new HashSet<>();
+        var stack = new ArrayDeque<Cell>();
+        stack.push(cell);
+        while (!stack.isEmpty()) {
+            forEachDependent(stack.pop(), dependent -> {
+                if (visited.add(dependent)) {
+                    result.add(dependent);
+                    stack.push(dependent);
+                }
+            });
         }
-        Collections.reverse(result); // Reverse to get correct topological order
+        sortByOrder(result); // The maintained order is already topological
         return result;
     }
 
-    private void getAllDependentsDFS(Cell cell, List<Cell> result) {
-        Set<Cell> dependents = cellDependencyGraph.getOrDefault(cell, new HashSet<>());
-        for (Cell dependent : dependents) {
-            getAllDependentsDFS(dependent, result);
+    // The given cells together with all their transitive dependents, each once, in topological order
+    public List<Cell> getAllDependents(Collection<Cell> cells) {
+        List<Cell> result = new ArrayList<>(cells.size());
+        Set<Cell> visited = new HashSet<>();
+        for (var cell : cells) {
+            if (visited.add(cell)) {
+                result.add(cell);
+            }
+        }
+        var stack = new ArrayDeque<>(result);
+        while (!stack.isEmpty()) {
+            forEachDependent(stack.pop(), dependent -> {
+                if (visited.add(dependent)) {
+                    result.add(dependent);
+                    stack.push(dependent);
+                }
+            });
+        }
+        sortByOrder(result);
+        return result;
+    }
+
+    // Looks every cell up once and sorts the positions with their order packed into primitive keys, instead
+    // of looking up both cells on every comparison. A cell outside the order reads no other cell, so it can
+    // go first.
+    private void sortByOrder(List<Cell> cells) {
+        var keys = new long[cells.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) order.getOrDefault(cells.get(i), Integer.MIN_VALUE) << 32) | i;
+        }
+        Arrays.sort(keys);
+        var sorted = new Cell[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[i] = cells.get((int) keys[i]);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            cells.set(i, sorted[i]);
         }
-        result.add(cell); // Postorder: This cell depends on all recursively visited cells
     }
 
     public void removeDependent(Cell cell) {
+        rangeIndex.removeAll(cell);
         // Remove this cell from the dependencies of other cells using the inverse mapping
-        if (inverseCellDependencyGraph.containsKey(cell)) {
-            for (Cell independent : inverseCellDependencyGraph.get(cell)) {
-                cellDependencyGraph.get(independent).remove(cell);
+        var independents = inverseCellDependencyGraph.remove(cell);
+        if (independents != null) {
+            for (Cell independent : independents) {
+                var dependents = cellDependencyGraph.get(independent);
+                dependents.remove(cell);
+                if (dependents.isEmpty()) {
+                    cellDependencyGraph.remove(independent);
+                    forgetIfIsolated(independent);
+                }
             }
-            inverseCellDependencyGraph.remove(cell);
+        }
+        forgetIfIsolated(cell);
+    }
+
+    private void forgetIfIsolated(Cell cell) {
+        if (!cellDependencyGraph.containsKey(cell) && !inverseCellDependencyGraph.containsKey(cell)
+                && !rangeIndex.hasRanges(cell)) {
+            order.remove(cell);
         }
     }
 }
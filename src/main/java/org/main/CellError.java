@@ -0,0 +1,8 @@
+package org.main;
+
+
+public enum CellError {
+    PARSE, // The text is not a valid formula
+    CYCLE, // The formula would make the cell depend on itself
+    VALUE // The formula failed to evaluate, e.g. it references an empty or non-numeric cell
+}
@@ -0,0 +1,49 @@
+package org.main;
+
+
+// Rectangular block of cells given by inclusive row and column bounds, such as A1:B10
+public class CellRange {
+    private final int top;
+    private final int left;
+    private final int bottom;
+    private final int right;
+
+    public CellRange(int top, int left, int bottom, int right) {
+        this.top = Math.min(top, bottom);
+        this.left = Math.min(left, right);
+        this.bottom = Math.max(top, bottom);
+        this.right = Math.max(left, right);
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+
+    public int getRight() {
+        return right;
+    }
+
+    public boolean contains(int row, int column) {
+        return row >= top && row <= bottom && column >= left && column <= right;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CellRange other)) return false;
+        return top == other.top && left == other.left && bottom == other.bottom && right == other.right;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((top * 31 + left) * 31 + bottom) * 31 + right; // Looked up on every evaluation, so no boxing
+    }
+}
@@ -0,0 +1,172 @@
+package org.main;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+
+
+// Sparse storage for the cells of a TableModel. Cells live in fixed-size pages of PAGE_ROWS x PAGE_COLUMNS,
+// and pages are allocated only when one of their cells is written. The pages are found through an
+// open-addressing hash table keyed by the packed (page row, page column) coordinate, so memory scales
+// with the populated area of the sheet and not with its dimensions.
+public class CellStore {
+    static final int PAGE_ROW_BITS = 6;
+    static final int PAGE_COLUMN_BITS = 4;
+    static final int PAGE_ROWS = 1 << PAGE_ROW_BITS;
+    static final int PAGE_COLUMNS = 1 << PAGE_COLUMN_BITS;
+    private static final long EMPTY_KEY = -1L;
+
+    // The page table is swapped as a whole when it grows, so that the view can read it while a
+    // background recalculation stores cells. Readers may miss a cell stored concurrently, never fail.
+    private static final class PageTable {
+        final long[] keys;
+        final Cell[][] pages;
+
+        PageTable(int capacity) {
+            keys = new long[capacity];
+            pages = new Cell[capacity][];
+            Arrays.fill(keys, EMPTY_KEY);
+        }
+    }
+
+    private volatile PageTable table = new PageTable(16);
+    private int pageCount = 0;
+    private int cellCount = 0;
+
+    public CellStore() {}
+
+    static long pageKey(int row, int column) {
+        return ((long) (row >>> PAGE_ROW_BITS) << 32) | (column >>> PAGE_COLUMN_BITS);
+    }
+
+    static int indexInPage(int row, int column) {
+        return ((row & (PAGE_ROWS - 1)) << PAGE_COLUMN_BITS) | (column & (PAGE_COLUMNS - 1));
+    }
+
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private static int slot(PageTable table, long key) {
+        var keys = table.keys;
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY_KEY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static Cell[] page(PageTable table, long key) {
+        int slot = slot(table, key);
+        return table.keys[slot] == key ? table.pages[slot] : null;
+    }
+
+    public Cell get(int row, int column) {
+        var page = page(table, pageKey(row, column));
+        return page == null ? null : page[indexInPage(row, column)];
+    }
+
+    public void put(Cell cell) {
+        long key = pageKey(cell.getRow(), cell.getColumn());
+        var table = this.table;
+        int slot = slot(table, key);
+        var page = table.pages[slot];
+        if (page == null) {
+            page = new Cell[PAGE_ROWS * PAGE_COLUMNS];
+            table.pages[slot] = page; // Before the key, so a reader that finds the key finds the page
+            table.keys[slot] = key;
+            if (++pageCount * 2 > table.keys.length) {
+                grow(table);
+            }
+        }
+        int index = indexInPage(cell.getRow(), cell.getColumn());
+        if (page[index] == null) {
+            cellCount++;
+        }
+        page[index] = cell;
+    }
+
+    private void grow(PageTable old) {
+        var grown = new PageTable(old.keys.length * 2);
+        for (int i = 0; i < old.keys.length; i++) {
+            if (old.keys[i] != EMPTY_KEY) {
+                int slot = slot(grown, old.keys[i]);
+                grown.keys[slot] = old.keys[i];
+                grown.pages[slot] = old.pages[i];
+            }
+        }
+        table = grown;
+    }
+
+    // The cells of a page, indexed by indexInPage, or null if none of them is stored
+    Cell[] getPage(long pageKey) {
+        return page(table, pageKey);
+    }
+
+    // The keys of all allocated pages in ascending order, which is row-major page order
+    long[] getPageKeys() {
+        var table = this.table;
+        return LongStream.of(table.keys).filter(key -> key != EMPTY_KEY).sorted().toArray();
+    }
+
+    public int size() {
+        return cellCount;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    // Visits the stored cells inside the inclusive bounds, page by page in row-major page order. Small
+    // areas probe each overlapping page, areas spanning more pages than are allocated scan the page table.
+    public void forEachInRange(int top, int left, int bottom, int right, Consumer<Cell> action) {
+        int firstPageRow = top >>> PAGE_ROW_BITS;
+        int lastPageRow = bottom >>> PAGE_ROW_BITS;
+        int firstPageColumn = left >>> PAGE_COLUMN_BITS;
+        int lastPageColumn = right >>> PAGE_COLUMN_BITS;
+        long pageArea = (long) (lastPageRow - firstPageRow + 1) * (lastPageColumn - firstPageColumn + 1);
+        var table = this.table;
+        if (pageArea <= pageCount) {
+            for (int pageRow = firstPageRow; pageRow <= lastPageRow; pageRow++) {
+                for (int pageColumn = firstPageColumn; pageColumn <= lastPageColumn; pageColumn++) {
+                    var page = page(table, ((long) pageRow << 32) | pageColumn);
+                    forEachInPage(page, top, left, bottom, right, action);
+                }
+            }
+            return;
+        }
+        LongStream.of(table.keys)
+                .filter(key -> key != EMPTY_KEY)
+                .filter(key -> (key >>> 32) >= firstPageRow && (key >>> 32) <= lastPageRow)
+                .filter(key -> (int) key >= firstPageColumn && (int) key <= lastPageColumn)
+                .sorted()
+                .forEach(key -> forEachInPage(page(table, key), top, left, bottom, right, action));
+    }
+
+    private static void forEachInPage(Cell[] page, int top, int left, int bottom, int right, Consumer<Cell> action) {
+        if (page == null) {
+            return;
+        }
+        for (var cell : page) {
+            if (cell != null && cell.getRow() >= top && cell.getRow() <= bottom
+                    && cell.getColumn() >= left && cell.getColumn() <= right) {
+                action.accept(cell);
+            }
+        }
+    }
+
+    // Visits every stored cell, in no particular order
+    public void forEach(Consumer<Cell> action) {
+        for (var page : table.pages) {
+            if (page != null) {
+                for (var cell : page) {
+                    if (cell != null) {
+                        action.accept(cell);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package org.main;
+
+
+public enum CellType {
+    EMPTY,
+    NUMBER,
+    TEXT,
+    ERROR
+}
@@ -0,0 +1,221 @@
+package org.main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+
+// Reads comma or tab separated values into a TableModel, one line per row starting at A1. The input is
+// streamed through one buffer and split into fields at the byte level, which is safe for UTF-8 since no byte
+// of a multi-byte character is ASCII, so each field becomes a String straight from the buffer and lines never
+// do. Cells are written without recalculation, notifications or history, and once the input is read all
+// formulas are compiled in parallel and recalculated in a single pass.
+//
+// Comma separated values follow RFC 4180: a field in double quotes may hold delimiters, line breaks and
+// doubled quotes. Tab separated values have no quoting. Lines end with \n, \r\n or \r.
+public class DelimitedImporter {
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private final TableModel tableModel;
+    private final byte delimiter;
+    private final boolean quoting;
+    private ReadableByteChannel channel;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private byte[] unquoted = new byte[256];
+    private int position;
+    private int limit;
+    private int mark; // Start of the field being read, kept in the buffer when it is refilled
+    private boolean endOfInput;
+
+    public DelimitedImporter(TableModel tableModel, char delimiter) {
+        if (delimiter != ',' && delimiter != '\t' && delimiter != ';') {
+            throw new IllegalArgumentException("Unsupported delimiter: " + delimiter);
+        }
+        this.tableModel = tableModel;
+        this.delimiter = (byte) delimiter;
+        this.quoting = delimiter != '\t';
+    }
+
+    // Tab separated for .tsv and .tab files, comma separated otherwise
+    public static DelimitedImporter forFile(TableModel tableModel, Path path) {
+        var name = path.getFileName().toString().toLowerCase();
+        return new DelimitedImporter(tableModel, name.endsWith(".tsv") || name.endsWith(".tab") ? '\t' : ',');
+    }
+
+    // Returns the number of rows read
+    public int importFile(Path path) throws IOException {
+        try (var fileChannel = FileChannel.open(path)) {
+            return importFrom(fileChannel);
+        }
+    }
+
+    // Reads the channel to its end, it is not closed. A value that does not fit into the table stops the import
+    // with an IllegalArgumentException, the values before it are kept and recalculated.
+    public int importFrom(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        position = 0;
+        limit = 0;
+        mark = 0;
+        endOfInput = false;
+        int row = 0;
+        tableModel.startWrites();
+        try {
+            skipByteOrderMark();
+            while (hasMore()) {
+                readLine(row++);
+            }
+        } finally {
+            this.channel = null;
+            tableModel.finishWrites();
+        }
+        return row;
+    }
+
+    private void skipByteOrderMark() throws IOException {
+        while (limit < 3 && fill()) {
+            // The mark fits into any buffer
+        }
+        if (limit >= 3 && buffer[0] == (byte) 0xEF && buffer[1] == (byte) 0xBB && buffer[2] == (byte) 0xBF) {
+            position = 3;
+        }
+    }
+
+    private boolean hasMore() throws IOException {
+        mark = position;
+        return position < limit || fill();
+    }
+
+    private void readLine(int row) throws IOException {
+        int column = 1;
+        while (true) {
+            mark = position;
+            if (position == limit) {
+                fill(); // Whether the field is quoted is only known once its first byte is there
+            }
+            var value = quoting && position < limit && buffer[position] == '"' ? readQuoted() : readPlain();
+            if (row < tableModel.getHeight() && column <= tableModel.getWidth()) {
+                tableModel.write(row, column, value); // Empty values clear what was there before
+            } else if (!value.isEmpty()) {
+                throw new IllegalArgumentException("Field " + column + " of line " + (row + 1) + " does not fit into the table of "
+                        + tableModel.getWidth() + " columns and " + tableModel.getHeight() + " rows");
+            }
+            column++;
+            if (!endOfField()) {
+                return;
+            }
+        }
+    }
+
+    // Consumes the byte after a field, returning false if it ended the line or the input
+    private boolean endOfField() throws IOException {
+        if (position == limit && !fill()) {
+            return false;
+        }
+        byte b = buffer[position++];
+        if (b == delimiter) {
+            return true;
+        }
+        if (b == '\r') {
+            if ((position < limit || fill()) && buffer[position] == '\n') {
+                position++;
+            }
+        }
+        return false;
+    }
+
+    // Reads up to the next delimiter or line break, which is left to endOfField
+    private String readPlain() throws IOException {
+        while (true) {
+            while (position < limit) {
+                byte b = buffer[position];
+                if (b == delimiter || b == '\n' || b == '\r') {
+                    return decode(buffer, mark, position - mark);
+                }
+                position++;
+            }
+            if (!fill()) {
+                return decode(buffer, mark, position - mark);
+            }
+        }
+    }
+
+    // Reads a field in double quotes. Text after the closing quote is kept, like spreadsheets do. The field is
+    // copied to unquoted as it is read, so the mark follows the position and refilling the buffer never has to
+    // keep or grow for a long field.
+    private String readQuoted() throws IOException {
+        position++;
+        int length = 0;
+        while (true) {
+            mark = position;
+            if (position == limit && !fill()) {
+                break; // Unterminated, the rest of the input is the field
+            }
+            byte b = buffer[position++];
+            if (b == '"') {
+                if (position == limit && !fill()) {
+                    break;
+                }
+                if (buffer[position] != '"') {
+                    while (position < limit || fill()) {
+                        b = buffer[position];
+                        if (b == delimiter || b == '\n' || b == '\r') {
+                            break;
+                        }
+                        length = append(length, b);
+                        mark = ++position;
+                    }
+                    break;
+                }
+                position++;
+            }
+            length = append(length, b);
+        }
+        return decode(unquoted, 0, length);
+    }
+
+    int getBufferCapacity() {
+        return buffer.length;
+    }
+
+    private int append(int length, byte b) {
+        if (length == unquoted.length) {
+            unquoted = Arrays.copyOf(unquoted, length * 2);
+        }
+        unquoted[length] = b;
+        return length + 1;
+    }
+
+    private static String decode(byte[] bytes, int offset, int length) {
+        return length == 0 ? "" : new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    // Reads more input behind limit, first moving the field being read to the front of the buffer, or growing
+    // the buffer if that field fills it. Returns false at the end of the input.
+    private boolean fill() throws IOException {
+        if (endOfInput) {
+            return false;
+        }
+        if (mark > 0) {
+            System.arraycopy(buffer, mark, buffer, 0, limit - mark);
+            limit -= mark;
+            position -= mark;
+            mark = 0;
+        } else if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read;
+        do {
+            read = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit));
+        } while (read == 0);
+        if (read < 0) {
+            endOfInput = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+}
@@ -0,0 +1,170 @@
+package org.main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+
+
+// Undo and redo log of cell edits. A step records the formula text of each edited cell before and after the
+// edit, computed values are not stored since recalculating the touched cells reproduces them. Edits made
+// inside a transaction form a single step. The oldest steps are dropped once the estimated size of the log
+// exceeds the byte budget, only the latest step is kept regardless so that the last edit can always be undone.
+public class EditHistory {
+    private static final long EDIT_OVERHEAD = 32;
+    private static final long STEP_OVERHEAD = 64;
+
+    private static class Edit {
+        final int row;
+        final int column;
+        final String oldValue;
+        final String newValue;
+
+        Edit(int row, int column, String oldValue, String newValue) {
+            this.row = row;
+            this.column = column;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+    }
+
+    private static class Step {
+        final List<Edit> edits = new ArrayList<>();
+        long bytes = STEP_OVERHEAD;
+
+        void add(Edit edit) {
+            edits.add(edit);
+            bytes += EDIT_OVERHEAD + estimateBytes(edit.oldValue) + estimateBytes(edit.newValue);
+        }
+    }
+
+    private final TableModel tableModel;
+    private final long byteBudget;
+    private final Deque<Step> undoSteps = new ArrayDeque<>();
+    private final Deque<Step> redoSteps = new ArrayDeque<>();
+    private long bytes = 0; // Estimated size of both stacks
+    private Step openStep;
+    private int transactionDepth = 0;
+
+
+    public EditHistory(TableModel tableModel, long byteBudget) {
+        if (byteBudget < 0) {
+            throw new IllegalArgumentException("History budget must not be negative: " + byteBudget);
+        }
+        this.tableModel = tableModel;
+        this.byteBudget = byteBudget;
+    }
+
+    // Header and backing array of a String, counting two bytes per character
+    static long estimateBytes(String value) {
+        return 40 + 2L * value.length();
+    }
+
+    public long getByteSize() {
+        return bytes;
+    }
+
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    public boolean canUndo() {
+        return !undoSteps.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoSteps.isEmpty();
+    }
+
+    // Transactions nest, the step is recorded when the outermost one ends
+    public void beginTransaction() {
+        if (transactionDepth++ == 0) {
+            openStep = new Step();
+        }
+    }
+
+    public void endTransaction() {
+        if (transactionDepth == 0) {
+            throw new IllegalStateException("No transaction in progress");
+        }
+        if (--transactionDepth == 0) {
+            var step = openStep;
+            openStep = null;
+            if (!step.edits.isEmpty()) {
+                push(step);
+            }
+        }
+    }
+
+    // Records that the formula of the cell at (row, column) was changed from oldValue to newValue
+    public void record(int row, int column, String oldValue, String newValue) {
+        if (Objects.equals(oldValue, newValue)) {
+            return;
+        }
+        var edit = new Edit(row, column, oldValue, newValue);
+        if (openStep != null) {
+            openStep.add(edit);
+        } else {
+            var step = new Step();
+            step.add(edit);
+            push(step);
+        }
+    }
+
+    private void push(Step step) {
+        for (var discarded : redoSteps) {
+            bytes -= discarded.bytes;
+        }
+        redoSteps.clear();
+        undoSteps.addLast(step);
+        bytes += step.bytes;
+        while (bytes > byteBudget && undoSteps.size() > 1) {
+            bytes -= undoSteps.pollFirst().bytes;
+        }
+    }
+
+    public boolean undo() {
+        checkNoTransaction();
+        var step = undoSteps.pollLast();
+        if (step == null) {
+            return false;
+        }
+        var cells = new LinkedHashSet<Cell>();
+        for (int i = step.edits.size() - 1; i >= 0; i--) {
+            var edit = step.edits.get(i);
+            cells.add(apply(edit, edit.oldValue));
+        }
+        tableModel.getRecalculationEngine().recalculate(cells);
+        redoSteps.addLast(step);
+        return true;
+    }
+
+    public boolean redo() {
+        checkNoTransaction();
+        var step = redoSteps.pollLast();
+        if (step == null) {
+            return false;
+        }
+        var cells = new LinkedHashSet<Cell>();
+        for (var edit : step.edits) {
+            cells.add(apply(edit, edit.newValue));
+        }
+        tableModel.getRecalculationEngine().recalculate(cells);
+        undoSteps.addLast(step);
+        return true;
+    }
+
+    private void checkNoTransaction() {
+        if (transactionDepth > 0) {
+            throw new IllegalStateException("Cannot undo or redo inside a transaction");
+        }
+    }
+
+    private Cell apply(Edit edit, String value) {
+        var cell = tableModel.getOrCreateCell(edit.row, edit.column);
+        cell.setValue(value);
+        return cell;
+    }
+}
@@ -0,0 +1,318 @@
+package org.main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+
+// Write-ahead log of the formula changes of a TableModel since its last checkpoint, the last save of its
+// WorkbookFile. Every change is recorded as its position and formula text, which is all a change is, so a
+// record never depends on computed values. Appending only copies the record into a buffer in memory. A
+// background thread writes everything appended so far and forces it to disk with one fsync, so while one
+// fsync runs the next batch collects, and the edits of one batch become durable together (group commit).
+// Appending therefore never waits for the disk, and a crash loses at most the batch being written. The cells of
+// a bulk write, such as an import, are recorded together once it has finished.
+//
+// Opening the journal replays its records onto the table as one bulk write, recalculated in a single pass, and
+// drops a torn record at its end left by a crash. Records are replayed in order and each sets a formula, so a
+// record already contained in the checkpoint, such as after a crash between saving and truncating, is
+// harmless. Saving the workbook truncates the journal to its header.
+//
+// Layout, numbers are big-endian:
+//   header   magic, version, padded to HEADER_SIZE
+//   records  per record the length of its payload, the CRC-32C of the payload, and the payload: row, column
+//            and the UTF-8 bytes of the formula, none for an emptied cell
+public final class EditJournal implements Closeable {
+    private static final int MAGIC = 0x5354454A; // "STEJ"
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int PAYLOAD_HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final TableModel tableModel;
+    private final Thread writer;
+    private final ReentrantLock fileLock = new ReentrantLock(); // Held while the file is written or truncated
+    private final CRC32C checksum = new CRC32C();
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 12); // Records appended but not written yet
+    private ByteBuffer writing = ByteBuffer.allocate(1 << 12);
+    private long end; // Length of the file
+    private long appended = 0; // Sequence number of the last record appended
+    private long durable = 0; // Sequence number of the last record forced to disk
+    private boolean closing = false;
+    private IOException failure; // Stops the journal once writing failed
+
+    // Instrumentation
+    private long syncs = 0;
+
+
+    private EditJournal(Path path, FileChannel channel, TableModel tableModel, long end) {
+        this.path = path;
+        this.channel = channel;
+        this.tableModel = tableModel;
+        this.end = end;
+        this.writer = new Thread(this::writeBatches, "journal");
+        this.writer.setDaemon(true);
+    }
+
+    // Opens the journal at the path, creating it if needed, replays its records onto the table and records
+    // every later formula change of the table. The table is expected to hold the state of the last checkpoint.
+    public static EditJournal open(Path path, TableModel tableModel) throws IOException {
+        if (tableModel.getJournal() != null) {
+            throw new IllegalStateException("The table already has a journal");
+        }
+        var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long end;
+            if (channel.size() == 0) {
+                var header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+                writeFully(channel, header.rewind(), 0);
+                channel.force(false);
+                end = HEADER_SIZE;
+            } else {
+                end = replay(path, channel, tableModel);
+            }
+            var journal = new EditJournal(path, channel, tableModel, end);
+            tableModel.setJournal(journal);
+            journal.writer.start();
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Applies the valid records as one bulk write, cuts off what follows them and returns the new length
+    private static long replay(Path path, FileChannel channel, TableModel tableModel) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            throw new IOException("Not a journal file: " + path);
+        }
+        var in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (in.getInt(0) != MAGIC) {
+            throw new IOException("Not a journal file: " + path);
+        }
+        if (in.getInt(4) != VERSION) {
+            throw new IOException("Unsupported journal version " + in.getInt(4) + ": " + path);
+        }
+        var checksum = new CRC32C();
+        int position = HEADER_SIZE;
+        tableModel.startWrites();
+        try {
+            while (size - position >= RECORD_HEADER_SIZE + PAYLOAD_HEADER_SIZE) {
+                int length = in.getInt(position);
+                if (length < PAYLOAD_HEADER_SIZE || length > size - position - RECORD_HEADER_SIZE) {
+                    break;
+                }
+                var payload = in.slice(position + RECORD_HEADER_SIZE, length);
+                checksum.reset();
+                checksum.update(payload.duplicate());
+                if ((int) checksum.getValue() != in.getInt(position + Integer.BYTES)) {
+                    break;
+                }
+                int row = payload.getInt();
+                int column = payload.getInt();
+                if (row < 0 || row >= tableModel.getHeight() || column < 1 || column > tableModel.getWidth()) {
+                    throw new IOException("Journal does not match the table, cell (" + row + ", " + column + "): " + path);
+                }
+                var value = new byte[payload.remaining()];
+                payload.get(value);
+                tableModel.write(row, column, new String(value, StandardCharsets.UTF_8));
+                position += RECORD_HEADER_SIZE + length;
+            }
+        } finally {
+            tableModel.finishWrites();
+        }
+        if (position < size) {
+            channel.truncate(position); // Torn by a crash while the last batch was written
+            channel.force(false);
+        }
+        return position;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // Records that the formula of the cell at (row, column) was set to value and returns the sequence number of
+    // the record, which is durable once awaitDurable returns for it. Does not wait for the disk.
+    public synchronized long append(int row, int column, String value) {
+        checkOpen();
+        boolean idle = appended == durable;
+        appendRecord(row, column, value);
+        if (idle) {
+            notifyAll(); // The writer waits for the first record after it caught up
+        }
+        return appended;
+    }
+
+    // Same for the formulas of the cells of a bulk write, recorded together once it has finished
+    synchronized long append(List<Cell> cells) {
+        checkOpen();
+        boolean idle = appended == durable;
+        for (var cell : cells) {
+            appendRecord(cell.getRow(), cell.getColumn(), cell.getValue());
+        }
+        if (idle && appended > durable) {
+            notifyAll();
+        }
+        return appended;
+    }
+
+    private void checkOpen() {
+        if (failure != null) {
+            throw new UncheckedIOException("Cannot write journal " + path, failure);
+        }
+        if (closing) {
+            throw new IllegalStateException("Journal is closed: " + path);
+        }
+    }
+
+    private void appendRecord(int row, int column, String value) {
+        var text = value.getBytes(StandardCharsets.UTF_8);
+        int length = PAYLOAD_HEADER_SIZE + text.length;
+        if (pending.remaining() < RECORD_HEADER_SIZE + length) {
+            pending = ByteBuffer.allocate(Math.max(2 * pending.capacity(), pending.position() + RECORD_HEADER_SIZE + length))
+                    .put(pending.flip());
+        }
+        int start = pending.position();
+        pending.putInt(length).putInt(0).putInt(row).putInt(column).put(text);
+        checksum.reset();
+        checksum.update(pending.array(), start + RECORD_HEADER_SIZE, length);
+        pending.putInt(start + Integer.BYTES, (int) checksum.getValue());
+        appended++;
+    }
+
+    // Waits until the record with the sequence number has been forced to disk
+    public synchronized void awaitDurable(long sequence) throws IOException, InterruptedException {
+        while (durable < sequence && failure == null) {
+            wait();
+        }
+        if (durable < sequence) {
+            throw new IOException("Cannot write journal " + path, failure);
+        }
+    }
+
+    // Waits until every record appended so far is on disk
+    public void sync() throws IOException, InterruptedException {
+        long sequence;
+        synchronized (this) {
+            sequence = appended;
+        }
+        awaitDurable(sequence);
+    }
+
+    public synchronized long getAppendedCount() {
+        return appended;
+    }
+
+    public synchronized long getSyncCount() {
+        return syncs;
+    }
+
+    // Writes and forces the records appended so far in batches until the journal is closed
+    private void writeBatches() {
+        while (true) {
+            synchronized (this) {
+                while (pending.position() == 0 && !closing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.position() == 0) {
+                    return; // Closing with nothing left to write
+                }
+            }
+            fileLock.lock();
+            try {
+                long last;
+                synchronized (this) {
+                    if (pending.position() == 0) {
+                        continue; // Dropped by a checkpoint in the meantime
+                    }
+                    var batch = pending;
+                    pending = writing.clear();
+                    writing = batch;
+                    last = appended;
+                }
+                end += writeFully(channel, writing.flip(), end);
+                channel.force(false);
+                synchronized (this) {
+                    durable = last;
+                    syncs++;
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            } finally {
+                fileLock.unlock();
+            }
+        }
+    }
+
+    // Drops every record, called once the table has been saved to its workbook file. Records appended but not
+    // written yet are dropped too, they are contained in the save.
+    void checkpoint() throws IOException {
+        fileLock.lock();
+        try {
+            synchronized (this) {
+                pending.clear();
+                durable = appended;
+                notifyAll();
+            }
+            channel.truncate(HEADER_SIZE);
+            channel.force(false);
+            end = HEADER_SIZE;
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private static int writeFully(FileChannel target, ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.remaining();
+        for (long at = position; buffer.hasRemaining(); ) {
+            at += target.write(buffer, at);
+        }
+        return length;
+    }
+
+    // Writes the records appended so far and stops recording the changes of the table
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closing) {
+                return;
+            }
+            closing = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            tableModel.setJournal(null);
+            channel.close();
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw new IOException("Cannot write journal " + path, failure);
+            }
+        }
+    }
+}
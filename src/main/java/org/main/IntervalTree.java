@@ -0,0 +1,169 @@
+package org.main;
+
+import java.util.function.Consumer;
+
+
+// Dynamic set of closed integer intervals that answers "which intervals contain this point" in
+// O(log n + k). Implemented as a treap ordered by (low, high, id) where every node also tracks the
+// largest high end in its subtree, so whole subtrees that end before the point are skipped.
+public class IntervalTree<T> {
+    private static class Node<T> {
+        final int low;
+        final int high;
+        final long id;
+        final T value;
+        final int priority;
+        int maxHigh;
+        Node<T> left;
+        Node<T> right;
+
+        Node(int low, int high, long id, T value, int priority) {
+            this.low = low;
+            this.high = high;
+            this.id = id;
+            this.value = value;
+            this.priority = priority;
+            this.maxHigh = high;
+        }
+    }
+
+    private Node<T> root;
+    private long nextId = 0;
+    private int seed = 0x2545F491;
+    private int size = 0;
+
+    // Returns an id that identifies the interval when removing it again
+    public long insert(int low, int high, T value) {
+        var node = new Node<>(low, high, nextId++, value, nextPriority());
+        root = insert(root, node);
+        size++;
+        return node.id;
+    }
+
+    public boolean remove(int low, int high, long id) {
+        int before = size;
+        root = remove(root, low, high, id);
+        return size < before;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Visits the value of every interval with low <= point <= high
+    public void stab(int point, Consumer<T> consumer) {
+        stab(root, point, consumer);
+    }
+
+    private int nextPriority() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    private static <T> int compare(Node<T> node, int low, int high, long id) {
+        if (node.low != low) {
+            return Integer.compare(low, node.low);
+        }
+        if (node.high != high) {
+            return Integer.compare(high, node.high);
+        }
+        return Long.compare(id, node.id);
+    }
+
+    private Node<T> insert(Node<T> node, Node<T> inserted) {
+        if (node == null) {
+            return inserted;
+        }
+        if (compare(node, inserted.low, inserted.high, inserted.id) < 0) {
+            node.left = insert(node.left, inserted);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, inserted);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    private Node<T> remove(Node<T> node, int low, int high, long id) {
+        if (node == null) {
+            return null;
+        }
+        int comparison = compare(node, low, high, id);
+        if (comparison < 0) {
+            node.left = remove(node.left, low, high, id);
+        } else if (comparison > 0) {
+            node.right = remove(node.right, low, high, id);
+        } else {
+            size--;
+            return merge(node.left, node.right);
+        }
+        update(node);
+        return node;
+    }
+
+    private Node<T> merge(Node<T> left, Node<T> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private void stab(Node<T> node, int point, Consumer<T> consumer) {
+        while (node != null && node.maxHigh >= point) {
+            stab(node.left, point, consumer);
+            if (node.low > point) {
+                return; // Everything to the right starts even later
+            }
+            if (node.high >= point) {
+                consumer.accept(node.value);
+            }
+            node = node.right;
+        }
+    }
+
+    private Node<T> rotateRight(Node<T> node) {
+        var left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private Node<T> rotateLeft(Node<T> node) {
+        var right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private static <T> void update(Node<T> node) {
+        int maxHigh = node.high;
+        if (node.left != null) {
+            maxHigh = Math.max(maxHigh, node.left.maxHigh);
+        }
+        if (node.right != null) {
+            maxHigh = Math.max(maxHigh, node.right.maxHigh);
+        }
+        node.maxHigh = maxHigh;
+    }
+}
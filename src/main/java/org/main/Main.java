@@ -2,21 +2,62 @@ package org.main;
 
 
 import javax.swing.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class Main {
-    public static void main(String[] args) {
-        if (args.length != 5) {
-            System.out.println("Requires 5 arguments: <width> <height> <screenWidth> <screenHeight> <maxHistory>");
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            runBatch(args);
+            return;
+        }
+        if (args.length != 5 && args.length != 6) {
+            System.out.println("Requires 5 or 6 arguments: <width> <height> <screenWidth> <screenHeight> <historyBudget> [<workbook>]");
+            System.out.println("or, without a view: --batch <workbook> <output> [<threads>]");
             System.exit(1);
         }
         int width = Integer.parseInt(args[0]);
         int height = Integer.parseInt(args[1]);
         int screenWidth = Integer.parseInt(args[2]);
         int screenHeight = Integer.parseInt(args[3]);
-        int maxHistory = Integer.parseInt(args[4]);
-        var tableModel = new TableModel(width, height, screenWidth, screenHeight);
+        long historyBudget = Long.parseLong(args[4]); // Bytes of undo history
+        TableModel tableModel;
+        if (args.length == 6) {
+            // The workbook is the last checkpoint, the edits made since are replayed from its journal
+            var path = Path.of(args[5]);
+            var workbook = Files.exists(path) ? WorkbookFile.open(path, screenWidth, screenHeight)
+                    : WorkbookFile.create(new TableModel(width, height, screenWidth, screenHeight), path);
+            tableModel = workbook.getTableModel();
+            var journal = EditJournal.open(path.resolveSibling(path.getFileName() + ".journal"), tableModel);
+            // Closing the frame exits the JVM, which would stop the journal thread before its last batch is on disk
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+            }, "journal-close"));
+        } else {
+            tableModel = new TableModel(width, height, screenWidth, screenHeight);
+        }
         var tableView = new TableView(tableModel);
-        new TableController(tableView, tableModel, maxHistory);
+        new TableController(tableView, tableModel, historyBudget);
         SwingUtilities.invokeLater(() -> tableView.setVisible(true));
     }
+
+    // Recalculates a workbook and exports its results without creating any Swing component
+    private static void runBatch(String[] args) throws IOException {
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Requires: --batch <workbook> <output> [<threads>]");
+            System.exit(1);
+        }
+        var evaluator = args.length == 4 ? new BatchEvaluator(Integer.parseInt(args[3])) : new BatchEvaluator();
+        var report = evaluator.run(Path.of(args[1]), Path.of(args[2]));
+        System.out.printf("Loaded %d cells in %.1f ms%n", report.cells(), report.loadNanos() / 1e6);
+        System.out.printf("Compiled %d formulas in %.1f ms%n", report.formulas(), report.compileNanos() / 1e6);
+        System.out.printf("Recalculated on %d thread%s in %.1f ms%n", report.threads(), report.threads() == 1 ? "" : "s",
+                report.recalculationNanos() / 1e6);
+        System.out.printf("Exported %d values to %s in %.1f ms%n", report.exported(), args[2], report.exportNanos() / 1e6);
+    }
 }
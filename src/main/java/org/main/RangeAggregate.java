@@ -0,0 +1,131 @@
+package org.main;
+
+import java.util.TreeMap;
+
+
+// Running SUM/COUNT/MIN/MAX of the numeric cells in one range, updated by the cells as their values change.
+// The sum applies each change as a compensated delta, and the minimum and maximum come from a sorted
+// multiset of the values, so an edit costs O(log n) instead of a rescan of the range. Non-finite values are
+// counted apart so that adding and removing an infinity does not leave NaN behind. Text cells such as labels
+// are not counted at all, error cells only make every aggregate of the range fail.
+public class RangeAggregate {
+    private final CellRange range;
+    private int count = 0;
+    private int errors = 0;
+    private double sum = 0;
+    private double compensation = 0; // Neumaier correction term of sum
+    private int positiveInfinities = 0;
+    private int negativeInfinities = 0;
+    private int nans = 0;
+    private final TreeMap<Double, Integer> values = new TreeMap<>();
+
+    public RangeAggregate(CellRange range) {
+        this.range = range;
+    }
+
+    public CellRange getRange() {
+        return range;
+    }
+
+    synchronized void add(Cell cell) {
+        switch (cell.getType()) {
+            case NUMBER -> add(cell.getNumber());
+            case ERROR -> errors++;
+            default -> {}
+        }
+    }
+
+    synchronized void replace(CellType oldType, double oldNumber, Cell cell) {
+        switch (oldType) {
+            case NUMBER -> remove(oldNumber);
+            case ERROR -> errors--;
+            default -> {}
+        }
+        add(cell);
+    }
+
+    private void add(double value) {
+        count++;
+        values.merge(value, 1, Integer::sum);
+        if (Double.isNaN(value)) {
+            nans++;
+        } else if (value == Double.POSITIVE_INFINITY) {
+            positiveInfinities++;
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            negativeInfinities++;
+        } else {
+            accumulate(value);
+        }
+    }
+
+    private void remove(double value) {
+        count--;
+        values.computeIfPresent(value, (k, n) -> n == 1 ? null : n - 1);
+        if (Double.isNaN(value)) {
+            nans--;
+        } else if (value == Double.POSITIVE_INFINITY) {
+            positiveInfinities--;
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            negativeInfinities--;
+        } else if (count == 0) {
+            sum = 0; // Nothing left, drop whatever rounding error the deltas left behind
+            compensation = 0;
+        } else {
+            accumulate(-value);
+        }
+    }
+
+    private void accumulate(double value) {
+        double total = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - total) + value;
+        } else {
+            compensation += (value - total) + sum;
+        }
+        sum = total;
+    }
+
+    private void checkErrors() {
+        if (errors > 0) {
+            throw new IllegalArgumentException("Error value in range");
+        }
+    }
+
+    public synchronized int getCount() {
+        checkErrors();
+        return count;
+    }
+
+    public synchronized double getSum() {
+        checkErrors();
+        if (nans > 0 || (positiveInfinities > 0 && negativeInfinities > 0)) {
+            return Double.NaN;
+        }
+        if (positiveInfinities > 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (negativeInfinities > 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return sum + compensation;
+    }
+
+    // Like Math.min, NaN wins over every other value
+    public synchronized double getMin() {
+        checkExtreme();
+        return nans > 0 ? Double.NaN : values.firstKey();
+    }
+
+    public synchronized double getMax() {
+        checkExtreme();
+        return nans > 0 ? Double.NaN : values.lastKey();
+    }
+
+    // The keys are read directly, firstEntry() and lastEntry() would allocate a snapshot of the entry
+    private void checkExtreme() {
+        checkErrors();
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("No numeric value in range");
+        }
+    }
+}
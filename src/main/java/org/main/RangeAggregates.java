@@ -0,0 +1,90 @@
+package org.main;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+// The RangeAggregate of every range used by a compiled formula, shared by all formulas over the same range.
+// Cells report their value changes here, and the aggregates covering the cell are found by a stabbing query
+// on a per-column IntervalTree, the same way RangeIndex finds range dependents.
+public class RangeAggregates {
+    private static class Entry {
+        final RangeAggregate aggregate;
+        final long[] ids; // One interval id per spanned column
+        int references = 0;
+
+        Entry(RangeAggregate aggregate, long[] ids) {
+            this.aggregate = aggregate;
+            this.ids = ids;
+        }
+    }
+
+    private final CellStore cells;
+    private final Map<CellRange, Entry> entries = new HashMap<>();
+    private final Map<Integer, IntervalTree<RangeAggregate>> aggregatesByColumn = new HashMap<>();
+
+    public RangeAggregates(CellStore cells) {
+        this.cells = cells;
+    }
+
+    // Returns the aggregate of a range in use, or null so that the caller scans the range itself
+    public RangeAggregate get(CellRange range) {
+        var entry = entries.get(range);
+        return entry == null ? null : entry.aggregate;
+    }
+
+    // The aggregate of a range in use, or a throwaway one from a scan for a formula that has not acquired it
+    public RangeAggregate getOrCompute(CellRange range) {
+        var aggregate = get(range);
+        if (aggregate == null) {
+            aggregate = new RangeAggregate(range);
+            cells.forEachInRange(range.getTop(), range.getLeft(), range.getBottom(), range.getRight(), aggregate::add);
+        }
+        return aggregate;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Registers one more formula over the range, the first one pays for a single scan of the range
+    public void acquire(CellRange range) {
+        var entry = entries.get(range);
+        if (entry == null) {
+            var aggregate = new RangeAggregate(range);
+            cells.forEachInRange(range.getTop(), range.getLeft(), range.getBottom(), range.getRight(), aggregate::add);
+            var ids = new long[range.getRight() - range.getLeft() + 1];
+            for (int column = range.getLeft(); column <= range.getRight(); column++) {
+                var aggregates = aggregatesByColumn.computeIfAbsent(column, k -> new IntervalTree<>());
+                ids[column - range.getLeft()] = aggregates.insert(range.getTop(), range.getBottom(), aggregate);
+            }
+            entry = new Entry(aggregate, ids);
+            entries.put(range, entry);
+        }
+        entry.references++;
+    }
+
+    public void release(CellRange range) {
+        var entry = entries.get(range);
+        if (entry == null || --entry.references > 0) {
+            return;
+        }
+        entries.remove(range);
+        for (int column = range.getLeft(); column <= range.getRight(); column++) {
+            var aggregates = aggregatesByColumn.get(column);
+            aggregates.remove(range.getTop(), range.getBottom(), entry.ids[column - range.getLeft()]);
+            if (aggregates.size() == 0) {
+                aggregatesByColumn.remove(column);
+            }
+        }
+    }
+
+    // Called by a cell whose computed value changed from (oldType, oldNumber) to its current value
+    void cellChanged(Cell cell, CellType oldType, double oldNumber) {
+        var aggregates = aggregatesByColumn.get(cell.getColumn());
+        if (aggregates == null || cells.get(cell.getRow(), cell.getColumn()) != cell) {
+            return; // Only stored cells were counted, an empty view is not part of any aggregate
+        }
+        aggregates.stab(cell.getRow(), aggregate -> aggregate.replace(oldType, oldNumber, cell));
+    }
+}
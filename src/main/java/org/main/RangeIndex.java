@@ -0,0 +1,77 @@
+package org.main;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+
+// Spatial index of range references. Every range is stored once per column it spans, as a row interval
+// in that column's IntervalTree, so a formula over A1:A100000 costs one entry instead of 100000 edges,
+// and the formulas reading a given cell are found with a single stabbing query.
+public class RangeIndex {
+    private static class Registration {
+        final CellRange range;
+        final long[] ids; // One interval id per spanned column
+
+        Registration(CellRange range, long[] ids) {
+            this.range = range;
+            this.ids = ids;
+        }
+    }
+
+    private final Map<Integer, IntervalTree<Cell>> rowIntervalsByColumn = new HashMap<>();
+    private final Map<Cell, List<Registration>> registrations = new HashMap<>();
+
+    public void add(CellRange range, Cell dependent) {
+        var existing = registrations.getOrDefault(dependent, Collections.emptyList());
+        if (existing.stream().anyMatch(registration -> registration.range.equals(range))) {
+            return; // A formula that is compiled again after an undo registers the same ranges again
+        }
+        var ids = new long[range.getRight() - range.getLeft() + 1];
+        for (int column = range.getLeft(); column <= range.getRight(); column++) {
+            var intervals = rowIntervalsByColumn.computeIfAbsent(column, k -> new IntervalTree<>());
+            ids[column - range.getLeft()] = intervals.insert(range.getTop(), range.getBottom(), dependent);
+        }
+        registrations.computeIfAbsent(dependent, k -> new ArrayList<>()).add(new Registration(range, ids));
+    }
+
+    public void removeAll(Cell dependent) {
+        var removed = registrations.remove(dependent);
+        if (removed == null) {
+            return;
+        }
+        for (var registration : removed) {
+            var range = registration.range;
+            for (int column = range.getLeft(); column <= range.getRight(); column++) {
+                var intervals = rowIntervalsByColumn.get(column);
+                intervals.remove(range.getTop(), range.getBottom(), registration.ids[column - range.getLeft()]);
+                if (intervals.size() == 0) {
+                    rowIntervalsByColumn.remove(column);
+                }
+            }
+        }
+    }
+
+    public boolean hasRanges(Cell dependent) {
+        return registrations.containsKey(dependent);
+    }
+
+    public List<CellRange> getRanges(Cell dependent) {
+        var result = new ArrayList<CellRange>();
+        for (var registration : registrations.getOrDefault(dependent, Collections.emptyList())) {
+            result.add(registration.range);
+        }
+        return result;
+    }
+
+    // Visits every cell with a range reference covering (row, column), once per covering range
+    public void forEachDependent(int row, int column, Consumer<Cell> consumer) {
+        var intervals = rowIntervalsByColumn.get(column);
+        if (intervals != null) {
+            intervals.stab(row, consumer);
+        }
+    }
+
+    public int size() {
+        return registrations.values().stream().mapToInt(List::size).sum();
+    }
+}
@@ -0,0 +1,200 @@
+package org.main;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+
+public class RecalculationEngine {
+    public enum Mode {
+        SERIAL,
+        PARALLEL // Cells of the same topological level are evaluated concurrently on a ForkJoinPool
+    }
+
+    // Levels smaller than this are evaluated on the calling thread, forking would cost more than it saves
+    static final int PARALLEL_THRESHOLD = 256;
+    private static final int TASK_SIZE = 64;
+    private static final int CANCELLATION_CHECK_INTERVAL = 64;
+
+    private final TableModel tableModel;
+    private final CellDependencyGraph cellDependencyGraph;
+    private Mode mode = Mode.SERIAL;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private volatile BooleanSupplier cancellation = () -> false;
+    // Cells a cancelled pass did not get to, they stay pending and are evaluated by the next pass
+    private final Set<Cell> deferred = new LinkedHashSet<>();
+
+
+    RecalculationEngine(TableModel tableModel, CellDependencyGraph cellDependencyGraph) {
+        this.tableModel = tableModel;
+        this.cellDependencyGraph = cellDependencyGraph;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Polled while a pass runs, once it returns true the pass stops and leaves the rest of its cells pending.
+    // Every pass gets at least its first CANCELLATION_CHECK_INTERVAL cells done.
+    public void setCancellation(BooleanSupplier cancellation) {
+        this.cancellation = cancellation;
+    }
+
+    public boolean hasDeferred() {
+        return !deferred.isEmpty();
+    }
+
+    // Evaluates the edited cell and then every transitive dependent exactly once, in topological order.
+    // Returns the number of evaluated cells.
+    public int recalculate(Cell cell) {
+        if (!deferred.isEmpty()) {
+            return recalculate(List.of(cell));
+        }
+        cell.evaluate();
+        tableModel.handleCellUpdate(cell);
+        return evaluate(cellDependencyGraph.getAllDependents(cell)) + 1;
+    }
+
+    // Evaluates several edited cells, such as the cells restored by an undo, and every cell that depends on
+    // any of them. A cell reachable from more than one edited cell is still evaluated exactly once.
+    public int recalculate(Collection<Cell> cells) {
+        compile(cells); // Registers the references so that the edited cells are ordered among themselves
+        var roots = new ArrayList<>(cells);
+        roots.addAll(deferred);
+        deferred.clear();
+        return evaluate(cellDependencyGraph.getAllDependents(roots));
+    }
+
+    // Parses and registers the formulas of many cells, such as those of a sheet being loaded, so that the pass
+    // that follows only evaluates. Large batches are parsed on the pool, registering the references touches the
+    // graph and stays on this thread.
+    public void compile(Collection<Cell> cells) {
+        if (cells.size() >= PARALLEL_THRESHOLD) {
+            pool.invoke(new CellTask(cells instanceof List<Cell> list ? list : List.copyOf(cells), 0, cells.size(), Cell::prepare));
+        }
+        for (var cell : cells) {
+            if (cell.getTemplate() != null) {
+                cell.getCompiledExpr();
+            }
+        }
+    }
+
+    // Finishes the cells left over by a cancelled pass
+    public int recalculateDeferred() {
+        return recalculate(List.of());
+    }
+
+    private int evaluate(List<Cell> cells) {
+        for (var cell : cells) {
+            cell.setPending(true);
+        }
+        if (mode == Mode.PARALLEL && cells.size() >= PARALLEL_THRESHOLD) {
+            var evaluated = recalculateParallel(cells);
+            evaluated.forEach(tableModel::handleCellUpdate); // Listeners are only ever called from this thread
+            return evaluated.size();
+        }
+        for (int i = 0; i < cells.size(); i++) {
+            if (i > 0 && i % CANCELLATION_CHECK_INTERVAL == 0 && cancellation.getAsBoolean()) {
+                cells.subList(i, cells.size()).forEach(this::defer);
+                return i;
+            }
+            var cell = cells.get(i);
+            cell.evaluate();
+            tableModel.handleCellUpdate(cell);
+        }
+        return cells.size();
+    }
+
+    // Returns the evaluated cells, which are fewer than the given ones if the pass was cancelled between levels
+    private List<Cell> recalculateParallel(List<Cell> dependents) {
+        compile(dependents);
+        var evaluated = new ArrayList<Cell>(dependents.size());
+        for (var level : partitionIntoLevels(dependents)) {
+            if (cancellation.getAsBoolean()) {
+                for (var cell : dependents) {
+                    if (cell.isPending()) {
+                        defer(cell); // Not reached by the levels evaluated so far
+                    }
+                }
+                break;
+            }
+            if (level.size() < PARALLEL_THRESHOLD) {
+                level.forEach(Cell::evaluate);
+            } else {
+                pool.invoke(new CellTask(level, 0, level.size(), Cell::evaluate));
+            }
+            evaluated.addAll(level);
+        }
+        return evaluated;
+    }
+
+    // Leaves the cell to the next pass. It is reported to the listener, so that the view repaints it as pending.
+    private void defer(Cell cell) {
+        if (deferred.add(cell)) {
+            tableModel.handleCellUpdate(cell);
+        }
+    }
+
+    // Groups topologically ordered cells so that no cell depends on another cell of its own level
+    private List<List<Cell>> partitionIntoLevels(List<Cell> dependents) {
+        var levels = new ArrayList<List<Cell>>();
+        var levelOf = new HashMap<Cell, Integer>();
+        for (var dependent : dependents) {
+            int level = levelOf.getOrDefault(dependent, 0);
+            if (level == levels.size()) {
+                levels.add(new ArrayList<>());
+            }
+            levels.get(level).add(dependent);
+            for (var next : cellDependencyGraph.getDependents(dependent)) {
+                levelOf.merge(next, level + 1, Math::max);
+            }
+        }
+        return levels;
+    }
+
+    // Applies an action to independent cells, splitting the list until the parts are small
+    private static class CellTask extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<Cell> cells;
+        private final int from;
+        private final int to;
+        private final transient Consumer<Cell> action;
+
+        CellTask(List<Cell> cells, int from, int to, Consumer<Cell> action) {
+            this.cells = cells;
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= TASK_SIZE) {
+                for (int i = from; i < to; i++) {
+                    action.accept(cells.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new CellTask(cells, from, middle, action), new CellTask(cells, middle, to, action));
+        }
+    }
+}
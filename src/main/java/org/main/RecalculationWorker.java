@@ -0,0 +1,125 @@
+package org.main;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+
+// Applies edits to a TableModel without blocking the event thread on long recalculations. Every submitted
+// change gets a new version. It runs right away on the calling thread when nothing is queued, but only for
+// the inline budget, half a frame by default, after which the rest of its pass continues on a background
+// thread. A pass that is still running when a newer change is submitted is cancelled, and its remaining
+// cells are evaluated by the newer pass instead. Until then they report isPending(), so the view can show them as such.
+// The model is only ever changed by one thread at a time, the lock decides which.
+public class RecalculationWorker {
+    public interface PassListener {
+        void passStarted();
+
+        // consistent is false when the pass was cancelled or left cells for the background thread
+        void passFinished(boolean consistent);
+    }
+
+    static final long INLINE_BUDGET_NANOS = 8_000_000; // Half a frame
+
+    private final RecalculationEngine engine;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "recalculation");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong latestVersion = new AtomicLong();
+    private final AtomicInteger queued = new AtomicInteger(); // Background jobs submitted but not finished
+    private PassListener passListener;
+    private long inlineBudgetNanos = INLINE_BUDGET_NANOS;
+
+
+    public RecalculationWorker(TableModel tableModel) {
+        this.engine = tableModel.getRecalculationEngine();
+    }
+
+    public void setPassListener(PassListener passListener) {
+        this.passListener = passListener;
+    }
+
+    // How long a change may run on the calling thread before its pass moves to the background
+    public void setInlineBudgetNanos(long inlineBudgetNanos) {
+        this.inlineBudgetNanos = inlineBudgetNanos;
+    }
+
+    public long getLatestVersion() {
+        return latestVersion.get();
+    }
+
+    // Runs the change, which edits cells and recalculates them through the engine, as the next version.
+    // Meant to be called from a single thread, normally the event thread.
+    public long submit(Runnable change) {
+        long version = latestVersion.incrementAndGet();
+        if (queued.get() == 0 && lock.tryLock()) {
+            long deadline = System.nanoTime() + inlineBudgetNanos;
+            boolean finished;
+            try {
+                run(change, () -> System.nanoTime() > deadline || latestVersion.get() != version);
+                finished = !engine.hasDeferred();
+            } finally {
+                lock.unlock();
+            }
+            if (!finished) {
+                enqueue(version, engine::recalculateDeferred);
+            }
+        } else {
+            enqueue(version, change);
+        }
+        return version;
+    }
+
+    private void enqueue(long version, Runnable change) {
+        queued.incrementAndGet();
+        executor.execute(() -> {
+            lock.lock();
+            try {
+                run(change, () -> latestVersion.get() != version);
+            } finally {
+                queued.decrementAndGet();
+                lock.unlock();
+            }
+        });
+    }
+
+    private void run(Runnable change, BooleanSupplier cancellation) {
+        if (passListener != null) {
+            passListener.passStarted();
+        }
+        boolean consistent = false;
+        engine.setCancellation(cancellation);
+        try {
+            change.run();
+            consistent = !engine.hasDeferred();
+        } finally {
+            engine.setCancellation(() -> false);
+            if (passListener != null) {
+                passListener.passFinished(consistent);
+            }
+        }
+    }
+
+    // Waits until every submitted change has been applied, for tests and for shutting down cleanly
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (queued.get() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
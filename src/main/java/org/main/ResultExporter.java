@@ -0,0 +1,364 @@
+package org.main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+// Writes the computed values of a TableModel, the counterpart of DelimitedImporter. The stored cells are walked
+// row by row straight from the pages of the CellStore, one strip of pages at a time, and every value is
+// formatted into one buffer that is written to the channel whenever it is full, so memory stays the same
+// whatever the size of the table and nothing is allocated per cell. Pages of an opened workbook that have not
+// been read are decoded from the file for their strip only and never stored in the table. The buffer is an array rather than a direct
+// buffer since filling it byte by byte is much cheaper, which costs the channel one copy per megabyte.
+//
+// CSV and TSV write one line per row from row 1 on, with empty lines for empty rows and the fields of a line up
+// to its last value. Errors are written as # and their name, such as #CYCLE. CSV quotes text as RFC 4180 does,
+// TSV has no quoting and turns tabs and line breaks in text into spaces.
+//
+// The binary format is a header of magic, version, width and height, followed by one record per value in the
+// same order: row, column, the ordinal of its CellType and the value, a double for numbers, the length and
+// UTF-8 bytes for text and the ordinal of the CellError for errors. Numbers are big-endian.
+public class ResultExporter {
+    public enum Format {
+        CSV,
+        TSV,
+        BINARY
+    }
+
+    static final int BUFFER_SIZE = 1 << 20;
+    static final int MAX_NUMBER_LENGTH = 330; // -0.000...49 for -Double.MIN_VALUE in plain notation
+    private static final int MAGIC = 0x53544558; // "STEX"
+    private static final int VERSION = 1;
+    private static final double[] POWERS_OF_TEN = { // All exact doubles
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19,
+            1e20, 1e21, 1e22};
+    private static final double EXACT_LIMIT = 0x1p53; // Integers below this convert to double exactly
+    private static final byte[][] ERROR_TEXTS = new byte[CellError.values().length][]; // By ordinal, such as #CYCLE
+
+    static {
+        for (var error : CellError.values()) {
+            ERROR_TEXTS[error.ordinal()] = ("#" + error.name()).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final TableModel tableModel;
+    private final Format format;
+    private final byte delimiter;
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+    private final ByteBuffer buffer = ByteBuffer.wrap(bytes); // For the ints and doubles of the binary format
+    private int length; // Bytes in the buffer
+    private WritableByteChannel channel;
+    private int row; // Position of the last value written as text
+    private int column;
+
+    public ResultExporter(TableModel tableModel, Format format) {
+        this.tableModel = tableModel;
+        this.format = format;
+        this.delimiter = (byte) (format == Format.TSV ? '\t' : ',');
+    }
+
+    // CSV for .csv files, TSV for .tsv and .tab files, binary otherwise
+    public static ResultExporter forFile(TableModel tableModel, Path path) {
+        var name = path.getFileName().toString().toLowerCase();
+        var format = name.endsWith(".csv") ? Format.CSV
+                : name.endsWith(".tsv") || name.endsWith(".tab") ? Format.TSV : Format.BINARY;
+        return new ResultExporter(tableModel, format);
+    }
+
+    // Returns the number of values written
+    public long exportFile(Path path) throws IOException {
+        try (var fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            return exportTo(fileChannel);
+        }
+    }
+
+    // Writes every cell holding a value, the channel is not closed. Must not run while the table is changed or
+    // recalculated.
+    public long exportTo(WritableByteChannel channel) throws IOException {
+        this.channel = channel;
+        length = 0;
+        row = 0;
+        column = 1;
+        long count = 0;
+        try {
+            if (format == Format.BINARY) {
+                buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, tableModel.getWidth()).putInt(12, tableModel.getHeight());
+                length = 4 * Integer.BYTES;
+            }
+            var cells = tableModel.getCellStore();
+            var source = tableModel.getPageSource();
+            var keys = source == null ? cells.getPageKeys() : union(cells.getPageKeys(), source.getUnreadPageKeys());
+            var strip = new Cell[(tableModel.getWidth() >>> CellStore.PAGE_COLUMN_BITS) + 1][];
+            for (int first = 0, last; first < keys.length; first = last) {
+                // The pages of one strip of rows, in column order
+                long pageRow = keys[first] >>> 32;
+                for (last = first; last < keys.length && keys[last] >>> 32 == pageRow; last++) {
+                    var page = cells.getPage(keys[last]);
+                    strip[last - first] = page != null || source == null ? page : source.readDetached(keys[last]);
+                }
+                for (int rowInPage = 0; rowInPage < CellStore.PAGE_ROWS; rowInPage++) {
+                    for (int page = 0; page < last - first; page++) {
+                        if (strip[page] == null) {
+                            continue;
+                        }
+                        for (int columnInPage = 0; columnInPage < CellStore.PAGE_COLUMNS; columnInPage++) {
+                            var cell = strip[page][CellStore.indexInPage(rowInPage, columnInPage)];
+                            if (cell != null && cell.getType() != CellType.EMPTY) {
+                                write(cell);
+                                count++;
+                            }
+                        }
+                    }
+                }
+            }
+            if (format != Format.BINARY && count > 0) {
+                ensure(1);
+                bytes[length++] = '\n';
+            }
+            flush();
+        } finally {
+            this.channel = null;
+        }
+        return count;
+    }
+
+    // Merges two ascending arrays of page keys, a key in both is kept once
+    private static long[] union(long[] a, long[] b) {
+        var result = new long[a.length + b.length];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length || j < b.length; ) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[count++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private void write(Cell cell) throws IOException {
+        if (format == Format.BINARY) {
+            ensure(2 * Integer.BYTES + 1 + Double.BYTES);
+            buffer.putInt(length, cell.getRow()).putInt(length + Integer.BYTES, cell.getColumn());
+            length += 2 * Integer.BYTES;
+            bytes[length++] = (byte) cell.getType().ordinal();
+            switch (cell.getType()) {
+                case NUMBER -> {
+                    buffer.putDouble(length, cell.getNumber());
+                    length += Double.BYTES;
+                }
+                case TEXT -> putBinaryText(cell.getParsedValue());
+                case ERROR -> bytes[length++] = (byte) cell.getError().ordinal();
+                case EMPTY -> {}
+            }
+            return;
+        }
+        for (; row < cell.getRow(); row++, column = 1) {
+            ensure(1);
+            bytes[length++] = '\n';
+        }
+        for (; column < cell.getColumn(); column++) {
+            ensure(1);
+            bytes[length++] = delimiter;
+        }
+        switch (cell.getType()) {
+            case NUMBER -> {
+                ensure(MAX_NUMBER_LENGTH);
+                length = putNumber(cell.getNumber(), bytes, length);
+            }
+            case TEXT -> putText(cell.getParsedValue());
+            case ERROR -> {
+                var text = ERROR_TEXTS[cell.getError().ordinal()]; // Needs neither quotes nor escapes
+                ensure(text.length);
+                System.arraycopy(text, 0, bytes, length, text.length);
+                length += text.length;
+            }
+            case EMPTY -> {}
+        }
+    }
+
+    // Writes the shortest decimal of at most 16 significant digits that parses back to the same double at the
+    // position, in plain notation since formulas have no exponents, and returns the position behind it. A
+    // candidate with k fraction digits below 2^53 is checked in double arithmetic by dividing it by 10^k: both
+    // are exact doubles, so the quotient is rounded exactly as parsing the decimal rounds it. The candidate with
+    // as many digits as fit is tried first and then shortened. Values needing 17 digits take the digits of
+    // Double.toString, written out in plain notation too, and infinities and NaN are written as it writes them.
+    static int putNumber(double value, byte[] out, int position) {
+        double magnitude = Math.abs(value);
+        if (Double.doubleToRawLongBits(value) < 0 && !Double.isNaN(value)) {
+            out[position++] = '-';
+        }
+        if (magnitude < EXACT_LIMIT && magnitude == (long) magnitude) {
+            return putDecimal((long) magnitude, 0, out, position);
+        }
+        // floor(log10) of the magnitude or one less, from its binary exponent
+        int fractionDigits = Math.min(POWERS_OF_TEN.length - 1, 16 - (Math.getExponent(magnitude) * 1233 >> 12));
+        while (fractionDigits >= 0 && magnitude * POWERS_OF_TEN[fractionDigits] >= EXACT_LIMIT) {
+            fractionDigits--;
+        }
+        if (fractionDigits >= 0) {
+            long candidate = (long) Math.rint(magnitude * POWERS_OF_TEN[fractionDigits]);
+            if (candidate / POWERS_OF_TEN[fractionDigits] == magnitude) {
+                while (fractionDigits > 0 && candidate % 10 == 0) { // Trailing zeros keep the value
+                    candidate /= 10;
+                    fractionDigits--;
+                }
+                // A shorter candidate may still parse back to the value if the scaled value was rounded up or down
+                while (fractionDigits > 0) {
+                    long shorter = (long) Math.rint(magnitude * POWERS_OF_TEN[fractionDigits - 1]);
+                    if (shorter / POWERS_OF_TEN[fractionDigits - 1] != magnitude) {
+                        break;
+                    }
+                    candidate = shorter;
+                    fractionDigits--;
+                }
+                return putDecimal(candidate, fractionDigits, out, position);
+            }
+        }
+        var text = Double.toString(magnitude);
+        if (!Double.isFinite(magnitude)) {
+            for (int i = 0; i < text.length(); i++) {
+                out[position++] = (byte) text.charAt(i);
+            }
+            return position;
+        }
+        // Double.toString writes d.ddd or d.dddEn: the digits are written with the point moved by the exponent
+        int exponentAt = text.indexOf('E');
+        int dot = text.indexOf('.');
+        int point = exponentAt < 0 ? dot : dot + Integer.parseInt(text, exponentAt + 1, text.length(), 10);
+        int digitCount = (exponentAt < 0 ? text.length() : exponentAt) - 1;
+        while (digitCount > Math.max(point, 1) && text.charAt(digitCount) == '0') { // Digits behind the dot
+            digitCount--;
+        }
+        if (point <= 0) {
+            out[position++] = '0';
+            out[position++] = '.';
+            for (int i = point; i < 0; i++) {
+                out[position++] = '0';
+            }
+        }
+        for (int i = 0; i < Math.max(digitCount, point); i++) {
+            if (i == point && point > 0) {
+                out[position++] = '.';
+            }
+            out[position++] = i < digitCount ? (byte) text.charAt(i < dot ? i : i + 1) : (byte) '0';
+        }
+        return position;
+    }
+
+    // Writes value / 10^fractionDigits with at least one digit before the point, from the last digit backwards
+    private static int putDecimal(long value, int fractionDigits, byte[] out, int position) {
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, fractionDigits + 1);
+        int end = position + digits + (fractionDigits > 0 ? 1 : 0);
+        for (int i = end, written = 0; written < digits; written++) {
+            if (written == fractionDigits && written > 0) {
+                out[--i] = '.';
+            }
+            out[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    private void putText(String text) throws IOException {
+        boolean quoted = format == Format.CSV && needsQuotes(text);
+        ensure(1);
+        if (quoted) {
+            bytes[length++] = '"';
+        }
+        for (int i = 0; i < text.length(); i++) {
+            ensure(5);
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (quoted && c == '"') {
+                    bytes[length++] = '"';
+                } else if (format == Format.TSV && (c == '\t' || c == '\n' || c == '\r')) {
+                    c = ' ';
+                }
+                bytes[length++] = (byte) c;
+            } else {
+                i = putNonAscii(text, i);
+            }
+        }
+        if (quoted) {
+            ensure(1);
+            bytes[length++] = '"';
+        }
+    }
+
+    private boolean needsQuotes(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == delimiter || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Encodes the character at i as UTF-8, returning the index of its last char. Unpaired surrogates become ?
+    // like String.getBytes makes them.
+    private int putNonAscii(String text, int i) {
+        int codePoint = text.codePointAt(i);
+        if (codePoint < 0x800) {
+            bytes[length++] = (byte) (0xC0 | codePoint >> 6);
+            bytes[length++] = (byte) (0x80 | codePoint & 0x3F);
+        } else if (Character.isSurrogate((char) codePoint)) {
+            bytes[length++] = '?';
+        } else if (codePoint < 0x10000) {
+            bytes[length++] = (byte) (0xE0 | codePoint >> 12);
+            bytes[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+            bytes[length++] = (byte) (0x80 | codePoint & 0x3F);
+        } else {
+            bytes[length++] = (byte) (0xF0 | codePoint >> 18);
+            bytes[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+            bytes[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+            bytes[length++] = (byte) (0x80 | codePoint & 0x3F);
+            return i + 1;
+        }
+        return i;
+    }
+
+    private void putBinaryText(String text) throws IOException {
+        var encoded = text.getBytes(StandardCharsets.UTF_8);
+        ensure(Integer.BYTES);
+        buffer.putInt(length, encoded.length);
+        length += Integer.BYTES;
+        for (int offset = 0; offset < encoded.length; ) {
+            ensure(1);
+            int count = Math.min(bytes.length - length, encoded.length - offset);
+            System.arraycopy(encoded, offset, bytes, length, count);
+            length += count;
+            offset += count;
+        }
+    }
+
+    // Makes room for the given number of bytes, at most a few hundred
+    private void ensure(int count) throws IOException {
+        if (bytes.length - length < count) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        var written = ByteBuffer.wrap(bytes, 0, length);
+        while (written.hasRemaining()) {
+            channel.write(written);
+        }
+        length = 0;
+    }
+}
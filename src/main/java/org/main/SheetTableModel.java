@@ -0,0 +1,86 @@
+package org.main;
+
+import javax.swing.table.AbstractTableModel;
+import java.io.Serial;
+
+
+// Swing view of a TableModel. Nothing is copied, JTable asks for the values of the cells it paints and they
+// are read from the TableModel at that moment, so the size of the sheet does not matter to the view.
+// The selected cell shows its formula, every other cell its computed value, or PENDING while a background
+// recalculation has not reached it yet.
+public class SheetTableModel extends AbstractTableModel {
+    public static final String PENDING = "\u2026";
+
+    public interface EditListener {
+        void cellEdited(int row, int column, String value);
+    }
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final transient TableModel tableModel;
+    private final String[] columnLabels;
+    private transient EditListener editListener;
+
+    public SheetTableModel(TableModel tableModel) {
+        this.tableModel = tableModel;
+        this.columnLabels = tableModel.getColumnLabels();
+    }
+
+    public void setEditListener(EditListener editListener) {
+        this.editListener = editListener;
+    }
+
+    @Override
+    public int getRowCount() {
+        return tableModel.getHeight();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnLabels.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnLabels[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return column != 0;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (column == 0) {
+            return tableModel.getRowLabel(row);
+        }
+        var cell = tableModel.findCell(row, column);
+        if (cell == null) {
+            return "";
+        }
+        if (isSelected(row, column)) {
+            return cell.getValue();
+        }
+        return cell.isPending() ? PENDING : cell.getParsedValue();
+    }
+
+    private boolean isSelected(int row, int column) {
+        var selectedCell = tableModel.getSelectedCell();
+        return selectedCell != null && selectedCell.getRow() == row && selectedCell.getColumn() == column;
+    }
+
+    // Called by JTable when an edit is committed, the value reaches the TableModel through the listener
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        if (editListener != null && column != 0) {
+            editListener.cellEdited(row, column, value == null ? "" : value.toString());
+        }
+    }
+}
@@ -1,80 +1,112 @@
 package org.main;
 
 import javax.swing.*;
-import javax.swing.event.CellEditorListener;
-import javax.swing.event.ChangeEvent;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 
-public class TableController {
+public final class TableController {
     private final TableModel tableModel;
     private final TableView view;
-    private final Deque<TableModelSnapshot> history = new ArrayDeque<>();
-    private final int maxHistory;
+    private final EditHistory history;
+    private final UpdateCoalescer updates;
+    private final RecalculationWorker worker;
 
 
-    public TableController(TableView view, TableModel tableModel, int maxHistory) {
+    // historyBudget is the approximate number of bytes the undo history may take
+    public TableController(TableView view, TableModel tableModel, long historyBudget) {
         this.view = view;
         this.tableModel = tableModel;
-        this.maxHistory = maxHistory;
-        tableModel.setListener(this);
+        this.history = new EditHistory(tableModel, historyBudget);
+        this.updates = new UpdateCoalescer(view::refreshRegion);
+        this.worker = new RecalculationWorker(tableModel);
+        worker.setPassListener(updates);
+        tableModel.setListener(this::handleCellUpdate);
         setupCellSelectionListener();
-        setupCellEditorListener();
+        view.getSheetModel().setEditListener(this::handleCellEdit);
         setupKeyBindings();
-        history.add(new TableModelSnapshot(tableModel));
     }
 
-    private void setupCellSelectionListener() {
-        view.getTable().getSelectionModel().addListSelectionListener(event -> handleCellSelection());
-        view.getTable().getColumnModel().getSelectionModel().addListSelectionListener(event -> handleCellSelection());
+    public EditHistory getHistory() {
+        return history;
     }
 
-    private void setupCellEditorListener() {
-        view.getEditor().addCellEditorListener(new CellEditorListener() {
-            @Override
-            public void editingStopped(ChangeEvent e) {
-                handleCellEdit();
-            }
+    public UpdateCoalescer getUpdates() {
+        return updates;
+    }
 
-            @Override
-            public void editingCanceled(ChangeEvent e) {}
-        });
+    public RecalculationWorker getWorker() {
+        return worker;
+    }
+
+    private void setupCellSelectionListener() {
+        view.getTable().getSelectionModel().addListSelectionListener(event -> handleCellSelection());
+        view.getTable().getColumnModel().getSelectionModel().addListSelectionListener(event -> handleCellSelection());
     }
 
     private void setupKeyBindings() {
         String os = System.getProperty("os.name").toLowerCase();
         KeyStroke undoKeyStroke;
+        KeyStroke redoKeyStroke;
+        KeyStroke saveKeyStroke;
         if (os.contains("mac")) {
-            undoKeyStroke = KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx());
+            int menuShortcut = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+            undoKeyStroke = KeyStroke.getKeyStroke(KeyEvent.VK_Z, menuShortcut);
+            redoKeyStroke = KeyStroke.getKeyStroke(KeyEvent.VK_Z, menuShortcut | InputEvent.SHIFT_DOWN_MASK);
+            saveKeyStroke = KeyStroke.getKeyStroke(KeyEvent.VK_S, menuShortcut);
         } else {
             undoKeyStroke = KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK);
+            redoKeyStroke = KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK);
+            saveKeyStroke = KeyStroke.getKeyStroke(KeyEvent.VK_S, InputEvent.CTRL_DOWN_MASK);
         }
 
+        // Undone and redone cells notify the view themselves
         var table = view.getTable();
         table.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT).put(undoKeyStroke, "undoAction");
         table.getActionMap().put("undoAction", new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                if (history.size() <= 1) {
-                    return;
-                }
-                history.pollLast();
-                tableModel.restoreFromSnapshot(history.getLast());
-                var cells = tableModel.getCells();
-                for (int i = 0; i < cells.size(); i++) {
-                    for (int j = 0; j < cells.get(i).size(); j++) {
-                        view.setCellValue(i, j, cells.get(i).get(j).getParsedValue());
-                    }
+                updates.editStarted();
+                worker.submit(history::undo);
+            }
+        });
+        table.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT).put(redoKeyStroke, "redoAction");
+        table.getActionMap().put("redoAction", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                updates.editStarted();
+                worker.submit(history::redo);
+            }
+        });
+        // Saving runs in turn with the edits, so that none is half done when the edit journal is truncated
+        table.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT).put(saveKeyStroke, "saveAction");
+        table.getActionMap().put("saveAction", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (tableModel.getWorkbook() != null) {
+                    worker.submit(TableController.this::save);
                 }
             }
         });
     }
 
+    // Results are saved with the formulas, so the cells a cancelled pass left pending are finished first
+    private void save() {
+        var engine = tableModel.getRecalculationEngine();
+        engine.setCancellation(() -> false);
+        engine.recalculateDeferred();
+        var workbook = tableModel.getWorkbook();
+        try {
+            workbook.save();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot save " + workbook.getPath(), e);
+        }
+    }
+
     private void handleCellSelection() {
         handleCellDeselection();
         var selectedRow = view.getSelectedRow();
@@ -82,36 +114,29 @@ public class TableController {
         if (selectedRow == -1 || selectedColumn == -1) {
             return;
         }
-        var selectedCell = tableModel.getCell(selectedRow, selectedColumn);
-        tableModel.setSelectedCell(selectedCell);
-        view.setCellValue(selectedRow, selectedColumn, selectedCell.getValue());
+        tableModel.setSelectedCell(tableModel.getCell(selectedRow, selectedColumn));
+        view.refreshCell(selectedRow, selectedColumn); // Now shows its formula
     }
 
     private void handleCellDeselection() {
         var selectedCell = tableModel.getSelectedCell();
         if (selectedCell != null) {
-            var parsedValue = selectedCell.getParsedValue();
-            if (parsedValue != null) {
-                view.setCellValue(selectedCell.getRow(), selectedCell.getColumn(), parsedValue);
-            }
+            tableModel.setSelectedCell(null);
+            view.refreshCell(selectedCell.getRow(), selectedCell.getColumn()); // Back to showing its value
         }
     }
 
     public void handleCellUpdate(Cell cell) {
-        var selectedCell = tableModel.getSelectedCell();
-        if (cell.equals(selectedCell)) {
-            view.setSelectedCellValue(cell.getValue());
-        } else {
-            view.setCellValue(cell.getRow(), cell.getColumn(), cell.getParsedValue());
-        }
+        updates.cellChanged(cell.getRow(), cell.getColumn());
     }
 
-    private void handleCellEdit() {
-        var value = view.getSelectedCellValue();
-        tableModel.parse(value);
-        if (history.size() == maxHistory) {
-            history.poll();
-        }
-        history.add(new TableModelSnapshot(tableModel));
+    // The edit may wait behind a running recalculation, so it names its cell instead of using the selection
+    private void handleCellEdit(int row, int column, String value) {
+        updates.editStarted();
+        worker.submit(() -> {
+            var oldValue = tableModel.getCell(row, column).getValue();
+            tableModel.edit(row, column, value);
+            history.record(row, column, oldValue, value);
+        });
     }
 }
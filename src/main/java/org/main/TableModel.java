@@ -1,50 +1,173 @@
 package org.main;
 
+import org.parser.FormulaCompiler;
+import org.parser.FormulaTemplates;
 import org.parser.Parser;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 
+// The engine of a table: its cells, their formulas and their dependencies. It knows nothing of the view, which
+// follows the changes through a CellListener, so it runs and can be embedded without Swing.
 public class TableModel {
+    // Told about every cell whose formula or result changed, on the thread that changed it
+    public interface CellListener {
+        void cellChanged(Cell cell);
+    }
+
     private final int width;
     private final int height;
     private final int screenWidth;
     private final int screenHeight;
     private final String[] columnLabels;
-    private final String[] rowLabels;
+    private String[] rowLabels; // Built on the first call to getRowLabels, the view reads one row label at a time
     private final Map<String, Integer> columnLabelToColumn = new HashMap<>();
-    private final List<List<Cell>> cells = new ArrayList<>();
+    private final CellStore cells = new CellStore();
+    private final Parser parser = new Parser();
+    private final FormulaTemplates formulaTemplates = new FormulaTemplates();
+    private final CellDependencyGraph cellDependencyGraph = new CellDependencyGraph(cells);
+    private final RangeAggregates rangeAggregates = new RangeAggregates(cells);
+    private final RecalculationEngine recalculationEngine;
+    private List<Cell> writes; // Cells written by the bulk write in progress, null outside of one
+    private WorkbookFile workbook; // File the table was opened from or saved to, null if none
+    private volatile WorkbookFile pageSource; // The same while some of its pages may not have been read yet
+    private EditJournal journal; // Records every formula change since the last save, null if none
     private Cell selectedCell;
-    private TableController tableController = null;
+    private int compileThreshold = FormulaCompiler.DEFAULT_THRESHOLD;
+    private CellListener listener = null;
 
 
+    // The engine only keeps the references, it reads nothing from the model before the first recalculation
+    @SuppressWarnings("this-escape")
     public TableModel(int width, int height, int screenWidth, int screenHeight) {
         this.width = width;
         this.height = height;
         this.screenWidth = screenWidth;
         this.screenHeight = screenHeight;
         this.columnLabels = generateColumnLabels(width);
-        this.rowLabels = generateRowLabels(height);
-        var cellDependencyGraph = new CellDependencyGraph();
-        var parser = new Parser();
-        for (int i = 0; i < height; i++) {
-            List<Cell> row = new ArrayList<>();
-            for (int j = 0; j <= width; j++) {
-                row.add(new Cell(i, j,"", "", cellDependencyGraph, this, parser));
-            }
-            cells.add(row);
+        this.recalculationEngine = new RecalculationEngine(this, cellDependencyGraph);
+    }
+
+    // Visits every cell that has been written or referenced, untouched positions are skipped
+    public void forEachCell(Consumer<Cell> action) {
+        readPages();
+        cells.forEach(action);
+    }
+
+    // The workbook the table was opened from while some of its pages may not have been read yet, otherwise null
+    WorkbookFile getPageSource() {
+        return pageSource;
+    }
+
+    // Reads the pages of an opened workbook that have not been read yet, without compiling their formulas
+    void readPages() {
+        if (pageSource != null) {
+            pageSource.loadAll();
+        }
+    }
+
+    // Visits the stored cells inside the range, the empty positions in between are skipped
+    public void forEachCellInRange(CellRange range, Consumer<Cell> action) {
+        if (pageSource != null) {
+            pageSource.fault(range.getTop(), range.getLeft(), range.getBottom(), range.getRight());
         }
+        cells.forEachInRange(range.getTop(), range.getLeft(), range.getBottom(), range.getRight(), action);
+    }
+
+    // Cells read from a workbook count once their page has been read
+    public int getCellCount() {
+        return cells.size();
+    }
+
+    public Parser getParser() {
+        return parser;
+    }
+
+    public FormulaTemplates getFormulaTemplates() {
+        return formulaTemplates;
+    }
+
+    public int getCompileThreshold() {
+        return compileThreshold;
+    }
+
+    // Evaluations after which a formula is compiled to bytecode, zero keeps every formula interpreted.
+    // Applies to formulas compiled from now on.
+    public void setCompileThreshold(int compileThreshold) {
+        this.compileThreshold = compileThreshold;
+    }
+
+    public CellDependencyGraph getCellDependencyGraph() {
+        return cellDependencyGraph;
+    }
+
+    public RangeAggregates getRangeAggregates() {
+        return rangeAggregates;
     }
 
-    public List<List<Cell>> getCells() {
+    public RecalculationEngine getRecalculationEngine() {
+        return recalculationEngine;
+    }
+
+    CellStore getCellStore() {
         return cells;
     }
 
-    public void restoreFromSnapshot(TableModelSnapshot snapshot) {
-        snapshot.restore(this);
+    public WorkbookFile getWorkbook() {
+        return workbook;
+    }
+
+    public EditJournal getJournal() {
+        return journal;
+    }
+
+    void setJournal(EditJournal journal) {
+        this.journal = journal;
+    }
+
+    // Keeps the workbook file the table was opened from or saved to, whose pages are read on demand if lazy
+    void attach(WorkbookFile workbook, boolean lazy) {
+        this.workbook = workbook;
+        this.pageSource = lazy ? workbook : null;
+    }
+
+    // Reads the pages of the workbook that have not been read yet and compiles all formulas, so that the
+    // dependents of every cell are known before the first change to the table. Does nothing after that.
+    void loadWorkbook() {
+        var source = pageSource;
+        if (source == null) {
+            return;
+        }
+        source.loadAll();
+        pageSource = null; // Only now, lookups until then still read the pages they hit
+        var formulaCells = new ArrayList<Cell>();
+        cells.forEach(cell -> {
+            if (cell.getTemplate() != null) {
+                formulaCells.add(cell);
+            }
+        });
+        recalculationEngine.compile(formulaCells);
+    }
+
+    void formulaChanged(Cell cell) {
+        if (workbook != null) {
+            workbook.pageChanged(cell.getRow(), cell.getColumn());
+        }
+        if (journal != null && writes == null) { // A bulk write is recorded in one batch when it finishes
+            journal.append(cell.getRow(), cell.getColumn(), cell.getValue());
+        }
+    }
+
+    void resultChanged(Cell cell, CellType oldType, double oldNumber) {
+        rangeAggregates.cellChanged(cell, oldType, oldNumber);
+        if (workbook != null) {
+            workbook.pageChanged(cell.getRow(), cell.getColumn());
+        }
     }
 
     // Generates labels for the X-axis (columns) similar to Excel (A, B, C, ..., Z, AA, AB, ...)
@@ -62,11 +185,16 @@ public class TableModel {
     private String[] generateRowLabels(int count) {
         String[] labels = new String[count];
         for (int i = 0; i < count; i++) {
-            labels[i] = String.valueOf(i + 1);
+            labels[i] = getRowLabel(i);
         }
         return labels;
     }
 
+    // Row labels are derived on demand so that tall sheets do not keep one String per row
+    public String getRowLabel(int row) {
+        return String.valueOf(row + 1);
+    }
+
     // Helper method to convert a column index to its Excel-style column label
     private String toExcelColumn(int index) {
         StringBuilder columnName = new StringBuilder();
@@ -101,6 +229,9 @@ public class TableModel {
     }
 
     public String[] getRowLabels() {
+        if (rowLabels == null) {
+            rowLabels = generateRowLabels(height);
+        }
         return rowLabels;
     }
 
@@ -112,16 +243,99 @@ public class TableModel {
         return Integer.parseInt(rowLabel) - 1;
     }
 
+    // Decodes an Excel-like reference such as "B12" into the cell it points to
+    public Cell resolveReference(String cellRef) {
+        return resolveReference(cellRef, 0, cellRef.length());
+    }
+
+    // Same for the reference in text[start, end), so that a parser does not need to cut it out of the formula
+    public Cell resolveReference(CharSequence text, int start, int end) {
+        long position = decodeReference(text, start, end);
+        return getOrCreateCell((int) (position >>> 32), (int) position);
+    }
+
+    // Decodes a pair of corners such as "A1" and "B10", no cell is stored for the positions in between
+    public CellRange resolveRange(String fromRef, String toRef) {
+        long from = decodeReference(fromRef, 0, fromRef.length());
+        long to = decodeReference(toRef, 0, toRef.length());
+        return new CellRange((int) (from >>> 32), (int) from, (int) (to >>> 32), (int) to);
+    }
+
+    public CellRange resolveRange(CharSequence text, int fromStart, int fromEnd, int toStart, int toEnd) {
+        long from = decodeReference(text, fromStart, fromEnd);
+        long to = decodeReference(text, toStart, toEnd);
+        return new CellRange((int) (from >>> 32), (int) from, (int) (to >>> 32), (int) to);
+    }
+
+    // The label of a position as it is written in formulas, such as "B12"
+    public String getReferenceLabel(int row, int column) {
+        return columnLabels[column] + getRowLabel(row);
+    }
+
+    // Returns the row in the high and the column in the low half, throwing if the reference is malformed or
+    // outside the table. Column letters are read as the bijective base-26 number the labels are generated from.
+    public long decodeReference(CharSequence text, int start, int end) {
+        int i = start;
+        long column = 0;
+        while (i < end && text.charAt(i) >= 'A' && text.charAt(i) <= 'Z' && column <= width) {
+            column = column * 26 + (text.charAt(i++) - 'A' + 1);
+        }
+        long row = 0;
+        int digits = i;
+        while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9' && row <= height) {
+            row = row * 10 + (text.charAt(i++) - '0');
+        }
+        if (digits == start || i == digits || i != end || column > width || row < 1 || row > height) {
+            throw new IllegalArgumentException("Invalid cell reference: " + text.subSequence(start, end));
+        }
+        return ((row - 1) << 32) | column;
+    }
+
+    // Returns the stored cell, or an empty view that is only stored once a value is written to it
     public Cell getCell(int row, int column) {
-        return cells.get(row).get(column);
+        Objects.checkIndex(row, height);
+        Objects.checkIndex(column, width + 1);
+        var cell = findCell(row, column);
+        return cell != null ? cell : new Cell(row, column, this);
     }
 
-    public void setCellParsedValue(int row, int column, String parsedValue) {
-        var cell = cells.get(row).get(column);
-        if (parsedValue == null) {
-            cell.setParsedValue(cell.getValue());
+    // Returns the stored cell, or null without allocating a view if nothing was written there
+    public Cell findCell(int row, int column) {
+        if (pageSource != null) {
+            pageSource.fault(row, column);
+        }
+        return cells.get(row, column);
+    }
+
+    public Cell getOrCreateCell(int row, int column) {
+        var cell = getCell(row, column);
+        materialize(cell);
+        return cell;
+    }
+
+    // While pages of a workbook are still read on demand, the view may read one into the store from its own
+    // thread, so cells are stored under the lock the workbook reads pages with
+    void materialize(Cell cell) {
+        var source = pageSource;
+        if (source == null) {
+            store(cell);
+        } else {
+            synchronized (source) {
+                store(cell);
+            }
+        }
+    }
+
+    private void store(Cell cell) {
+        if (cells.get(cell.getRow(), cell.getColumn()) == null) {
+            cells.put(cell);
         }
-        cell.setParsedValue(parsedValue);
+    }
+
+    public void setCellParsedValue(int row, int column, String parsedValue) {
+        loadWorkbook();
+        var cell = getOrCreateCell(row, column);
+        cell.setParsedValue(parsedValue == null ? cell.getValue() : parsedValue);
     }
 
     public Cell getSelectedCell() {
@@ -133,17 +347,73 @@ public class TableModel {
     }
 
     public void handleCellUpdate(Cell cell) {
-        tableController.handleCellUpdate(cell);
+        if (listener != null) { // Headless tables and tables opened from a file have none
+            listener.cellChanged(cell);
+        }
     }
 
-    public void setListener(TableController tableController) {
-        this.tableController = tableController;
+    public void setListener(CellListener listener) {
+        this.listener = listener;
     }
 
     public void parse(String value) {
         if (selectedCell != null) {
-            selectedCell.setValue(value);
-            selectedCell.parse();
+            // The selection may be an empty view while a reference has stored the cell in the meantime
+            selectedCell = edit(selectedCell.getRow(), selectedCell.getColumn(), value);
+        }
+    }
+
+    // Writes a block of formulas whose top left corner is at the given position, such as a sheet being loaded,
+    // and recalculates them and their dependents in a single pass, with the formulas parsed in parallel first.
+    // Empty strings clear cells that hold something and are skipped otherwise.
+    public void load(int top, int left, List<String[]> rows) {
+        startWrites();
+        try {
+            for (int i = 0; i < rows.size(); i++) {
+                var values = rows.get(i);
+                for (int j = 0; j < values.length; j++) {
+                    write(top + i, left + j, values[j]);
+                }
+            }
+        } finally {
+            finishWrites();
         }
     }
+
+    // Starts a bulk write. Cells written with write() are neither recalculated nor reported to the listener
+    // until finishWrites() records them in the journal in one batch and recalculates them all in a single pass.
+    void startWrites() {
+        if (writes != null) {
+            throw new IllegalStateException("Bulk write already in progress");
+        }
+        writes = new ArrayList<>();
+    }
+
+    void write(int row, int column, String value) {
+        if (value.isEmpty() && findCell(row, column) == null) {
+            return;
+        }
+        var cell = getOrCreateCell(row, column);
+        cell.assignValue(value);
+        writes.add(cell);
+    }
+
+    // Returns the number of written cells
+    int finishWrites() {
+        var written = writes;
+        writes = null;
+        if (journal != null) {
+            journal.append(written);
+        }
+        recalculationEngine.recalculate(written);
+        return written.size();
+    }
+
+    // Sets the formula of a cell and recalculates everything that depends on it
+    public Cell edit(int row, int column, String value) {
+        var cell = getOrCreateCell(row, column);
+        cell.setValue(value);
+        cell.parse();
+        return cell;
+    }
 }
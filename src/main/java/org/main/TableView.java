@@ -1,13 +1,14 @@
 package org.main;
 
 import javax.swing.*;
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 
 
 public class TableView extends JFrame {
     private final JTable table;
+    private final SheetTableModel model;
     private final DefaultCellEditor editor;
 
     public TableView(TableModel tableModel) {
@@ -16,8 +17,7 @@ public class TableView extends JFrame {
         setSize(tableModel.getScreenWidth(), tableModel.getScreenHeight());
         setLocationRelativeTo(null);
 
-        var model = createTableModel(tableModel.getColumnLabels(), tableModel.getRowLabels());
-        fillRowLabels(model, tableModel.getRowLabels());
+        model = new SheetTableModel(tableModel);
         editor = new DefaultCellEditor(new JTextField());
         table = new JTable(model);
         setupTable();
@@ -25,34 +25,22 @@ public class TableView extends JFrame {
         getContentPane().add(scrollPane, BorderLayout.CENTER);
     }
 
-    public void setCellValue(int row, int column, String value) {
-        if (row < 0 || row >= table.getRowCount() || column <= 0 || column > table.getColumnCount()) {
+    // Values are read from the TableModel when painted, these only tell Swing what has to be painted again
+    public void refreshCell(int row, int column) {
+        if (row < 0 || row >= model.getRowCount() || column <= 0 || column >= model.getColumnCount()) {
             return;
         }
-        table.setValueAt(value, row, column);
+        model.fireTableCellUpdated(row, column);
     }
 
-    public String getSelectedCellValue() {
-        return table.getValueAt(table.getSelectedRow(), table.getSelectedColumn()).toString();
+    // One event for a block of cells, JTable repaints only the part of it that is visible
+    public void refreshRegion(int top, int left, int bottom, int right) {
+        int column = left == right ? left : TableModelEvent.ALL_COLUMNS;
+        model.fireTableChanged(new TableModelEvent(model, Math.max(top, 0), Math.min(bottom, model.getRowCount() - 1), column));
     }
 
-    public void setSelectedCellValue(String value) {
-        table.setValueAt(value, table.getSelectedRow(), table.getSelectedColumn());
-    }
-
-    private void fillRowLabels(DefaultTableModel model, String[] rowLabels) {
-        for (int i = 0; i < rowLabels.length; i++) {
-            model.setValueAt(rowLabels[i], i, 0);
-        }
-    }
-
-    private DefaultTableModel createTableModel(String[] columnLabels, String[] rowLabels) {
-        return new DefaultTableModel(columnLabels, rowLabels.length) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return column != 0;
-            }
-        };
+    public SheetTableModel getSheetModel() {
+        return model;
     }
 
     private void setupTable() {
@@ -0,0 +1,127 @@
+package org.main;
+
+import javax.swing.*;
+
+
+// Turns the per-cell notifications of a recalculation pass into one repaint. Changed cells only grow a dirty
+// rectangle, which is published to the view on the next frame tick of a Swing timer, so a cascade over
+// thousands of cells costs one table event and there is at most one repaint per frame. Cells may be reported
+// from a background pass, in which case the rectangle is held back until the pass finishes, so the view is
+// never told to show a pass half done. A pass that is cancelled or hands its rest to the background thread is
+// published even while the next pass runs, so that the cells it left over show as pending right away.
+public final class UpdateCoalescer implements RecalculationWorker.PassListener {
+    public interface RegionListener {
+        void regionChanged(int top, int left, int bottom, int right);
+    }
+
+    static final int FRAME_MILLIS = 16;
+
+    private final RegionListener listener;
+    private final Timer timer;
+    private int top = Integer.MAX_VALUE;
+    private int left = Integer.MAX_VALUE;
+    private int bottom = -1;
+    private int right = -1;
+    private int runningPasses = 0;
+    private boolean flushRequested = false;
+    private boolean pendingShown = false; // Set when the last pass left cells pending, they are published at once
+
+    // Instrumentation
+    private long edits = 0;
+    private long cellUpdates = 0;
+    private long regionEvents = 0;
+
+
+    public UpdateCoalescer(RegionListener listener) {
+        this.listener = listener;
+        this.timer = new Timer(FRAME_MILLIS, e -> flush());
+        this.timer.setRepeats(false);
+    }
+
+    public synchronized void cellChanged(int row, int column) {
+        cellUpdates++;
+        top = Math.min(top, row);
+        bottom = Math.max(bottom, row);
+        left = Math.min(left, column);
+        right = Math.max(right, column);
+        if (runningPasses == 0) {
+            requestFlush();
+        }
+    }
+
+    @Override
+    public synchronized void passStarted() {
+        runningPasses++;
+    }
+
+    @Override
+    public synchronized void passFinished(boolean consistent) {
+        runningPasses--;
+        if (runningPasses == 0 && bottom >= 0) {
+            pendingShown = !consistent;
+            requestFlush();
+        }
+    }
+
+    private void requestFlush() {
+        if (flushRequested) {
+            return;
+        }
+        flushRequested = true;
+        if (SwingUtilities.isEventDispatchThread()) {
+            timer.start();
+        } else {
+            SwingUtilities.invokeLater(timer::start);
+        }
+    }
+
+    // Counts one user action (edit, undo or redo), the unit of the per-edit statistics
+    public synchronized void editStarted() {
+        edits++;
+    }
+
+    // Publishes the dirty rectangle now, the timer calls this once per frame on the event thread
+    public void flush() {
+        int top, left, bottom, right;
+        synchronized (this) {
+            timer.stop();
+            flushRequested = false;
+            if (this.bottom < 0 || (runningPasses > 0 && !pendingShown)) {
+                return; // The running pass requests a flush when it finishes
+            }
+            pendingShown = false;
+            top = this.top;
+            left = this.left;
+            bottom = this.bottom;
+            right = this.right;
+            this.top = Integer.MAX_VALUE;
+            this.left = Integer.MAX_VALUE;
+            this.bottom = -1;
+            this.right = -1;
+            regionEvents++;
+        }
+        listener.regionChanged(top, left, bottom, right);
+    }
+
+    public synchronized long getEdits() {
+        return edits;
+    }
+
+    public synchronized long getCellUpdates() {
+        return cellUpdates;
+    }
+
+    public synchronized long getRegionEvents() {
+        return regionEvents;
+    }
+
+    public synchronized double getEventsPerEdit() {
+        return edits == 0 ? 0 : (double) regionEvents / edits;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d edits, %d cell updates, %d table events (%.2f per edit)",
+                edits, cellUpdates, regionEvents, getEventsPerEdit());
+    }
+}
@@ -0,0 +1,442 @@
+package org.main;
+
+import org.parser.FormulaTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+
+// Native file format of a TableModel. Cells are stored by the pages of the CellStore, each page as a record of
+// its own holding the templates of its formulas, the formula of every cell as the index of its template, and
+// the result the cell had when it was saved, so opening a workbook computes nothing. Opening maps the header
+// and the directory of the pages only. A page is mapped and read when one of its cells is first looked up,
+// such as by the view painting it. Before the first change to the table the remaining pages are read and all
+// formulas are compiled, since any of them may depend on the changed cell. Pages are read on the thread that
+// looks the cell up, which may be the view's, so reading a page, saving and closing hold the lock of the
+// workbook, and TableModel stores new cells under the same lock until every page has been read.
+//
+// Saving appends the pages changed since the last save and a new directory to the file, then points the
+// header at the new directory, so a save that fails halfway leaves the previous version intact. Replaced
+// records stay in the file until they take more space than the live ones, the next save then rewrites it.
+// A save is the checkpoint of the EditJournal of the table, which is truncated once the save is on disk.
+//
+// Layout, numbers are big-endian:
+//   header     magic, version, width, height, offset of the directory, number of pages, padded to HEADER_SIZE
+//   pages      per page the number of stored cells, the number of templates and the templates as written by
+//              FormulaTemplate.write, then per cell its index in the page, the index of its template or -1,
+//              its result type and its result
+//   directory  the page keys in ascending order, the offsets of their records and the lengths of the records
+public final class WorkbookFile implements Closeable {
+    private static final int MAGIC = 0x53544557; // "STEW"
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    private static final int DIRECTORY_ENTRY_SIZE = Long.BYTES + Long.BYTES + Integer.BYTES;
+
+    // The pages in the file, sorted by key, and which of them have been read into the table
+    private record Directory(long[] keys, long[] offsets, int[] lengths, BitSet loaded, long end) {
+        long liveBytes() {
+            long bytes = HEADER_SIZE + (long) keys.length * DIRECTORY_ENTRY_SIZE;
+            for (int length : lengths) {
+                bytes += length;
+            }
+            return bytes;
+        }
+    }
+
+    private final Path path;
+    private final boolean readOnly;
+    private final TableModel tableModel;
+    private final CellStore cells;
+    private FileChannel channel;
+    private volatile Directory directory = new Directory(new long[0], new long[0], new int[0], new BitSet(), HEADER_SIZE);
+    private final Set<Long> dirtyPages = ConcurrentHashMap.newKeySet(); // Keys of pages changed since the last save
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+    private WorkbookFile(Path path, boolean readOnly, FileChannel channel, TableModel tableModel) {
+        this.path = path;
+        this.readOnly = readOnly;
+        this.channel = channel;
+        this.tableModel = tableModel;
+        this.cells = tableModel.getCellStore();
+    }
+
+    // Opens a workbook without reading any of its pages
+    public static WorkbookFile open(Path path, int screenWidth, int screenHeight) throws IOException {
+        return open(path, screenWidth, screenHeight, false);
+    }
+
+    // Opens a workbook only to read it, such as the input of a batch run, which works on read-only files too.
+    // The table can still be changed, but not saved.
+    public static WorkbookFile openReadOnly(Path path) throws IOException {
+        return open(path, 0, 0, true);
+    }
+
+    private static WorkbookFile open(Path path, int screenWidth, int screenHeight, boolean readOnly) throws IOException {
+        var channel = readOnly ? FileChannel.open(path, StandardOpenOption.READ)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a workbook file: " + path);
+            }
+            var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a workbook file: " + path);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported workbook version " + header.getInt(4) + ": " + path);
+            }
+            var tableModel = new TableModel(header.getInt(8), header.getInt(12), screenWidth, screenHeight);
+            var workbook = new WorkbookFile(path, readOnly, channel, tableModel);
+            workbook.directory = workbook.readDirectory(header.getLong(16), header.getInt(24));
+            tableModel.attach(workbook, workbook.directory.keys.length > 0);
+            return workbook;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Writes the table to a new file, replacing any file at the path, and keeps it for later saves. A table
+    // opened from another workbook is read completely first.
+    public static WorkbookFile create(TableModel tableModel, Path path) throws IOException {
+        tableModel.loadWorkbook();
+        var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            var workbook = new WorkbookFile(path, false, channel, tableModel);
+            workbook.directory = workbook.write(channel, HEADER_SIZE, true);
+            tableModel.attach(workbook, false);
+            workbook.checkpointJournal();
+            return workbook;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public TableModel getTableModel() {
+        return tableModel;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getPageCount() {
+        return directory.keys.length;
+    }
+
+    public synchronized int getLoadedPageCount() {
+        return directory.loaded.cardinality();
+    }
+
+    private Directory readDirectory(long offset, int count) throws IOException {
+        long size = (long) count * DIRECTORY_ENTRY_SIZE;
+        if (count < 0 || offset < HEADER_SIZE || offset + size > channel.size()) {
+            throw new IOException("Corrupt workbook directory: " + path);
+        }
+        var buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        var keys = new long[count];
+        var offsets = new long[count];
+        var lengths = new int[count];
+        buffer.slice(0, Long.BYTES * count).asLongBuffer().get(keys);
+        buffer.slice(Long.BYTES * count, Long.BYTES * count).asLongBuffer().get(offsets);
+        buffer.slice(2 * Long.BYTES * count, Integer.BYTES * count).asIntBuffer().get(lengths);
+        return new Directory(keys, offsets, lengths, new BitSet(count), offset + size);
+    }
+
+    // Reads the page holding the position into the table unless that has been done
+    synchronized void fault(int row, int column) {
+        var directory = this.directory;
+        int entry = Arrays.binarySearch(directory.keys, CellStore.pageKey(row, column));
+        if (entry >= 0 && !directory.loaded.get(entry)) {
+            load(entry);
+        }
+    }
+
+    // Same for all pages overlapping the inclusive bounds
+    synchronized void fault(int top, int left, int bottom, int right) {
+        var directory = this.directory;
+        int lastPageRow = bottom >>> CellStore.PAGE_ROW_BITS;
+        int firstPageColumn = left >>> CellStore.PAGE_COLUMN_BITS;
+        int lastPageColumn = right >>> CellStore.PAGE_COLUMN_BITS;
+        int entry = Arrays.binarySearch(directory.keys, CellStore.pageKey(top, left));
+        for (entry = entry < 0 ? -entry - 1 : entry; entry < directory.keys.length; entry++) {
+            long key = directory.keys[entry];
+            if ((key >>> 32) > lastPageRow) {
+                break;
+            }
+            if ((int) key >= firstPageColumn && (int) key <= lastPageColumn && !directory.loaded.get(entry)) {
+                load(entry);
+            }
+        }
+    }
+
+    synchronized void loadAll() {
+        var loaded = directory.loaded;
+        for (int entry = loaded.nextClearBit(0); entry < directory.keys.length; entry = loaded.nextClearBit(entry + 1)) {
+            load(entry);
+        }
+    }
+
+    private synchronized void load(int entry) {
+        if (directory.loaded.get(entry)) {
+            return;
+        }
+        read(entry, cells::put);
+        directory.loaded.set(entry);
+    }
+
+    // The keys of the pages that have not been read into the table, in ascending order
+    synchronized long[] getUnreadPageKeys() {
+        var directory = this.directory;
+        var loaded = directory.loaded;
+        var keys = new long[directory.keys.length - loaded.cardinality()];
+        for (int entry = loaded.nextClearBit(0), i = 0; entry < directory.keys.length; entry = loaded.nextClearBit(entry + 1)) {
+            keys[i++] = directory.keys[entry];
+        }
+        return keys;
+    }
+
+    // Reads a page that has not been read into the table as new cells indexed like CellStore.getPage, without
+    // storing them, for passes over the whole workbook that look at each page once. Returns null if the page is
+    // not in the file or has been read into the table.
+    synchronized Cell[] readDetached(long key) {
+        var directory = this.directory;
+        int entry = Arrays.binarySearch(directory.keys, key);
+        if (entry < 0 || directory.loaded.get(entry)) {
+            return null;
+        }
+        var page = new Cell[CellStore.PAGE_ROWS * CellStore.PAGE_COLUMNS];
+        read(entry, cell -> page[CellStore.indexInPage(cell.getRow(), cell.getColumn())] = cell);
+        return page;
+    }
+
+    // Passes the cells of a page record with their saved results to the sink
+    private void read(int entry, Consumer<Cell> sink) {
+        long key = directory.keys[entry];
+        ByteBuffer in;
+        try {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, directory.offsets[entry], directory.lengths[entry]);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read page of " + path, e);
+        }
+        int top = (int) (key >>> 32) << CellStore.PAGE_ROW_BITS;
+        int left = (int) key << CellStore.PAGE_COLUMN_BITS;
+        int count = in.getInt();
+        var templates = new FormulaTemplate[in.getInt()];
+        for (int i = 0; i < templates.length; i++) {
+            templates[i] = tableModel.getFormulaTemplates().intern(FormulaTemplate.read(in));
+        }
+        var types = CellType.values();
+        var errors = CellError.values();
+        for (int i = 0; i < count; i++) {
+            int index = in.getShort();
+            int template = in.getInt();
+            var type = types[in.get()];
+            var cell = new Cell(top + (index >>> CellStore.PAGE_COLUMN_BITS), left + (index & (CellStore.PAGE_COLUMNS - 1)), tableModel);
+            cell.restore(template < 0 ? null : templates[template], type,
+                    type == CellType.NUMBER ? in.getDouble() : 0,
+                    type == CellType.TEXT ? readString(in) : null,
+                    type == CellType.ERROR ? errors[in.get()] : null);
+            sink.accept(cell);
+        }
+    }
+
+    void pageChanged(int row, int column) {
+        dirtyPages.add(CellStore.pageKey(row, column));
+    }
+
+    // Writes the pages changed since the workbook was opened or last saved. Must not run while the table is
+    // changed or recalculated.
+    public synchronized void save() throws IOException {
+        if (readOnly) {
+            throw new IllegalStateException("Workbook opened read-only: " + path);
+        }
+        long live = directory.liveBytes();
+        if (directory.end - live > live) {
+            compact();
+        } else {
+            directory = write(channel, directory.end, false);
+        }
+        dirtyPages.clear();
+        checkpointJournal();
+    }
+
+    // The saved table contains every change in the journal
+    private void checkpointJournal() throws IOException {
+        var journal = tableModel.getJournal();
+        if (journal != null) {
+            journal.checkpoint();
+        }
+    }
+
+    // Rewrites the file without the records replaced by earlier saves, through a copy that replaces it at once
+    private void compact() throws IOException {
+        var copy = path.resolveSibling(path.getFileName() + ".tmp");
+        Directory compacted;
+        try (var target = FileChannel.open(copy, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            compacted = write(target, HEADER_SIZE, true);
+        }
+        channel.close();
+        try {
+            Files.move(copy, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // If the move failed, this is the old file, which the current directory still describes
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        directory = compacted;
+    }
+
+    // Writes a version of the workbook starting at the given offset of the target and commits it by writing the
+    // header. Appending keeps the records of unchanged pages where they are, rewriting copies them to the target.
+    private Directory write(FileChannel target, long start, boolean rewrite) throws IOException {
+        var old = directory;
+        var storedKeys = cells.getPageKeys();
+        int capacity = old.keys.length + storedKeys.length;
+        var keys = new long[capacity];
+        var offsets = new long[capacity];
+        var lengths = new int[capacity];
+        var loaded = new BitSet(capacity);
+        int count = 0;
+        long position = start;
+        // Merges the pages in the file with the pages in the table, both in ascending key order
+        for (int i = 0, j = 0; i < old.keys.length || j < storedKeys.length; ) {
+            int entry = -1;
+            long key;
+            if (j == storedKeys.length || (i < old.keys.length && old.keys[i] <= storedKeys[j])) {
+                key = old.keys[i];
+                entry = i++;
+                if (j < storedKeys.length && storedKeys[j] == key) {
+                    j++;
+                }
+            } else {
+                key = storedKeys[j++];
+            }
+            if (entry >= 0 && !old.loaded.get(entry)) {
+                lengths[count] = old.lengths[entry];
+                if (rewrite) {
+                    offsets[count] = position;
+                    position += writeFully(target, channel.map(FileChannel.MapMode.READ_ONLY, old.offsets[entry], old.lengths[entry]), position);
+                } else {
+                    offsets[count] = old.offsets[entry];
+                }
+            } else if (entry >= 0 && !rewrite && !dirtyPages.contains(key)) {
+                offsets[count] = old.offsets[entry];
+                lengths[count] = old.lengths[entry];
+                loaded.set(count);
+            } else {
+                var bytes = encode(cells.getPage(key));
+                if (bytes == null) {
+                    continue; // Nothing but empty cells left in the page
+                }
+                offsets[count] = position;
+                lengths[count] = bytes.length;
+                position += writeFully(target, ByteBuffer.wrap(bytes), position);
+                loaded.set(count);
+            }
+            keys[count++] = key;
+        }
+        var buffer = ByteBuffer.allocate(count * DIRECTORY_ENTRY_SIZE);
+        buffer.asLongBuffer().put(keys, 0, count).put(offsets, 0, count);
+        buffer.position(2 * Long.BYTES * count).asIntBuffer().put(lengths, 0, count);
+        long end = position + writeFully(target, buffer.rewind(), position);
+        target.force(false);
+        var header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC).putInt(VERSION).putInt(tableModel.getWidth()).putInt(tableModel.getHeight())
+                .putLong(position).putInt(count);
+        writeFully(target, header.rewind(), 0);
+        target.force(false);
+        target.truncate(end);
+        return new Directory(Arrays.copyOf(keys, count), Arrays.copyOf(offsets, count), Arrays.copyOf(lengths, count), loaded, end);
+    }
+
+    // The record of a page, null if it has no cell worth storing
+    private byte[] encode(Cell[] page) throws IOException {
+        if (page == null) {
+            return null;
+        }
+        var templates = new HashMap<FormulaTemplate, Integer>();
+        var templateOrder = new ArrayList<FormulaTemplate>();
+        int count = 0;
+        for (var cell : page) {
+            if (cell != null && (cell.getTemplate() != null || cell.getType() != CellType.EMPTY)) {
+                count++;
+                if (cell.getTemplate() != null && templates.putIfAbsent(cell.getTemplate(), templateOrder.size()) == null) {
+                    templateOrder.add(cell.getTemplate());
+                }
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        record.reset();
+        var out = new DataOutputStream(record);
+        out.writeInt(count);
+        out.writeInt(templateOrder.size());
+        for (var template : templateOrder) {
+            template.write(out);
+        }
+        for (int index = 0; index < page.length; index++) {
+            var cell = page[index];
+            if (cell == null || (cell.getTemplate() == null && cell.getType() == CellType.EMPTY)) {
+                continue;
+            }
+            out.writeShort(index);
+            out.writeInt(cell.getTemplate() == null ? -1 : templates.get(cell.getTemplate()));
+            out.writeByte(cell.getType().ordinal());
+            switch (cell.getType()) {
+                case NUMBER -> out.writeDouble(cell.getNumber());
+                case TEXT -> writeString(out, cell.getParsedValue());
+                case ERROR -> out.writeByte(cell.getError().ordinal());
+                case EMPTY -> {}
+            }
+        }
+        out.flush();
+        return record.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        var bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int writeFully(FileChannel target, ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.remaining();
+        for (long at = position; buffer.hasRemaining(); ) {
+            at += target.write(buffer, at);
+        }
+        return length;
+    }
+
+    // Pages that have not been read by then can no longer be
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
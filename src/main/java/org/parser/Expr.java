@@ -1,12 +1,24 @@
 package org.parser;
 
 import org.main.Cell;
+import org.main.CellRange;
+import org.main.RangeAggregate;
+import org.main.TableModel;
 
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 
 
 public interface Expr {
     double evaluate();
+
+    // Visits every cell the expression reads, used to register dependencies once at compile time
+    default void collectReferences(Consumer<Cell> consumer) {}
+
+    // Visits every range the expression reads, registered as a whole instead of cell by cell
+    default void collectRanges(Consumer<CellRange> consumer) {}
 }
 
 class NumberExpr implements Expr {
@@ -20,6 +32,10 @@ class NumberExpr implements Expr {
     public double evaluate() {
         return value;
     }
+
+    double getValue() {
+        return value;
+    }
 }
 
 class BinaryExpr implements Expr {
@@ -42,191 +58,281 @@ class BinaryExpr implements Expr {
             default -> throw new IllegalArgumentException("Unsupported operator: " + operator);
         };
     }
+
+    Expr getLeft() {
+        return left;
+    }
+
+    Expr getRight() {
+        return right;
+    }
+
+    char getOperator() {
+        return operator;
+    }
+
+    @Override
+    public void collectReferences(Consumer<Cell> consumer) {
+        left.collectReferences(consumer);
+        right.collectReferences(consumer);
+    }
+
+    @Override
+    public void collectRanges(Consumer<CellRange> consumer) {
+        left.collectRanges(consumer);
+        right.collectRanges(consumer);
+    }
 }
 
-class FunctionExpr implements Expr {
-    private final String functionName;
-    private final List<Expr> arguments;
+// A call of a function of one argument, such as SQRT(A1)
+class UnaryFunctionExpr implements Expr {
+    private final Functions.Unary function;
+    private final DoubleUnaryOperator operator;
+    private final Expr argument;
 
-    public FunctionExpr(String functionName, List<Expr> arguments) {
-        this.functionName = functionName;
-        this.arguments = arguments;
+    public UnaryFunctionExpr(Functions.Unary function, Expr argument) {
+        this.function = function;
+        this.operator = function.operator;
+        this.argument = argument;
     }
 
     @Override
     public double evaluate() {
-        return switch (functionName.toUpperCase()) {
-            case "POW" -> {
-                if (arguments.size() != 2) {
-                    throw new IllegalArgumentException("POW function takes two arguments");
-                }
-                yield Math.pow(arguments.get(0).evaluate(), arguments.get(1).evaluate());
-            }
-            case "SIN" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("SIN function takes one argument");
-                }
-                yield Math.sin(Math.toRadians(arguments.get(0).evaluate()));
-            }
-            case "COS" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("COS function takes one argument");
-                }
-                yield Math.cos(Math.toRadians(arguments.get(0).evaluate()));
-            }
-            case "TAN" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("TAN function takes one argument");
-                }
-                yield Math.tan(Math.toRadians(arguments.get(0).evaluate()));
-            }
-            case "SQRT" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("SQRT function takes one argument");
-                }
-                yield Math.sqrt(arguments.get(0).evaluate());
-            }
-            case "LOG" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("LOG function takes one argument");
-                }
-                yield Math.log(arguments.get(0).evaluate());
-            }
-            case "EXP" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("EXP function takes one argument");
-                }
-                yield Math.exp(arguments.get(0).evaluate());
-            }
-            case "ABS" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("ABS function takes one argument");
-                }
-                yield Math.abs(arguments.get(0).evaluate());
-            }
-            case "ROUND" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("ROUND function takes one argument");
-                }
-                yield Math.round(arguments.get(0).evaluate());
-            }
-            case "CEIL" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("CEIL function takes one argument");
-                }
-                yield Math.ceil(arguments.get(0).evaluate());
-            }
-            case "FLOOR" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("FLOOR function takes one argument");
-                }
-                yield Math.floor(arguments.get(0).evaluate());
-            }
-            case "MIN" -> {
-                if (arguments.size() < 2) {
-                    throw new IllegalArgumentException("MIN function takes at least two arguments");
-                }
-                yield arguments.stream().mapToDouble(Expr::evaluate).min().orElseThrow();
-            }
-            case "MAX" -> {
-                if (arguments.size() < 2) {
-                    throw new IllegalArgumentException("MAX function takes at least two arguments");
-                }
-                yield arguments.stream().mapToDouble(Expr::evaluate).max().orElseThrow();
-            }
-            case "SUM" -> arguments.stream().mapToDouble(Expr::evaluate).sum();
-            case "AVERAGE" -> {
-                if (arguments.isEmpty()) {
-                    throw new IllegalArgumentException("AVERAGE function takes at least one argument");
-                }
-                yield arguments.stream().mapToDouble(Expr::evaluate).average().orElseThrow();
-            }
-            case "MOD" -> {
-                if (arguments.size() != 2) {
-                    throw new IllegalArgumentException("MOD function takes two arguments");
-                }
-                yield arguments.get(0).evaluate() % arguments.get(1).evaluate();
-            }
-            case "LOG10" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("LOG10 function takes one argument");
-                }
-                yield Math.log10(arguments.get(0).evaluate());
-            }
-            case "DEGREES" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("DEGREES function takes one argument");
-                }
-                yield Math.toDegrees(arguments.get(0).evaluate());
-            }
-            case "RADIANS" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("RADIANS function takes one argument");
-                }
-                yield Math.toRadians(arguments.get(0).evaluate());
+        return operator.applyAsDouble(argument.evaluate());
+    }
+
+    Functions.Unary getFunction() {
+        return function;
+    }
+
+    Expr getArgument() {
+        return argument;
+    }
+
+    @Override
+    public void collectReferences(Consumer<Cell> consumer) {
+        argument.collectReferences(consumer);
+    }
+
+    @Override
+    public void collectRanges(Consumer<CellRange> consumer) {
+        argument.collectRanges(consumer);
+    }
+}
+
+class BinaryFunctionExpr implements Expr {
+    private final Functions.Binary function;
+    private final DoubleBinaryOperator operator;
+    private final Expr left, right;
+
+    public BinaryFunctionExpr(Functions.Binary function, Expr left, Expr right) {
+        this.function = function;
+        this.operator = function.operator;
+        this.left = left;
+        this.right = right;
+    }
+
+    @Override
+    public double evaluate() {
+        return operator.applyAsDouble(left.evaluate(), right.evaluate());
+    }
+
+    Functions.Binary getFunction() {
+        return function;
+    }
+
+    Expr getLeft() {
+        return left;
+    }
+
+    Expr getRight() {
+        return right;
+    }
+
+    @Override
+    public void collectReferences(Consumer<Cell> consumer) {
+        left.collectReferences(consumer);
+        right.collectReferences(consumer);
+    }
+
+    @Override
+    public void collectRanges(Consumer<CellRange> consumer) {
+        left.collectRanges(consumer);
+        right.collectRanges(consumer);
+    }
+}
+
+// SUM, AVERAGE, MIN or MAX over any mix of values and ranges. Ranges answer from their running aggregate, so an
+// edit inside a long range does not rescan it. The sum is compensated like DoubleStream.sum().
+class AggregateExpr implements Expr {
+    private final Functions.Aggregate aggregate;
+    private final Expr[] arguments;
+    private final RangeExpr[] ranges; // The argument itself where it is a range, null otherwise
+
+    public AggregateExpr(Functions.Aggregate aggregate, List<Expr> arguments) {
+        this.aggregate = aggregate;
+        this.arguments = arguments.toArray(new Expr[0]);
+        this.ranges = new RangeExpr[this.arguments.length];
+        for (int i = 0; i < this.arguments.length; i++) {
+            if (this.arguments[i] instanceof RangeExpr range) {
+                ranges[i] = range;
             }
-            case "SIGNUM" -> {
-                if (arguments.size() != 1) {
-                    throw new IllegalArgumentException("SIGNUM function takes one argument");
+        }
+    }
+
+    @Override
+    public double evaluate() {
+        return switch (aggregate) {
+            case SUM -> sum();
+            case AVERAGE -> {
+                int count = count();
+                if (count == 0) {
+                    throw new IllegalArgumentException("AVERAGE function has no numeric values");
                 }
-                yield Math.signum(arguments.get(0).evaluate());
+                yield sum() / count;
             }
-            default -> throw new IllegalArgumentException("Unsupported function: " + functionName);
+            case MIN -> extreme(true);
+            case MAX -> extreme(false);
         };
     }
-}
 
-class CellExpr implements Expr {
-    private final String cellRef;
-    private final Cell cell;
+    private double sum() {
+        double sum = 0;
+        double compensation = 0;
+        double simpleSum = 0; // Infinities make the compensated sum NaN, the plain one is right then
+        for (int i = 0; i < arguments.length; i++) {
+            double value = ranges[i] != null ? ranges[i].aggregate().getSum() : arguments[i].evaluate();
+            double corrected = value - compensation;
+            double total = sum + corrected;
+            compensation = (total - sum) - corrected;
+            sum = total;
+            simpleSum += value;
+        }
+        double result = sum - compensation;
+        return Double.isNaN(result) && Double.isInfinite(simpleSum) ? simpleSum : result;
+    }
 
-    public CellExpr(Cell cell, String cellRef) {
-        this.cell = cell;
-        this.cellRef = cellRef;
+    private int count() {
+        int count = 0;
+        for (int i = 0; i < arguments.length; i++) {
+            count += ranges[i] != null ? ranges[i].aggregate().getCount() : 1;
+        }
+        return count;
     }
 
-    @Override
-    public double evaluate() {
-        // Decode column index from Excel-like reference
-        String rowLabel = "";
-        String columnLabel = "";
-        boolean isColumnPart = true;
-        for (Character c : cellRef.toCharArray()) {
-            if (Character.isLetter(c) && isColumnPart) {
-                columnLabel += c;
-            } else if (Character.isDigit(c)) {
-                rowLabel += c;
-                isColumnPart = false;
+    // Ranges without numeric cells are skipped, like empty streams were
+    private double extreme(boolean minimum) {
+        double result = 0;
+        boolean found = false;
+        for (int i = 0; i < arguments.length; i++) {
+            double value;
+            if (ranges[i] == null) {
+                value = arguments[i].evaluate();
             } else {
-                throw new IllegalArgumentException("Invalid cell reference: " + cellRef);
+                var rangeAggregate = ranges[i].aggregate();
+                if (rangeAggregate.getCount() == 0) {
+                    continue;
+                }
+                value = minimum ? rangeAggregate.getMin() : rangeAggregate.getMax();
             }
+            result = !found ? value : minimum ? Math.min(result, value) : Math.max(result, value);
+            found = true;
         }
-        if (rowLabel.isEmpty() || columnLabel.isEmpty()) {
-            throw new IllegalArgumentException("Invalid cell reference: " + cellRef);
+        if (!found) {
+            throw new IllegalArgumentException(aggregate + " function has no numeric values");
         }
-        var tableModel = cell.getTableModel();
-        int row = tableModel.rowLabelToRow(rowLabel);
-        int column = tableModel.columnLabelToColumn(columnLabel);
-        Cell referencedCell = tableModel.getCell(row, column);
-
-        String cellValue = referencedCell.getParsedValue();
-        try {
-            boolean noCycle = cell.getCellDependencyGraph().addDependency(referencedCell, cell);
-            if (!noCycle) {
-                tableModel.setCellParsedValue(row, column, null);
-                throw new IllegalArgumentException("Cycle detected in cell dependencies");
-            }
-            if (cellValue.isEmpty()) {
-                throw new IllegalArgumentException("Empty cell value at " + cellRef);
-            }
-            return Double.parseDouble(cellValue);
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("Non-numeric cell value at " + cellRef);
+        return result;
+    }
+
+    Functions.Aggregate getAggregate() {
+        return aggregate;
+    }
+
+    List<Expr> getArguments() {
+        return List.of(arguments);
+    }
+
+    @Override
+    public void collectReferences(Consumer<Cell> consumer) {
+        for (var argument : arguments) {
+            argument.collectReferences(consumer);
         }
     }
+
+    @Override
+    public void collectRanges(Consumer<CellRange> consumer) {
+        for (var argument : arguments) {
+            argument.collectRanges(consumer);
+        }
+    }
+}
+
+class CellExpr implements Expr {
+    private final Cell referencedCell;
+
+    public CellExpr(Cell referencedCell) {
+        this.referencedCell = referencedCell;
+    }
+
+    @Override
+    public double evaluate() {
+        return switch (referencedCell.getType()) {
+            case NUMBER -> referencedCell.getNumber();
+            case EMPTY -> throw new IllegalArgumentException("Empty cell value at " + label());
+            default -> throw new IllegalArgumentException("Non-numeric cell value at " + label());
+        };
+    }
+
+    Cell getReferencedCell() {
+        return referencedCell;
+    }
+
+    // Only needed for error messages, so the reference text is not kept
+    private String label() {
+        return referencedCell.getTableModel().getReferenceLabel(referencedCell.getRow(), referencedCell.getColumn());
+    }
+
+    @Override
+    public void collectReferences(Consumer<Cell> consumer) {
+        consumer.accept(referencedCell);
+    }
 }
 
+// A block of cells such as A1:B10. Only aggregate functions can consume it. Empty and text cells, such as a
+// header row, are skipped, an error cell in the block makes the aggregate an error.
+class RangeExpr implements Expr {
+    private final TableModel tableModel;
+    private final CellRange range;
+
+    public RangeExpr(TableModel tableModel, CellRange range) {
+        this.tableModel = tableModel;
+        this.range = range;
+    }
 
+    @Override
+    public double evaluate() {
+        throw new IllegalArgumentException("Range can only be used as a function argument: " + label());
+    }
+
+    CellRange getRange() {
+        return range;
+    }
+
+    // The shared running aggregate once a formula over this range is compiled, a scan for a plain parse
+    RangeAggregate aggregate() {
+        return tableModel.getRangeAggregates().getOrCompute(range);
+    }
+
+    private String label() {
+        return tableModel.getReferenceLabel(range.getTop(), range.getLeft()) + ":"
+                + tableModel.getReferenceLabel(range.getBottom(), range.getRight());
+    }
+
+    @Override
+    public void collectRanges(Consumer<CellRange> consumer) {
+        consumer.accept(range);
+    }
+}
 
 class UnaryExpr implements Expr {
     private final Expr expr;
@@ -244,4 +350,22 @@ class UnaryExpr implements Expr {
         }
         throw new IllegalArgumentException("Unsupported unary operator: " + operator);
     }
+
+    Expr getExpr() {
+        return expr;
+    }
+
+    char getOperator() {
+        return operator;
+    }
+
+    @Override
+    public void collectReferences(Consumer<Cell> consumer) {
+        expr.collectReferences(consumer);
+    }
+
+    @Override
+    public void collectRanges(Consumer<CellRange> consumer) {
+        expr.collectRanges(consumer);
+    }
 }
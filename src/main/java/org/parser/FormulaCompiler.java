@@ -0,0 +1,442 @@
+package org.parser;
+
+import org.main.Cell;
+import org.main.CellRange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+
+// Turns an expression tree into a hidden class whose evaluate() is straight-line bytecode: constants are
+// loaded directly, operators become dadd/dsub/..., and the scalar functions call java.lang.Math, so the JIT
+// sees one small method instead of a tree of virtual calls. Cell references read through CompiledFormula.
+// Nodes the compiler does not translate, such as aggregates over ranges, are kept as interpreted subtrees
+// and called from the generated code, so every expression compiles and behaves exactly like the tree.
+//
+// The bytecode depends only on the shape of the formula and its constants, never on the cells it reads, so a
+// formula filled down a column compiles to one class shared by all its copies. Besides saving the class
+// definitions, this keeps the call sites monomorphic and lets the JIT compile the formula once.
+public final class FormulaCompiler {
+    public static final int DEFAULT_THRESHOLD = 1000; // Evaluations before a formula is worth a class of its own
+    // HotSpot does not JIT methods larger than this (HugeMethodLimit), such formulas stay interpreted
+    static final int MAX_CODE_LENGTH = 8000;
+
+    static final int MAX_CLASSES = 4096; // Distinct formula shapes kept, further shapes get a class each
+    // Class files of the running Java version, straight-line code needs no stack map frames in any of them
+    static final int CLASS_VERSION = Runtime.version().feature() + 44;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final Map<ByteBuffer, MethodHandle> CLASSES = new ConcurrentHashMap<>();
+    private static final Set<ByteBuffer> REJECTED = ConcurrentHashMap.newKeySet(); // Shapes whose class could not be defined
+    private static final String CLASS_NAME = "org/parser/CompiledFormula$Generated";
+    private static final String BASE_NAME = "org/parser/CompiledFormula";
+    private static final String CONSTRUCTOR = "(Lorg/parser/Expr;[Lorg/main/Cell;[Lorg/parser/Expr;)V";
+
+    private FormulaCompiler() {}
+
+    // Interprets the expression until it was evaluated threshold times, then switches to the compiled form.
+    // A threshold of zero or less disables compilation. Constants, such as the numbers of a sheet, stay as they are.
+    public static Expr tiered(Expr expr, int threshold) {
+        return threshold > 0 && !(expr instanceof NumberExpr) ? new TieredExpr(expr, threshold) : expr;
+    }
+
+    // Returns the compiled expression, or the expression itself when it is too large to benefit or the JVM
+    // rejects its class
+    public static Expr compile(Expr expr) {
+        return compile(expr, CLASS_VERSION);
+    }
+
+    static Expr compile(Expr expr, int classVersion) {
+        var emitter = new Emitter(classVersion);
+        emitter.emit(expr);
+        if (emitter.code.size() + 1 > MAX_CODE_LENGTH || emitter.cells.size() > Short.MAX_VALUE
+                || emitter.fallbacks.size() > Short.MAX_VALUE) {
+            return expr;
+        }
+        try {
+            var classFile = ByteBuffer.wrap(emitter.toClassFile());
+            var constructor = CLASSES.get(classFile);
+            if (constructor == null) {
+                if (REJECTED.contains(classFile)) {
+                    return expr;
+                }
+                try {
+                    constructor = defineClass(classFile.array());
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    if (REJECTED.size() < MAX_CLASSES) {
+                        REJECTED.add(classFile); // Every copy of the formula would fail the same way
+                    }
+                    return expr;
+                }
+                if (CLASSES.size() < MAX_CLASSES) {
+                    CLASSES.putIfAbsent(classFile, constructor);
+                }
+            }
+            return (Expr) constructor.invoke(expr, emitter.cells.toArray(new Cell[0]), emitter.fallbacks.toArray(new Expr[0]));
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not compile formula", e);
+        }
+    }
+
+    private static MethodHandle defineClass(byte[] classFile) throws ReflectiveOperationException {
+        var hiddenClass = LOOKUP.defineHiddenClass(classFile, true).lookupClass();
+        return LOOKUP.findConstructor(hiddenClass, MethodType.methodType(void.class, Expr.class, Cell[].class, Expr[].class));
+    }
+
+    private static class Emitter {
+        private final int classVersion;
+        private final ConstantPool constants = new ConstantPool();
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<Cell> cells = new ArrayList<>();
+        private final List<Expr> fallbacks = new ArrayList<>();
+        private int stack = 0;
+        private int maxStack = 0;
+
+        Emitter(int classVersion) {
+            this.classVersion = classVersion;
+        }
+
+        // Leaves the value of the expression on the operand stack
+        void emit(Expr expr) {
+            if (expr instanceof NumberExpr number) {
+                emitConstant(number.getValue());
+            } else if (expr instanceof CellExpr reference) {
+                emitIndexedCall(cells.size(), "number");
+                cells.add(reference.getReferencedCell());
+            } else if (expr instanceof UnaryExpr unary && unary.getOperator() == '-') {
+                emit(unary.getExpr());
+                code.write(0x77); // dneg
+            } else if (expr instanceof BinaryExpr binary && "+-*/".indexOf(binary.getOperator()) >= 0) {
+                emit(binary.getLeft());
+                emit(binary.getRight());
+                code.write(switch (binary.getOperator()) {
+                    case '+' -> 0x63; // dadd
+                    case '-' -> 0x67; // dsub
+                    case '*' -> 0x6b; // dmul
+                    default -> 0x6f; // ddiv
+                });
+                pop(2);
+            } else if (expr instanceof UnaryFunctionExpr function) {
+                emit(function.getArgument());
+                for (var method : function.getFunction().mathMethods) {
+                    emitMath(method, method.equals("round") ? "(D)J" : "(D)D", 0);
+                }
+                if (function.getFunction() == Functions.Unary.ROUND) {
+                    code.write(0x8a); // l2d
+                }
+            } else if (expr instanceof BinaryFunctionExpr function) {
+                emit(function.getLeft());
+                emit(function.getRight());
+                if (function.getFunction() == Functions.Binary.POW) {
+                    emitMath("pow", "(DD)D", 2);
+                } else {
+                    code.write(0x73); // drem
+                    pop(2);
+                }
+            } else if (expr instanceof LetExpr let) {
+                // Each shared value goes where both this code and interpreted subtrees read it, see SharedExpr
+                for (var binding : let.getBindings()) {
+                    code.write(0x2a); // aload_0
+                    push(1);
+                    emit(binding.getExpr());
+                    code.write(0x11); // sipush
+                    writeShort(fallbacks.size());
+                    push(1);
+                    code.write(0xb6); // invokevirtual
+                    writeShort(constants.method(BASE_NAME, "share", "(DI)V"));
+                    pop(4);
+                    fallbacks.add(binding);
+                }
+                emit(let.getBody());
+            } else if (!(expr instanceof AggregateExpr aggregate) || !emitMinMax(aggregate)) {
+                emitIndexedCall(fallbacks.size(), "fallback");
+                fallbacks.add(expr);
+            }
+        }
+
+        // MIN and MAX over plain arguments fold with Math.min and Math.max. SUM and AVERAGE keep their
+        // compensated summation and ranges their running aggregates, so those stay interpreted.
+        private boolean emitMinMax(AggregateExpr aggregate) {
+            var kind = aggregate.getAggregate();
+            var arguments = aggregate.getArguments();
+            if ((kind != Functions.Aggregate.MIN && kind != Functions.Aggregate.MAX) || arguments.size() < 2) {
+                return false;
+            }
+            for (var argument : arguments) {
+                if (argument instanceof RangeExpr) {
+                    return false;
+                }
+            }
+            var method = kind == Functions.Aggregate.MIN ? "min" : "max";
+            emit(arguments.get(0));
+            for (int i = 1; i < arguments.size(); i++) {
+                emit(arguments.get(i));
+                emitMath(method, "(DD)D", 2);
+            }
+            return true;
+        }
+
+        private void emitConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            if (bits == 0L) {
+                code.write(0x0e); // dconst_0
+            } else if (bits == Double.doubleToRawLongBits(1.0)) {
+                code.write(0x0f); // dconst_1
+            } else {
+                code.write(0x14); // ldc2_w
+                writeShort(constants.doubleConstant(value));
+            }
+            push(2);
+        }
+
+        // this.method(index), one of the final helpers of CompiledFormula
+        private void emitIndexedCall(int index, String method) {
+            code.write(0x2a); // aload_0
+            code.write(0x11); // sipush
+            writeShort(index);
+            push(2);
+            code.write(0xb6); // invokevirtual
+            writeShort(constants.method(BASE_NAME, method, "(I)D"));
+            pop(2);
+            push(2);
+        }
+
+        private void emitMath(String method, String descriptor, int popped) {
+            code.write(0xb8); // invokestatic
+            writeShort(constants.method("java/lang/Math", method, descriptor));
+            pop(popped);
+        }
+
+        private void push(int slots) {
+            stack += slots;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void pop(int slots) {
+            stack -= slots;
+        }
+
+        private void writeShort(int value) {
+            code.write(value >>> 8);
+            code.write(value);
+        }
+
+        // A final class extending CompiledFormula with a forwarding constructor and the generated evaluate()
+        byte[] toClassFile() throws IOException {
+            int thisClass = constants.classConstant(CLASS_NAME);
+            int superClass = constants.classConstant(BASE_NAME);
+            int superConstructor = constants.method(BASE_NAME, "<init>", CONSTRUCTOR);
+            int codeName = constants.utf8("Code");
+            int constructorName = constants.utf8("<init>");
+            int constructorDescriptor = constants.utf8(CONSTRUCTOR);
+            int evaluateName = constants.utf8("evaluate");
+            int evaluateDescriptor = constants.utf8("()D");
+
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(classVersion);
+            constants.writeTo(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // Interfaces, Expr comes with the superclass
+            out.writeShort(0); // Fields
+            out.writeShort(2); // Methods
+
+            var constructor = new byte[]{0x2a, 0x2b, 0x2c, 0x2d, (byte) 0xb7,
+                    (byte) (superConstructor >>> 8), (byte) superConstructor, (byte) 0xb1};
+            writeMethod(out, constructorName, constructorDescriptor, codeName, 4, 4, constructor);
+            code.write(0xaf); // dreturn
+            writeMethod(out, evaluateName, evaluateDescriptor, codeName, maxStack, 1, code.toByteArray());
+
+            out.writeShort(0); // Class attributes
+            return bytes.toByteArray();
+        }
+
+        private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+                                        int maxStack, int maxLocals, byte[] code) throws IOException {
+            out.writeShort(0x0001); // public
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0); // Exception table
+            out.writeShort(0); // Code attributes
+        }
+    }
+
+    // The constant pool of the generated class, every entry is added once
+    private static class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indices = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, 1, 1, () -> out.writeUTF(value));
+        }
+
+        int classConstant(String name) {
+            int nameIndex = utf8(name);
+            return entry("C" + name, 1, 7, () -> out.writeShort(nameIndex));
+        }
+
+        int doubleConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            return entry("D" + bits, 2, 6, () -> out.writeLong(bits)); // Doubles take two pool slots
+        }
+
+        int method(String owner, String name, String descriptor) {
+            int ownerIndex = classConstant(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + descriptor, 1, 12, () -> {
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry("M" + owner + "." + name + descriptor, 1, 10, () -> {
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private interface Writer {
+            void write() throws IOException;
+        }
+
+        private int entry(String key, int slots, int tag, Writer writer) {
+            var index = indices.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                out.writeByte(tag);
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // Writing to memory does not fail
+            }
+            indices.put(key, count);
+            count += slots;
+            return count - slots;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            target.write(bytes.toByteArray());
+        }
+    }
+}
+
+// Superclass of the generated classes. Keeps the cells and interpreted subtrees the bytecode refers to by index,
+// and the original tree, which still answers what the formula references.
+abstract class CompiledFormula implements Expr {
+    private final Expr source;
+    private final Cell[] cells;
+    private final Expr[] fallbacks;
+
+    protected CompiledFormula(Expr source, Cell[] cells, Expr[] fallbacks) {
+        this.source = source;
+        this.cells = cells;
+        this.fallbacks = fallbacks;
+    }
+
+    // Same checks as CellExpr
+    protected final double number(int index) {
+        var cell = cells[index];
+        return switch (cell.getType()) {
+            case NUMBER -> cell.getNumber();
+            case EMPTY -> throw new IllegalArgumentException("Empty cell value at " + label(cell));
+            default -> throw new IllegalArgumentException("Non-numeric cell value at " + label(cell));
+        };
+    }
+
+    private static String label(Cell cell) {
+        return cell.getTableModel().getReferenceLabel(cell.getRow(), cell.getColumn());
+    }
+
+    protected final double fallback(int index) {
+        return fallbacks[index].evaluate();
+    }
+
+    protected final void share(double value, int index) {
+        ((SharedExpr) fallbacks[index]).value = value;
+    }
+
+    @Override
+    public void collectReferences(Consumer<Cell> consumer) {
+        source.collectReferences(consumer);
+    }
+
+    @Override
+    public void collectRanges(Consumer<CellRange> consumer) {
+        source.collectRanges(consumer);
+    }
+}
+
+// Counts evaluations of a formula and swaps in the compiled form once the count reaches the threshold. A
+// formula that fails to compile stays interpreted and is not tried again, the count never reaches the
+// threshold twice. Parallel recalculation may race on the count or compile twice, both only cost time.
+class TieredExpr implements Expr {
+    private final Expr source;
+    private final int threshold;
+    private final UnaryOperator<Expr> compiler;
+    private Expr delegate;
+    private int evaluations = 0;
+
+    TieredExpr(Expr source, int threshold) {
+        this(source, threshold, FormulaCompiler::compile);
+    }
+
+    TieredExpr(Expr source, int threshold, UnaryOperator<Expr> compiler) {
+        this.source = source;
+        this.threshold = threshold;
+        this.compiler = compiler;
+        this.delegate = source;
+    }
+
+    @Override
+    public double evaluate() {
+        if (evaluations < threshold && ++evaluations == threshold) {
+            try {
+                delegate = compiler.apply(source);
+            } catch (IllegalStateException e) {
+                delegate = source;
+            }
+        }
+        return delegate.evaluate();
+    }
+
+    boolean isCompiled() {
+        return delegate != source;
+    }
+
+    @Override
+    public void collectReferences(Consumer<Cell> consumer) {
+        source.collectReferences(consumer);
+    }
+
+    @Override
+    public void collectRanges(Consumer<CellRange> consumer) {
+        source.collectRanges(consumer);
+    }
+}
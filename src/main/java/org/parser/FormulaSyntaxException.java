@@ -0,0 +1,30 @@
+package org.parser;
+
+import java.io.Serial;
+
+
+// A formula that cannot be parsed. The column is 1-based and points at the token where parsing failed,
+// or just past the end of the text when the formula ended too early. Calls with the wrong number of
+// arguments are syntax errors as well.
+public class FormulaSyntaxException extends IllegalArgumentException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final int column;
+
+    public FormulaSyntaxException(String message, int column) {
+        super(message + " at column " + column);
+        this.column = column;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    // The message and the column locate the error, a stack trace would only make the many failing values of
+    // an imported sheet expensive to parse
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,303 @@
+package org.parser;
+
+import org.main.Cell;
+import org.main.CellRange;
+import org.main.TableModel;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+
+// A formula with its references stored relative to the cell holding it, the R1C1 form of spreadsheets: B5*C5
+// in row 5 and B6*C6 in row 6 are both RC[-1]*RC, so a column filled down with one formula shares a single
+// template. It keeps the text around the references and their offsets, renders the formula text of any cell
+// holding it, and parses the formula only once, into a tree that is bound to the cells of each holder.
+public final class FormulaTemplate {
+    private static final int[] NO_OFFSETS = {};
+
+    private final String[] literals; // The text before, between and after the references
+    private final int[] offsets; // Row and column offset of each reference
+    // Set for formulas that also depend on where they are, such as one that spells a reference as A01, which
+    // would not be rendered back the same way. Such a template is only shared by cells at the same position.
+    private final long position;
+    private final int hash;
+    private volatile Expr tree; // Optimized, with relative references, parsed when the template is first needed
+    // Why the formula does not parse, the same for every holder. Only the message is kept, an exception would
+    // hold on to its stack trace for as long as the template lives.
+    private String error;
+
+    private FormulaTemplate(String[] literals, int[] offsets, long position) {
+        this.literals = literals;
+        this.offsets = offsets;
+        this.position = position;
+        this.hash = 31 * (31 * Arrays.hashCode(literals) + Arrays.hashCode(offsets)) + Long.hashCode(position);
+    }
+
+    // The template of a formula written into the cell at the given position. References that do not point
+    // into the table are kept as text, the formula fails to parse at any position then.
+    static FormulaTemplate of(TableModel tableModel, String text, int row, int column) {
+        var lexer = new Lexer();
+        lexer.reset(text);
+        List<String> literals = null;
+        int[] offsets = NO_OFFSETS;
+        int count = 0;
+        int literalStart = 0;
+        long position = -1;
+        for (; !lexer.is(Lexer.Kind.END); lexer.next()) {
+            if (!lexer.is(Lexer.Kind.REFERENCE)) {
+                continue;
+            }
+            long reference;
+            try {
+                reference = tableModel.decodeReference(text, lexer.getStart(), lexer.getEnd());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (!isCanonical(text, lexer.getStart(), lexer.getEnd())) {
+                position = ((long) row << 32) | column;
+                continue;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, Math.max(8, count * 2));
+                literals = literals == null ? new ArrayList<>() : literals;
+            }
+            offsets[count++] = (int) (reference >>> 32) - row;
+            offsets[count++] = (int) reference - column;
+            literals.add(text.substring(literalStart, lexer.getStart()));
+            literalStart = lexer.getEnd();
+        }
+        if (literals == null) {
+            return new FormulaTemplate(new String[] {text}, NO_OFFSETS, position); // Plain values take this way
+        }
+        literals.add(text.substring(literalStart));
+        return new FormulaTemplate(literals.toArray(new String[0]), Arrays.copyOf(offsets, count), position);
+    }
+
+    // Whether the reference is spelled the way getReferenceLabel spells its position, without leading zeros
+    private static boolean isCanonical(String text, int start, int end) {
+        int i = start;
+        while (i < end && !Character.isDigit(text.charAt(i))) {
+            i++;
+        }
+        return text.charAt(i) != '0';
+    }
+
+    // Writes the template in the form read back by read, for storing it in a workbook file
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(literals.length);
+        for (var literal : literals) {
+            var bytes = literal.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.writeInt(offsets.length);
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        out.writeLong(position);
+    }
+
+    // Reads a template written by write, leaving the buffer behind it
+    public static FormulaTemplate read(ByteBuffer in) {
+        var literals = new String[in.getInt()];
+        for (int i = 0; i < literals.length; i++) {
+            var bytes = new byte[in.getInt()];
+            in.get(bytes);
+            literals[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        var offsets = new int[in.getInt()];
+        if (offsets.length % 2 != 0 || offsets.length / 2 + 1 != literals.length) {
+            throw new IllegalArgumentException("Malformed template: " + literals.length + " literals for "
+                    + offsets.length / 2 + " references");
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = in.getInt();
+        }
+        return new FormulaTemplate(literals, offsets.length == 0 ? NO_OFFSETS : offsets, in.getLong());
+    }
+
+    public int getReferenceCount() {
+        return offsets.length / 2;
+    }
+
+    // The formula text of the cell at the given position, exactly as it was written there
+    public String render(TableModel tableModel, int row, int column) {
+        if (offsets.length == 0) {
+            return literals[0];
+        }
+        var builder = new StringBuilder();
+        for (int i = 0; i < offsets.length / 2; i++) {
+            builder.append(literals[i]).append(tableModel.getReferenceLabel(row + offsets[2 * i], column + offsets[2 * i + 1]));
+        }
+        return builder.append(literals[literals.length - 1]).toString();
+    }
+
+    // The optimized expression of the formula for the given cell, which must hold this template
+    public Expr bind(Cell cell) {
+        var tableModel = cell.getTableModel();
+        int row = cell.getRow();
+        int column = cell.getColumn();
+        return rebuild(tree(tableModel, row, column), new IdentityHashMap<>(), node -> {
+            if (node instanceof RelativeCellExpr reference) {
+                return new CellExpr(tableModel.getOrCreateCell(row + reference.rowOffset, column + reference.columnOffset));
+            }
+            if (node instanceof RelativeRangeExpr range) {
+                return new RangeExpr(tableModel, new CellRange(row + range.topOffset, column + range.leftOffset,
+                        row + range.bottomOffset, column + range.rightOffset));
+            }
+            return node;
+        });
+    }
+
+    // Parses the formula unless that has been done, without touching any cell, so it may run on any thread.
+    // A formula that does not parse is left to fail when it is bound.
+    public void prepare(TableModel tableModel, int row, int column) {
+        try {
+            tree(tableModel, row, column);
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    // The tree of the formula relative to its holders, parsed once at the holder at the given position
+    private Expr tree(TableModel tableModel, int row, int column) {
+        var template = tree;
+        if (template != null) {
+            return template;
+        }
+        synchronized (this) {
+            if (tree == null && error == null) {
+                try {
+                    tree = Optimizer.optimize(tableModel.getParser().parseTemplate(render(tableModel, row, column),
+                            tableModel, row, column));
+                } catch (RuntimeException e) {
+                    error = String.valueOf(e.getMessage());
+                    throw e;
+                }
+            }
+            if (tree == null) {
+                throw new IllegalArgumentException(error);
+            }
+            return tree;
+        }
+    }
+
+    // Copies the tree with its leaves replaced. Subtrees whose leaves stay the same are shared with the
+    // original, shared subexpressions are copied since each holder computes its own values.
+    private static Expr rebuild(Expr expr, Map<SharedExpr, SharedExpr> shared, UnaryOperator<Expr> leaves) {
+        if (expr instanceof LetExpr let) {
+            var bindings = new SharedExpr[let.getBindings().length];
+            for (int i = 0; i < bindings.length; i++) {
+                var binding = let.getBindings()[i];
+                bindings[i] = new SharedExpr(rebuild(binding.getExpr(), shared, leaves));
+                shared.put(binding, bindings[i]); // Bound in order, so a binding only uses earlier ones
+            }
+            return new LetExpr(bindings, rebuild(let.getBody(), shared, leaves));
+        }
+        if (expr instanceof SharedExpr sharedExpr) {
+            return shared.get(sharedExpr);
+        }
+        if (expr instanceof UnaryExpr unary) {
+            var operand = rebuild(unary.getExpr(), shared, leaves);
+            return operand == unary.getExpr() ? unary : new UnaryExpr(unary.getOperator(), operand);
+        }
+        if (expr instanceof BinaryExpr binary) {
+            var left = rebuild(binary.getLeft(), shared, leaves);
+            var right = rebuild(binary.getRight(), shared, leaves);
+            return left == binary.getLeft() && right == binary.getRight() ? binary
+                    : new BinaryExpr(left, binary.getOperator(), right);
+        }
+        if (expr instanceof UnaryFunctionExpr function) {
+            var argument = rebuild(function.getArgument(), shared, leaves);
+            return argument == function.getArgument() ? function : new UnaryFunctionExpr(function.getFunction(), argument);
+        }
+        if (expr instanceof BinaryFunctionExpr function) {
+            var left = rebuild(function.getLeft(), shared, leaves);
+            var right = rebuild(function.getRight(), shared, leaves);
+            return left == function.getLeft() && right == function.getRight() ? function
+                    : new BinaryFunctionExpr(function.getFunction(), left, right);
+        }
+        if (expr instanceof AggregateExpr aggregate) {
+            var arguments = new ArrayList<Expr>();
+            boolean changed = false;
+            for (var argument : aggregate.getArguments()) {
+                var rebuilt = rebuild(argument, shared, leaves);
+                changed |= rebuilt != argument;
+                arguments.add(rebuilt);
+            }
+            return changed ? new AggregateExpr(aggregate.getAggregate(), arguments) : aggregate;
+        }
+        return leaves.apply(expr);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof FormulaTemplate template && hash == template.hash
+                && position == template.position && Arrays.equals(offsets, template.offsets)
+                && Arrays.equals(literals, template.literals);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    // The R1C1 form, such as RC[-1]*R[-1]C
+    @Override
+    public String toString() {
+        var builder = new StringBuilder();
+        for (int i = 0; i < offsets.length / 2; i++) {
+            builder.append(literals[i]).append('R');
+            if (offsets[2 * i] != 0) {
+                builder.append('[').append(offsets[2 * i]).append(']');
+            }
+            builder.append('C');
+            if (offsets[2 * i + 1] != 0) {
+                builder.append('[').append(offsets[2 * i + 1]).append(']');
+            }
+        }
+        return builder.append(literals[literals.length - 1]).toString();
+    }
+}
+
+// A cell reference of a template, only evaluated once bound to a cell
+class RelativeCellExpr implements Expr {
+    final int rowOffset;
+    final int columnOffset;
+
+    RelativeCellExpr(int rowOffset, int columnOffset) {
+        this.rowOffset = rowOffset;
+        this.columnOffset = columnOffset;
+    }
+
+    @Override
+    public double evaluate() {
+        throw new IllegalStateException("Template reference is not bound to a cell");
+    }
+}
+
+class RelativeRangeExpr implements Expr {
+    final int topOffset;
+    final int leftOffset;
+    final int bottomOffset;
+    final int rightOffset;
+
+    RelativeRangeExpr(int topOffset, int leftOffset, int bottomOffset, int rightOffset) {
+        this.topOffset = topOffset;
+        this.leftOffset = leftOffset;
+        this.bottomOffset = bottomOffset;
+        this.rightOffset = rightOffset;
+    }
+
+    @Override
+    public double evaluate() {
+        throw new IllegalStateException("Template range is not bound to a cell");
+    }
+}
@@ -0,0 +1,40 @@
+package org.parser;
+
+import org.main.TableModel;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+
+// Interns the FormulaTemplates of a table, so that all cells holding the same relative formula share one
+// template, and with it one parse. A template is dropped once no cell holds it anymore. Values without
+// references, such as the numbers of an imported sheet, are cheap to parse and rarely repeat, so they are
+// not interned.
+public final class FormulaTemplates {
+    private final Map<FormulaTemplate, WeakReference<FormulaTemplate>> templates = new WeakHashMap<>();
+
+    public FormulaTemplate intern(TableModel tableModel, String text, int row, int column) {
+        return intern(FormulaTemplate.of(tableModel, text, row, column));
+    }
+
+    // The template equal to the given one that cells already hold, such as one read from a workbook file
+    public FormulaTemplate intern(FormulaTemplate template) {
+        if (template.getReferenceCount() == 0) {
+            return template;
+        }
+        synchronized (this) {
+            var existing = templates.get(template);
+            var interned = existing == null ? null : existing.get();
+            if (interned != null) {
+                return interned;
+            }
+            templates.put(template, new WeakReference<>(template));
+            return template;
+        }
+    }
+
+    public synchronized int size() {
+        return templates.size();
+    }
+}
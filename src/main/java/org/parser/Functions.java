@@ -0,0 +1,108 @@
+package org.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+
+// The built-in functions. A call is bound to one of them once, when the formula is parsed, and its number of
+// arguments is checked there, so evaluating the call does no name lookup and no argument checks.
+final class Functions {
+    // Functions of one argument, with the java.lang.Math methods the compiler calls for them in turn
+    enum Unary {
+        SIN(x -> Math.sin(Math.toRadians(x)), "toRadians", "sin"),
+        COS(x -> Math.cos(Math.toRadians(x)), "toRadians", "cos"),
+        TAN(x -> Math.tan(Math.toRadians(x)), "toRadians", "tan"),
+        SQRT(Math::sqrt, "sqrt"),
+        LOG(Math::log, "log"),
+        EXP(Math::exp, "exp"),
+        ABS(Math::abs, "abs"),
+        ROUND(x -> Math.round(x), "round"), // The only one returning a long
+        CEIL(Math::ceil, "ceil"),
+        FLOOR(Math::floor, "floor"),
+        LOG10(Math::log10, "log10"),
+        DEGREES(Math::toDegrees, "toDegrees"),
+        RADIANS(Math::toRadians, "toRadians"),
+        SIGNUM(Math::signum, "signum");
+
+        final DoubleUnaryOperator operator;
+        final String[] mathMethods;
+
+        Unary(DoubleUnaryOperator operator, String... mathMethods) {
+            this.operator = operator;
+            this.mathMethods = mathMethods;
+        }
+    }
+
+    enum Binary {
+        POW(Math::pow),
+        MOD((x, y) -> x % y);
+
+        final DoubleBinaryOperator operator;
+
+        Binary(DoubleBinaryOperator operator) {
+            this.operator = operator;
+        }
+    }
+
+    // Functions over any number of arguments, where ranges contribute all their numeric cells
+    enum Aggregate {
+        SUM,
+        AVERAGE,
+        MIN,
+        MAX
+    }
+
+    static final String[] NAMES;
+
+    static {
+        var names = new ArrayList<String>();
+        for (var function : Unary.values()) {
+            names.add(function.name());
+        }
+        for (var function : Binary.values()) {
+            names.add(function.name());
+        }
+        for (var function : Aggregate.values()) {
+            names.add(function.name());
+        }
+        NAMES = names.toArray(new String[0]);
+    }
+
+    private Functions() {}
+
+    // Binds a call of the function with the given upper case name, throwing if the arguments do not fit it
+    static Expr bind(String name, List<Expr> arguments) {
+        for (var function : Unary.values()) {
+            if (function.name().equals(name)) {
+                if (arguments.size() != 1) {
+                    throw new IllegalArgumentException(name + " function takes one argument");
+                }
+                return new UnaryFunctionExpr(function, arguments.get(0));
+            }
+        }
+        for (var function : Binary.values()) {
+            if (function.name().equals(name)) {
+                if (arguments.size() != 2) {
+                    throw new IllegalArgumentException(name + " function takes two arguments");
+                }
+                return new BinaryFunctionExpr(function, arguments.get(0), arguments.get(1));
+            }
+        }
+        for (var aggregate : Aggregate.values()) {
+            if (aggregate.name().equals(name)) {
+                boolean singleRange = arguments.size() == 1
+                        && (arguments.get(0) instanceof RangeExpr || arguments.get(0) instanceof RelativeRangeExpr);
+                if ((aggregate == Aggregate.MIN || aggregate == Aggregate.MAX) && arguments.size() < 2 && !singleRange) {
+                    throw new IllegalArgumentException(name + " function takes at least two arguments");
+                }
+                if (aggregate == Aggregate.AVERAGE && arguments.isEmpty()) {
+                    throw new IllegalArgumentException(name + " function takes at least one argument");
+                }
+                return new AggregateExpr(aggregate, arguments);
+            }
+        }
+        throw new IllegalArgumentException("Unsupported function: " + name);
+    }
+}
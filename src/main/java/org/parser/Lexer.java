@@ -0,0 +1,192 @@
+package org.parser;
+
+
+// Single-pass scanner over the text of a formula. A token is only a kind and a [start, end) range of the
+// text, numbers are converted straight from that range, so scanning allocates nothing.
+class Lexer {
+    enum Kind {
+        NUMBER,
+        REFERENCE, // Letters followed by digits, such as B12 or AA10
+        NAME, // A function name, any word followed by '('
+        PLUS,
+        MINUS,
+        STAR,
+        SLASH,
+        OPEN,
+        CLOSE,
+        COMMA,
+        COLON,
+        INVALID, // A word that is none of the above, such as 3a or A1B
+        END
+    }
+
+    // Exactly representable powers of ten, dividing by one of them rounds correctly
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_EXACT_DIGITS = 15; // Any 15-digit mantissa is an exact double
+
+    private String text;
+    private int position;
+    private Kind kind;
+    private int start;
+    private int end;
+    private double number;
+
+    void reset(String text) {
+        this.text = text;
+        this.position = 0;
+        next();
+    }
+
+    String getText() {
+        return text;
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    int getStart() {
+        return start;
+    }
+
+    int getEnd() {
+        return end;
+    }
+
+    double getNumber() {
+        return number;
+    }
+
+    // 1-based column of the current token, or just past the text at the end
+    int getColumn() {
+        return start + 1;
+    }
+
+    boolean is(Kind kind) {
+        return this.kind == kind;
+    }
+
+    void next() {
+        while (position < text.length() && text.charAt(position) <= ' ') {
+            position++;
+        }
+        start = position;
+        if (position == text.length()) {
+            end = position;
+            kind = Kind.END;
+            return;
+        }
+        kind = switch (text.charAt(position)) {
+            case '+' -> Kind.PLUS;
+            case '-' -> Kind.MINUS;
+            case '*' -> Kind.STAR;
+            case '/' -> Kind.SLASH;
+            case '(' -> Kind.OPEN;
+            case ')' -> Kind.CLOSE;
+            case ',' -> Kind.COMMA;
+            case ':' -> Kind.COLON;
+            default -> null;
+        };
+        if (kind != null) {
+            end = ++position;
+            return;
+        }
+        while (position < text.length() && !isDelimiter(text.charAt(position))) {
+            position++;
+        }
+        end = position;
+        kind = classifyWord();
+    }
+
+    private static boolean isDelimiter(char c) {
+        return c <= ' ' || c == '+' || c == '-' || c == '*' || c == '/' || c == '(' || c == ')' || c == ',' || c == ':';
+    }
+
+    private Kind classifyWord() {
+        char first = text.charAt(start);
+        if (isDigit(first) || first == '.') {
+            return scanNumber() ? Kind.NUMBER : Kind.INVALID;
+        }
+        if (!Character.isLetter(first)) {
+            return Kind.INVALID;
+        }
+        if (isFollowedByOpen()) {
+            return Kind.NAME; // Also for names that look like references, such as LOG10
+        }
+        int i = start;
+        while (i < end && Character.isLetter(text.charAt(i))) {
+            i++;
+        }
+        if (i == end) {
+            return Kind.NAME; // Reported as a missing '(' by the parser
+        }
+        int digits = i;
+        while (i < end && isDigit(text.charAt(i))) {
+            i++;
+        }
+        return i == end && digits < end ? Kind.REFERENCE : Kind.INVALID;
+    }
+
+    private boolean isFollowedByOpen() {
+        int i = end;
+        while (i < text.length() && text.charAt(i) <= ' ') {
+            i++;
+        }
+        return i < text.length() && text.charAt(i) == '(';
+    }
+
+    // Accepts digits with an optional fraction, such as 12, 0.5 or .5, and converts them to the nearest double
+    private boolean scanNumber() {
+        long mantissa = 0;
+        int significantDigits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        boolean digitAfterPoint = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.') {
+                if (fraction) {
+                    return false;
+                }
+                fraction = true;
+            } else if (isDigit(c)) {
+                if (fraction) {
+                    fractionDigits++;
+                    digitAfterPoint = true;
+                }
+                if (mantissa != 0 || c != '0') {
+                    if (++significantDigits <= MAX_EXACT_DIGITS) {
+                        mantissa = mantissa * 10 + (c - '0');
+                    }
+                }
+            } else {
+                return false;
+            }
+        }
+        if (fraction && !digitAfterPoint) {
+            return false; // "3." is not a number, like before
+        }
+        if (significantDigits <= MAX_EXACT_DIGITS && fractionDigits < POWERS_OF_TEN.length) {
+            number = mantissa / POWERS_OF_TEN[fractionDigits];
+        } else {
+            number = Double.parseDouble(text.substring(start, end)); // Long literals are rare, let the JDK round them
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // Whether the current token spells the given upper case word, ignoring case
+    boolean matches(String word) {
+        return end - start == word.length() && text.regionMatches(true, start, word, 0, word.length());
+    }
+
+    String tokenText() {
+        return kind == Kind.END ? "end of expression" : text.substring(start, end);
+    }
+}
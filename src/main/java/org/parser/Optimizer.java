@@ -0,0 +1,300 @@
+package org.parser;
+
+import org.main.Cell;
+import org.main.CellRange;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+
+// Rewrites a parsed formula into an equivalent tree that is cheaper to evaluate:
+// - subtrees without references are folded into their value, such as POW(2, 10) or SIN(30)
+// - identities are applied only where IEEE arithmetic gives the same result for every operand, including -0
+//   and infinities, and NaN for NaN: x * 1, 1 * x, x / 1, x - 0, x + -0, --x, x * -1, x + -y and x - -y.
+//   A rewrite never drops a subtree, so a formula that fails on a bad cell still fails
+// - a subtree that occurs more than once, such as A1 + B1 in (A1 + B1) * (A1 + B1), is evaluated once per
+//   evaluation of the formula and its value reused. The language has no conditionals, so every subtree is
+//   evaluated anyway and computing the shared ones first changes nothing but the amount of work.
+public final class Optimizer {
+    private Optimizer() {}
+
+    public static Expr optimize(Expr expr) {
+        return share(fold(expr));
+    }
+
+    // Folds bottom-up, so that a rewrite may enable another one further up
+    static Expr fold(Expr expr) {
+        if (expr instanceof UnaryExpr unary && unary.getOperator() == '-') {
+            var operand = fold(unary.getExpr());
+            if (operand instanceof UnaryExpr inner && inner.getOperator() == '-') {
+                return inner.getExpr();
+            }
+            return constant(new UnaryExpr('-', operand), operand);
+        }
+        if (expr instanceof BinaryExpr binary) {
+            var left = fold(binary.getLeft());
+            var right = fold(binary.getRight());
+            var simplified = simplify(left, binary.getOperator(), right);
+            return simplified != null ? simplified : constant(new BinaryExpr(left, binary.getOperator(), right), left, right);
+        }
+        if (expr instanceof UnaryFunctionExpr function) {
+            var argument = fold(function.getArgument());
+            return constant(new UnaryFunctionExpr(function.getFunction(), argument), argument);
+        }
+        if (expr instanceof BinaryFunctionExpr function) {
+            var left = fold(function.getLeft());
+            var right = fold(function.getRight());
+            return constant(new BinaryFunctionExpr(function.getFunction(), left, right), left, right);
+        }
+        if (expr instanceof AggregateExpr aggregate) {
+            var arguments = new ArrayList<Expr>();
+            for (var argument : aggregate.getArguments()) {
+                arguments.add(fold(argument));
+            }
+            return constant(new AggregateExpr(aggregate.getAggregate(), arguments), arguments.toArray(new Expr[0]));
+        }
+        return expr;
+    }
+
+    // The identities that hold for every operand, null if none applies
+    private static Expr simplify(Expr left, char operator, Expr right) {
+        switch (operator) {
+            case '*' -> {
+                if (isConstant(right, 1.0)) {
+                    return left;
+                }
+                if (isConstant(left, 1.0)) {
+                    return right;
+                }
+                if (isConstant(right, -1.0)) {
+                    return fold(new UnaryExpr('-', left));
+                }
+                if (isConstant(left, -1.0)) {
+                    return fold(new UnaryExpr('-', right));
+                }
+            }
+            case '/' -> {
+                if (isConstant(right, 1.0)) {
+                    return left;
+                }
+            }
+            case '+' -> {
+                if (isConstant(right, -0.0)) {
+                    return left;
+                }
+                if (isConstant(left, -0.0)) {
+                    return right;
+                }
+                if (right instanceof UnaryExpr negated && negated.getOperator() == '-') {
+                    return fold(new BinaryExpr(left, '-', negated.getExpr()));
+                }
+            }
+            case '-' -> {
+                if (isConstant(right, 0.0)) {
+                    return left;
+                }
+                if (right instanceof UnaryExpr negated && negated.getOperator() == '-') {
+                    return fold(new BinaryExpr(left, '+', negated.getExpr()));
+                }
+            }
+            default -> {}
+        }
+        return null;
+    }
+
+    // Compares bits, so that 0.0 and -0.0 are told apart
+    private static boolean isConstant(Expr expr, double value) {
+        return expr instanceof NumberExpr number
+                && Double.doubleToRawLongBits(number.getValue()) == Double.doubleToRawLongBits(value);
+    }
+
+    // The value of the node if all its operands are constants, or the node itself
+    private static Expr constant(Expr node, Expr... operands) {
+        for (var operand : operands) {
+            if (!(operand instanceof NumberExpr)) {
+                return node;
+            }
+        }
+        try {
+            return new NumberExpr(node.evaluate());
+        } catch (RuntimeException e) {
+            return node; // Left to fail when the formula is evaluated, like it did before
+        }
+    }
+
+    // Structure of a node with its children replaced by the ids of their distinct subtrees
+    private record Key(Object operator, long value, List<Integer> children) {}
+
+    private static class Sharing {
+        final Map<Key, Integer> ids = new HashMap<>();
+        final Map<Expr, Integer> idOf = new IdentityHashMap<>();
+        final List<Integer> occurrences = new ArrayList<>();
+        final Map<Integer, SharedExpr> shared = new HashMap<>();
+        final List<SharedExpr> bindings = new ArrayList<>();
+
+        // Gives every node the id of its structure and counts how often each structure occurs
+        int number(Expr expr) {
+            var children = new ArrayList<Integer>();
+            Object operator;
+            long value = 0;
+            if (expr instanceof NumberExpr number) {
+                operator = NumberExpr.class;
+                value = Double.doubleToRawLongBits(number.getValue());
+            } else if (expr instanceof CellExpr reference) {
+                operator = CellExpr.class;
+                value = ((long) reference.getReferencedCell().getRow() << 32) | reference.getReferencedCell().getColumn();
+            } else if (expr instanceof RangeExpr range) {
+                operator = range.getRange();
+            } else if (expr instanceof RelativeCellExpr reference) {
+                operator = RelativeCellExpr.class;
+                value = ((long) reference.rowOffset << 32) | (reference.columnOffset & 0xFFFFFFFFL);
+            } else if (expr instanceof RelativeRangeExpr range) {
+                operator = RelativeRangeExpr.class;
+                children.addAll(List.of(range.topOffset, range.leftOffset, range.bottomOffset, range.rightOffset));
+            } else if (expr instanceof UnaryExpr unary) {
+                operator = UnaryExpr.class;
+                value = unary.getOperator();
+                children.add(number(unary.getExpr()));
+            } else if (expr instanceof BinaryExpr binary) {
+                operator = BinaryExpr.class;
+                value = binary.getOperator();
+                children.add(number(binary.getLeft()));
+                children.add(number(binary.getRight()));
+            } else if (expr instanceof UnaryFunctionExpr function) {
+                operator = function.getFunction();
+                children.add(number(function.getArgument()));
+            } else if (expr instanceof BinaryFunctionExpr function) {
+                operator = function.getFunction();
+                children.add(number(function.getLeft()));
+                children.add(number(function.getRight()));
+            } else if (expr instanceof AggregateExpr aggregate) {
+                operator = aggregate.getAggregate();
+                for (var argument : aggregate.getArguments()) {
+                    children.add(number(argument));
+                }
+            } else {
+                operator = expr; // Unknown node, equal only to itself
+            }
+            int id = ids.computeIfAbsent(new Key(operator, value, children), key -> {
+                occurrences.add(0);
+                return occurrences.size() - 1;
+            });
+            occurrences.set(id, occurrences.get(id) + 1);
+            idOf.put(expr, id);
+            return id;
+        }
+
+        // Rebuilds the tree with every repeated subtree replaced by one shared node. The shared nodes are bound
+        // in the order they are finished, so a shared subtree that contains another one is bound after it.
+        Expr rebuild(Expr expr) {
+            int id = idOf.get(expr);
+            var existing = shared.get(id);
+            if (existing != null) {
+                return existing;
+            }
+            Expr rebuilt;
+            if (expr instanceof UnaryExpr unary) {
+                rebuilt = new UnaryExpr(unary.getOperator(), rebuild(unary.getExpr()));
+            } else if (expr instanceof BinaryExpr binary) {
+                rebuilt = new BinaryExpr(rebuild(binary.getLeft()), binary.getOperator(), rebuild(binary.getRight()));
+            } else if (expr instanceof UnaryFunctionExpr function) {
+                rebuilt = new UnaryFunctionExpr(function.getFunction(), rebuild(function.getArgument()));
+            } else if (expr instanceof BinaryFunctionExpr function) {
+                rebuilt = new BinaryFunctionExpr(function.getFunction(), rebuild(function.getLeft()), rebuild(function.getRight()));
+            } else if (expr instanceof AggregateExpr aggregate) {
+                var arguments = new ArrayList<Expr>();
+                for (var argument : aggregate.getArguments()) {
+                    arguments.add(rebuild(argument));
+                }
+                rebuilt = new AggregateExpr(aggregate.getAggregate(), arguments);
+            } else {
+                return expr; // Leaves are as cheap to evaluate again as to look up
+            }
+            if (occurrences.get(id) < 2) {
+                return rebuilt;
+            }
+            var sharedExpr = new SharedExpr(rebuilt);
+            shared.put(id, sharedExpr);
+            bindings.add(sharedExpr);
+            return sharedExpr;
+        }
+    }
+
+    static Expr share(Expr expr) {
+        var sharing = new Sharing();
+        sharing.number(expr);
+        var body = sharing.rebuild(expr);
+        return sharing.bindings.isEmpty() ? body : new LetExpr(sharing.bindings.toArray(new SharedExpr[0]), body);
+    }
+}
+
+// A subexpression used more than once in a formula. Its value is computed once by the enclosing LetExpr and
+// read by every use.
+class SharedExpr implements Expr {
+    private final Expr expr;
+    double value;
+
+    SharedExpr(Expr expr) {
+        this.expr = expr;
+    }
+
+    @Override
+    public double evaluate() {
+        return value;
+    }
+
+    Expr getExpr() {
+        return expr;
+    }
+
+    @Override
+    public void collectReferences(Consumer<Cell> consumer) {
+        expr.collectReferences(consumer);
+    }
+
+    @Override
+    public void collectRanges(Consumer<CellRange> consumer) {
+        expr.collectRanges(consumer);
+    }
+}
+
+// Root of an optimized formula with shared subexpressions, evaluates them in order before the body
+class LetExpr implements Expr {
+    private final SharedExpr[] bindings;
+    private final Expr body;
+
+    LetExpr(SharedExpr[] bindings, Expr body) {
+        this.bindings = bindings;
+        this.body = body;
+    }
+
+    @Override
+    public double evaluate() {
+        for (var binding : bindings) {
+            binding.value = binding.getExpr().evaluate();
+        }
+        return body.evaluate();
+    }
+
+    SharedExpr[] getBindings() {
+        return bindings;
+    }
+
+    Expr getBody() {
+        return body;
+    }
+
+    @Override
+    public void collectReferences(Consumer<Cell> consumer) {
+        body.collectReferences(consumer);
+    }
+
+    @Override
+    public void collectRanges(Consumer<CellRange> consumer) {
+        body.collectRanges(consumer);
+    }
+}
@@ -1,115 +1,209 @@
 package org.parser;
 
 import org.main.Cell;
+import org.main.CellRange;
+import org.main.TableModel;
 
 import java.util.*;
 
 
+// Parses formulas into expression trees. The parser keeps no state between calls, every parse works on its
+// own Parse, so one parser can be used by any number of threads at once.
 public class Parser {
-    private StringTokenizer tokenizer;
-    private String currentToken;
-    private int openParentheses = 0; // Track the number of unclosed '('
-    private Cell cell;
-
-
     public Parser() {}
 
-    private void nextToken() {
-        while (tokenizer.hasMoreTokens()) {
-            currentToken = tokenizer.nextToken().trim();
-            if (!currentToken.isEmpty()) {
-                return;
+    // Whether a value that does not parse was meant as a formula, which makes it an error rather than text: it
+    // starts with a number, a sign, a parenthesis, a reference or a function call, such as "3 +", "(A1" or
+    // "SUM(A1". Labels such as "Total" or "Net sales" are text.
+    public static boolean looksLikeFormula(String value) {
+        var lexer = new Lexer();
+        lexer.reset(value);
+        return switch (lexer.getKind()) {
+            case NUMBER, REFERENCE, PLUS, MINUS, OPEN -> true;
+            case NAME -> {
+                lexer.next();
+                yield lexer.is(Lexer.Kind.OPEN);
             }
-        }
-        currentToken = null;
+            default -> false;
+        };
     }
 
+    // Compiles the formula of the cell once, the returned expression can be evaluated any number of times
     public Expr parse(Cell cell) {
-        this.cell = cell;
-        var value = cell.getValue();
-        if (value.isEmpty()) {
-            throw new RuntimeException("Empty cell");
+        return parse(cell.getValue(), cell);
+    }
+
+    public Expr parse(String value, Cell cell) {
+        return new Parse(value, cell.getTableModel(), cell.getRow(), cell.getColumn(), false).parse();
+    }
+
+    // Parses the formula of a template written at the given position, into a tree whose references are
+    // relative to that position. No cell of the table is read or created.
+    Expr parseTemplate(String value, TableModel tableModel, int row, int column) {
+        return new Parse(value, tableModel, row, column, true).parse();
+    }
+
+    private static final class Parse {
+        private final Lexer lexer = new Lexer();
+        private final String value;
+        private final TableModel tableModel;
+        private final int row;
+        private final int column;
+        private final boolean relative;
+
+        Parse(String value, TableModel tableModel, int row, int column, boolean relative) {
+            this.value = value;
+            this.tableModel = tableModel;
+            this.row = row;
+            this.column = column;
+            this.relative = relative;
         }
-        tokenizer = new StringTokenizer(value, "+-*/() ,", true);
-        nextToken();
-        if (currentToken == null) {
-            // Return a default expression or handle the empty input specifically.
-            return new NumberExpr(0);  // Example: return 0 for empty input.
+
+        Expr parse() {
+            if (value.isEmpty()) {
+                throw new RuntimeException("Empty cell");
+            }
+            lexer.reset(value);
+            if (lexer.is(Lexer.Kind.END)) {
+                // Return a default expression or handle the empty input specifically.
+                return new NumberExpr(0);  // Example: return 0 for empty input.
+            }
+            var result = parseExpression();
+            if (!lexer.is(Lexer.Kind.END)) {
+                throw error("Unexpected token: " + lexer.tokenText());
+            }
+            return result;
         }
-        var result = parseExpression();
-        if (openParentheses != 0) {
-            throw new RuntimeException("Mismatched parentheses");
+
+        private FormulaSyntaxException error(String message) {
+            return new FormulaSyntaxException(message, lexer.getColumn());
         }
-        if (currentToken != null) {
-            throw new RuntimeException("Unexpected token: " + currentToken);
+
+        private Expr parseExpression() {
+            var result = parseTerm();
+            while (lexer.is(Lexer.Kind.PLUS) || lexer.is(Lexer.Kind.MINUS)) {
+                var op = lexer.is(Lexer.Kind.PLUS) ? '+' : '-';
+                lexer.next();
+                result = new BinaryExpr(result, op, parseTerm());
+            }
+            return result;
         }
-        return result;
-    }
 
-    private Expr parseExpression() {
-        var result = parseTerm();
-        while (("+".equals(currentToken) || "-".equals(currentToken))) {
-            var op = currentToken.charAt(0);
-            nextToken();
-            result = new BinaryExpr(result, op, parseTerm());
+        private Expr parseTerm() {
+            var result = parseFactor();
+            while (lexer.is(Lexer.Kind.STAR) || lexer.is(Lexer.Kind.SLASH)) {
+                var op = lexer.is(Lexer.Kind.STAR) ? '*' : '/';
+                lexer.next();
+                result = new BinaryExpr(result, op, parseFactor());
+            }
+            return result;
         }
-        return result;
-    }
 
-    private Expr parseTerm() {
-        var result = parseFactor();
-        while (("*".equals(currentToken) || "/".equals(currentToken))) {
-            var op = currentToken.charAt(0);
-            nextToken();
-            result = new BinaryExpr(result, op, parseFactor());
+        private Expr parseFactor() {
+            switch (lexer.getKind()) {
+                case END -> throw error("Unexpected end of expression");
+                case OPEN -> {
+                    lexer.next();
+                    var result = parseExpression();
+                    if (!lexer.is(Lexer.Kind.CLOSE)) {
+                        throw error("Missing ')'");
+                    }
+                    lexer.next();
+                    return result;
+                }
+                case MINUS -> {
+                    lexer.next();
+                    var negatedExpression = parseFactor();
+                    return new UnaryExpr('-', negatedExpression);
+                }
+                case REFERENCE -> {
+                    return parseReference();
+                }
+                case NUMBER -> {
+                    var number = lexer.getNumber();
+                    lexer.next();
+                    return new NumberExpr(number);
+                }
+                case NAME -> {
+                    return parseFunction();
+                }
+                default -> throw error("Unexpected token: " + lexer.tokenText());
+            }
         }
-        return result;
-    }
 
-    private Expr parseFactor() {
-        if (currentToken == null) {
-            throw new RuntimeException("Unexpected end of expression");
+        // A single cell such as B3 or a range such as A1:B10
+        private Expr parseReference() {
+            int column = lexer.getColumn();
+            int fromStart = lexer.getStart();
+            int fromEnd = lexer.getEnd();
+            lexer.next();
+            if (!lexer.is(Lexer.Kind.COLON)) {
+                try {
+                    return reference(fromStart, fromEnd);
+                } catch (IllegalArgumentException e) {
+                    throw new FormulaSyntaxException(e.getMessage(), column); // Outside the table
+                }
+            }
+            lexer.next();
+            if (!lexer.is(Lexer.Kind.REFERENCE)) {
+                throw error("Missing cell reference after ':'");
+            }
+            try {
+                var range = tableModel.resolveRange(lexer.getText(), fromStart, fromEnd, lexer.getStart(), lexer.getEnd());
+                lexer.next();
+                return range(range);
+            } catch (IllegalArgumentException e) {
+                throw new FormulaSyntaxException(e.getMessage(), column);
+            }
         }
-        if ("(".equals(currentToken)) {
-            openParentheses++;
-            nextToken();
-            var result = parseExpression();
-            if (!")".equals(currentToken)) {
-                throw new RuntimeException("Missing ')'");
+
+        private Expr reference(int start, int end) {
+            if (!relative) {
+                return new CellExpr(tableModel.resolveReference(lexer.getText(), start, end));
             }
-            openParentheses--;
-            nextToken();
-            return result;
-        } else if ("-".equals(currentToken)) {
-            nextToken();
-            var negatedExpression = parseFactor();
-            return new UnaryExpr('-', negatedExpression);
-        } else if (Character.isLetter(currentToken.charAt(0)) && currentToken.length() > 1 && Character.isDigit(currentToken.charAt(1))) {
-            var cellRef = currentToken;
-            nextToken();
-            return new CellExpr(cell, cellRef);
-        } else if (currentToken.matches("[-+]?\\d*\\.?\\d+")) {
-            var number = Double.parseDouble(currentToken);
-            nextToken();
-            return new NumberExpr(number);
-        } else if (Character.isLetter(currentToken.charAt(0))) {
-            var func = currentToken;
-            nextToken();
-            if (!"(".equals(currentToken)) {
-                throw new RuntimeException("Missing '(' after function name");
-            }
-            nextToken();
+            long position = tableModel.decodeReference(lexer.getText(), start, end);
+            return new RelativeCellExpr((int) (position >>> 32) - row, (int) position - column);
+        }
+
+        private Expr range(CellRange range) {
+            if (!relative) {
+                return new RangeExpr(tableModel, range);
+            }
+            return new RelativeRangeExpr(range.getTop() - row, range.getLeft() - column,
+                    range.getBottom() - row, range.getRight() - column);
+        }
+
+        private Expr parseFunction() {
+            int column = lexer.getColumn();
+            var func = functionName();
+            lexer.next();
+            if (!lexer.is(Lexer.Kind.OPEN)) {
+                throw error("Missing '(' after function name");
+            }
+            lexer.next();
             var args = new ArrayList<Expr>();
-            while (currentToken != null && !")".equals(currentToken)) {
+            while (!lexer.is(Lexer.Kind.END) && !lexer.is(Lexer.Kind.CLOSE)) {
                 args.add(parseExpression());
-                if (",".equals(currentToken)) nextToken();
+                if (lexer.is(Lexer.Kind.COMMA)) lexer.next();
+            }
+            if (!lexer.is(Lexer.Kind.CLOSE)) {
+                throw error("Missing ')'");
+            }
+            lexer.next(); // Skip ')'
+            try {
+                return Functions.bind(func, args);
+            } catch (IllegalArgumentException e) {
+                throw new FormulaSyntaxException(e.getMessage(), column); // Unknown function or wrong number of arguments
             }
-            if (!")".equals(currentToken)) {
-                throw new RuntimeException("Missing ')'");
+        }
+
+        private String functionName() {
+            for (var name : Functions.NAMES) {
+                if (lexer.matches(name)) {
+                    return name; // Canonical, so that a call does not cut its name out of the formula
+                }
             }
-            nextToken(); // Skip ')'
-            return new FunctionExpr(func, args);
+            return lexer.tokenText(); // Unknown, reported once the call is parsed
         }
-        throw new RuntimeException("Unexpected token: " + currentToken);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,64 @@
+package org.main;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+
+public class BatchEvaluatorTests {
+    @TempDir
+    Path directory;
+
+    // A column of numbers, a column of formulas over it and a total, with one result saved out of date
+    private Path saveWorkbook(int rows) throws IOException {
+        var tableModel = new TableModel(4, rows + 1, 0, 0);
+        var values = new ArrayList<String[]>();
+        for (int row = 1; row <= rows; row++) {
+            values.add(new String[] {String.valueOf(row), "A" + row + " * 2"});
+        }
+        tableModel.load(0, 1, values);
+        tableModel.edit(rows, 2, "SUM(B1:B" + rows + ")");
+        tableModel.setCellParsedValue(0, 2, "stale");
+        var path = directory.resolve("sheet.stew");
+        WorkbookFile.create(tableModel, path).close();
+        return path;
+    }
+
+    @Test
+    public void testWorkbookIsRecalculatedAndExported() throws IOException {
+        int rows = 2000;
+        var workbook = saveWorkbook(rows);
+        var output = directory.resolve("results.csv");
+        var report = new BatchEvaluator(2).run(workbook, output);
+        Assertions.assertEquals(2 * rows + 1, report.cells());
+        Assertions.assertEquals(2 * rows + 1, report.formulas());
+        Assertions.assertEquals(2 * rows + 1, report.exported());
+        Assertions.assertEquals(2, report.threads());
+        Assertions.assertTrue(report.loadNanos() > 0 && report.compileNanos() > 0 && report.recalculationNanos() > 0
+                && report.exportNanos() > 0);
+
+        var lines = Files.readAllLines(output);
+        Assertions.assertEquals(rows + 1, lines.size());
+        Assertions.assertEquals("1,2", lines.get(0), "Saved results are not trusted");
+        Assertions.assertEquals("2000,4000", lines.get(rows - 1));
+        Assertions.assertEquals("," + rows * (rows + 1), lines.get(rows));
+    }
+
+    @Test
+    public void testWorkbookIsNotChanged() throws IOException {
+        var workbook = saveWorkbook(100);
+        var before = Files.readAllBytes(workbook);
+        new BatchEvaluator(1).run(workbook, directory.resolve("results.bin"));
+        Assertions.assertArrayEquals(before, Files.readAllBytes(workbook));
+    }
+
+    @Test
+    public void testThreadsMustBePositive() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BatchEvaluator(0));
+    }
+}
@@ -7,8 +7,7 @@ import javax.swing.*;
 
 import static org.junit.Assert.*;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 
 
 public class CellDependencyGraphTests {
@@ -21,10 +20,10 @@ public class CellDependencyGraphTests {
     @Before
     public void setUp() {
         graph = new CellDependencyGraph();
-        cellA = new Cell(0, 1, "", "", graph, null, null);
-        cellB = new Cell(0, 2, "", "", graph, null, null);
-        cellC = new Cell(0, 3, "", "", graph, null, null);
-        cellD = new Cell(0, 4, "", "", graph, null, null);
+        cellA = new Cell(0, 1, null);
+        cellB = new Cell(0, 2, null);
+        cellC = new Cell(0, 3, null);
+        cellD = new Cell(0, 4, null);
     }
 
     @Test
@@ -68,7 +67,129 @@ public class CellDependencyGraphTests {
         assertFalse(graph.getAllDependents(cellB).contains(cellC));
         assertTrue(graph.getAllDependents(cellB).isEmpty());
     }
-}
 
+    private Cell[] chain(int column, int length) {
+        var cells = new Cell[length];
+        for (int i = 0; i < length; i++) {
+            cells[i] = new Cell(i, column, null);
+        }
+        return cells;
+    }
+
+    private void assertTopologicalOrder(List<Cell> ordered) {
+        var position = new HashMap<Cell, Integer>();
+        for (int i = 0; i < ordered.size(); i++) {
+            position.put(ordered.get(i), i);
+        }
+        for (Cell cell : ordered) {
+            for (Cell dependent : graph.getAllDependents(cell)) {
+                assertTrue(position.get(cell) < position.get(dependent));
+            }
+        }
+    }
+
+    @Test
+    public void testDependentsAreTopologicallyOrdered() {
+        graph.addDependency(cellC, cellD);
+        graph.addDependency(cellB, cellC);
+        graph.addDependency(cellA, cellB);
+        graph.addDependency(cellA, cellD);
+        assertEquals(Arrays.asList(cellB, cellC, cellD), graph.getAllDependents(cellA));
+    }
 
+    @Test
+    public void testSelfReferenceIsCycle() {
+        assertFalse(graph.addDependency(cellA, cellA));
+    }
 
+    @Test
+    public void testCycleAfterRemovalIsAllowed() {
+        graph.addDependency(cellA, cellB);
+        graph.removeDependent(cellB);
+        assertTrue(graph.addDependency(cellB, cellA));
+        assertEquals(List.of(cellA), graph.getAllDependents(cellB));
+    }
+
+    @Test
+    public void testMillionCellChain() {
+        var cells = chain(5, 1_000_000);
+        for (int i = 1; i < cells.length; i++) {
+            assertTrue(graph.addDependency(cells[i - 1], cells[i]));
+        }
+        var dependents = graph.getAllDependents(cells[0]);
+        assertEquals(cells.length - 1, dependents.size());
+        assertSame(cells[1], dependents.get(0));
+        assertSame(cells[cells.length - 1], dependents.get(dependents.size() - 1));
+        assertFalse(graph.addDependency(cells[cells.length - 1], cells[0]));
+    }
+
+    @Test
+    public void testJoiningLongChainsReordersIteratively() {
+        var first = chain(5, 100_000);
+        var second = chain(6, 100_000);
+        for (int i = 1; i < first.length; i++) {
+            graph.addDependency(first[i - 1], first[i]);
+            graph.addDependency(second[i - 1], second[i]);
+        }
+        // The tail of the second chain is ordered after the head of the first one, so this edge forces a reorder
+        assertTrue(graph.addDependency(second[second.length - 1], first[0]));
+        var dependents = graph.getAllDependents(second[0]);
+        assertEquals(first.length + second.length - 1, dependents.size());
+        assertSame(second[second.length - 1], dependents.get(second.length - 2));
+        assertSame(first[0], dependents.get(second.length - 1));
+        assertFalse(graph.addDependency(first[first.length - 1], second[0]));
+    }
+
+    @Test
+    public void testStackedDiamondsStayFast() {
+        var left = chain(5, 64);
+        var right = chain(6, 64);
+        for (int i = 1; i < left.length; i++) {
+            graph.addDependency(left[i - 1], left[i]);
+            graph.addDependency(right[i - 1], left[i]);
+            graph.addDependency(left[i - 1], right[i]);
+            graph.addDependency(right[i - 1], right[i]);
+        }
+        // 2^63 paths lead from the top to the bottom, a search without a visited set would never finish
+        assertFalse(graph.addDependency(left[left.length - 1], left[0]));
+        assertFalse(graph.addDependency(right[right.length - 1], right[0]));
+        assertEquals(126, graph.getAllDependents(left[0]).size());
+    }
+
+    @Test
+    public void testRandomEdgesMatchReachability() {
+        var random = new Random(42);
+        var cells = chain(7, 60);
+        var edges = new HashMap<Cell, Set<Cell>>();
+        for (int attempt = 0; attempt < 2_000; attempt++) {
+            var independent = cells[random.nextInt(cells.length)];
+            var dependent = cells[random.nextInt(cells.length)];
+            boolean createsCycle = reachable(edges, dependent, independent);
+            assertEquals(!createsCycle, graph.addDependency(independent, dependent));
+            if (!createsCycle) {
+                edges.computeIfAbsent(independent, k -> new HashSet<>()).add(dependent);
+            }
+        }
+        for (Cell cell : cells) {
+            assertTopologicalOrder(graph.getAllDependents(cell));
+        }
+    }
+
+    private static boolean reachable(Map<Cell, Set<Cell>> edges, Cell from, Cell to) {
+        var visited = new HashSet<Cell>();
+        var stack = new ArrayDeque<Cell>();
+        stack.push(from);
+        while (!stack.isEmpty()) {
+            var cell = stack.pop();
+            if (cell == to) {
+                return true;
+            }
+            for (Cell next : edges.getOrDefault(cell, Collections.emptySet())) {
+                if (visited.add(next)) {
+                    stack.push(next);
+                }
+            }
+        }
+        return false;
+    }
+}
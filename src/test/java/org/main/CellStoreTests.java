@@ -0,0 +1,75 @@
+package org.main;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+
+
+public class CellStoreTests {
+    @Test
+    public void testPutAndGet() {
+        var store = new CellStore();
+        var cell = new Cell(3, 5, null);
+        store.put(cell);
+        Assertions.assertSame(cell, store.get(3, 5));
+        Assertions.assertNull(store.get(3, 6));
+        Assertions.assertNull(store.get(3 + CellStore.PAGE_ROWS, 5));
+        Assertions.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testPagesAreAllocatedOnDemand() {
+        var store = new CellStore();
+        store.put(new Cell(0, 1, null));
+        store.put(new Cell(1, 2, null));
+        Assertions.assertEquals(1, store.getPageCount());
+        store.put(new Cell(999_999, 999, null));
+        Assertions.assertEquals(2, store.getPageCount());
+    }
+
+    @Test
+    public void testReplacingCellKeepsSize() {
+        var store = new CellStore();
+        store.put(new Cell(7, 7, null));
+        var replacement = new Cell(7, 7, null);
+        store.put(replacement);
+        Assertions.assertSame(replacement, store.get(7, 7));
+        Assertions.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testManyPagesSurviveGrowth() {
+        var store = new CellStore();
+        for (int i = 0; i < 10_000; i++) {
+            store.put(new Cell(i * CellStore.PAGE_ROWS, i % 100 * CellStore.PAGE_COLUMNS, null));
+        }
+        Assertions.assertEquals(10_000, store.getPageCount());
+        for (int i = 0; i < 10_000; i++) {
+            var cell = store.get(i * CellStore.PAGE_ROWS, i % 100 * CellStore.PAGE_COLUMNS);
+            Assertions.assertEquals(i * CellStore.PAGE_ROWS, cell.getRow());
+        }
+        var visited = new HashSet<Cell>();
+        store.forEach(visited::add);
+        Assertions.assertEquals(10_000, visited.size());
+    }
+
+    @Test
+    public void testForEachInRange() {
+        var store = new CellStore();
+        for (int row = 0; row < 200; row += 3) {
+            for (int column = 0; column < 40; column += 7) {
+                store.put(new Cell(row, column, null));
+            }
+        }
+        // A narrow block probes its pages, a block taller than the whole sheet scans the page table
+        for (int bottom : new int[]{150, 1_000_000}) {
+            var visited = new HashSet<Cell>();
+            store.forEachInRange(10, 5, bottom, 30, visited::add);
+            store.forEach(cell -> {
+                boolean inside = cell.getRow() >= 10 && cell.getRow() <= bottom && cell.getColumn() >= 5 && cell.getColumn() <= 30;
+                Assertions.assertEquals(inside, visited.contains(cell));
+            });
+        }
+    }
+}
@@ -48,4 +48,60 @@ class CellTests {
             Assertions.fail("Cell parsing should handle errors gracefully.");
         }
     }
+
+    @Test
+    public void testNumericResultIsStoredAsNumber() {
+        cell.setValue("1 + 2");
+        cell.parse();
+        Assertions.assertEquals(CellType.NUMBER, cell.getType());
+        Assertions.assertEquals(3.0, cell.getNumber());
+        Assertions.assertEquals("3.0", cell.getParsedValue());
+    }
+
+    @Test
+    public void testEmptyValue() {
+        cell.setValue("");
+        cell.parse();
+        Assertions.assertEquals(CellType.EMPTY, cell.getType());
+        Assertions.assertEquals("", cell.getParsedValue());
+    }
+
+    @Test
+    public void testLabelsAreText() {
+        cell.setValue("Total");
+        cell.parse();
+        Assertions.assertEquals(CellType.TEXT, cell.getType());
+        Assertions.assertEquals("Total", cell.getParsedValue());
+
+        cell.setValue("SUM(A1");
+        cell.parse();
+        Assertions.assertEquals(CellError.PARSE, cell.getError(), "A formula that does not parse is no label");
+    }
+
+    @Test
+    public void testErrorCodes() {
+        cell.setValue("3 *");
+        cell.parse();
+        Assertions.assertEquals(CellError.PARSE, cell.getError());
+
+        cell.setValue("A1 + 1");
+        cell.parse();
+        Assertions.assertEquals(CellError.VALUE, cell.getError(), "Referencing an empty cell should fail to evaluate.");
+
+        cell.setValue("B3");
+        cell.parse();
+        Assertions.assertEquals(CellType.ERROR, cell.getType());
+        Assertions.assertEquals(CellError.CYCLE, cell.getError());
+        Assertions.assertEquals("B3", cell.getParsedValue(), "Errors should display the formula as typed.");
+    }
+
+    @Test
+    public void testReferenceReadsNumberWithoutFormatting() {
+        var referenced = cell.getTableModel().getCell(0, 1);
+        referenced.setValue("0.1 + 0.2");
+        referenced.parse();
+        cell.setValue("A1 * 3");
+        cell.parse();
+        Assertions.assertEquals((0.1 + 0.2) * 3, cell.getNumber());
+    }
 }
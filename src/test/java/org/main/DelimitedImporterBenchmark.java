@@ -0,0 +1,53 @@
+package org.main;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+
+// Time to import a comma separated file of numbers and filled-down formulas into an empty table, including the
+// final recalculation.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DelimitedImporterBenchmark {
+    @Param({"100000"})
+    private int rows;
+
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("import", ".csv");
+        var text = new StringBuilder();
+        for (int row = 1; row <= rows; row++) {
+            text.append(row).append(',').append(row * 0.25).append(",\"label ").append(row % 97).append("\",A")
+                    .append(row).append(" * B").append(row).append(" + 1\n");
+        }
+        Files.writeString(file, text);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public int importFile() throws IOException {
+        var tableModel = new TableModel(4, rows, 0, 0);
+        return DelimitedImporter.forFile(tableModel, file).importFile(file);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DelimitedImporterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,145 @@
+package org.main;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class DelimitedImporterTests {
+    private TableModel tableModel;
+    private Map<Cell, Integer> notifications;
+
+    @BeforeEach
+    public void setUp() {
+        notifications = new HashMap<>();
+        tableModel = new TableModel(5, 1000, 0, 0) {
+            @Override
+            public void handleCellUpdate(Cell cell) {
+                notifications.merge(cell, 1, Integer::sum);
+            }
+        };
+    }
+
+    // Hands out the bytes a few at a time, so that fields and line breaks straddle every refill
+    private static ReadableByteChannel trickle(String text, int chunk) {
+        var bytes = text.getBytes(StandardCharsets.UTF_8);
+        return new ReadableByteChannel() {
+            private int position = 0;
+
+            @Override
+            public int read(ByteBuffer destination) {
+                if (position == bytes.length) {
+                    return -1;
+                }
+                int length = Math.min(chunk, Math.min(destination.remaining(), bytes.length - position));
+                destination.put(bytes, position, length);
+                position += length;
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    private String value(int row, int column) {
+        return tableModel.getCell(row, column).getValue();
+    }
+
+    @Test
+    public void testImportRecalculatesOnceAtTheEnd() throws IOException {
+        var text = new StringBuilder();
+        for (int row = 1; row <= 500; row++) {
+            text.append(row).append(",2,A").append(row).append(" * B").append(row).append(row > 1 ? " + C" + (row - 1) : "").append('\n');
+        }
+        Assertions.assertEquals(500, new DelimitedImporter(tableModel, ',').importFrom(trickle(text.toString(), 4096)));
+        Assertions.assertEquals(500 * 501.0, tableModel.getCell(499, 3).getNumber());
+        Assertions.assertEquals("A500 * B500 + C499", value(499, 3));
+        Assertions.assertEquals(1500, notifications.size());
+        for (var count : notifications.values()) {
+            Assertions.assertEquals(1, count, "Cells are only reported by the final recalculation");
+        }
+        Assertions.assertSame(tableModel.getCell(10, 3).getTemplate(), tableModel.getCell(400, 3).getTemplate());
+    }
+
+    @Test
+    public void testQuotedFields() throws IOException {
+        var text = "\"SUM(A2, C2)\",\"say \"\"hi\"\"\",\"two\r\nlines\"\r\n1,\"\",3\r\n\"4\"x,,\"unterminated";
+        for (int chunk = 1; chunk <= 8; chunk++) {
+            setUp();
+            Assertions.assertEquals(3, new DelimitedImporter(tableModel, ',').importFrom(trickle(text, chunk)));
+            Assertions.assertEquals("SUM(A2, C2)", value(0, 1));
+            Assertions.assertEquals(4.0, tableModel.getCell(0, 1).getNumber());
+            Assertions.assertEquals("say \"hi\"", value(0, 2));
+            Assertions.assertEquals("two\r\nlines", value(0, 3));
+            Assertions.assertEquals("", value(1, 2));
+            Assertions.assertNull(tableModel.findCell(1, 2), "Empty fields do not store cells");
+            Assertions.assertEquals("4x", value(2, 1));
+            Assertions.assertEquals("unterminated", value(2, 3));
+        }
+    }
+
+    @Test
+    public void testTabSeparatedFile(@TempDir Path directory) throws IOException {
+        var file = directory.resolve("sheet.tsv");
+        var bytes = "1\t\"2\"\tA1 + 1\nüber\t5\r".getBytes(StandardCharsets.UTF_8);
+        var withMark = new byte[bytes.length + 3];
+        withMark[0] = (byte) 0xEF;
+        withMark[1] = (byte) 0xBB;
+        withMark[2] = (byte) 0xBF;
+        System.arraycopy(bytes, 0, withMark, 3, bytes.length);
+        Files.write(file, withMark);
+
+        Assertions.assertEquals(2, DelimitedImporter.forFile(tableModel, file).importFile(file));
+        Assertions.assertEquals(1.0, tableModel.getCell(0, 1).getNumber(), "The byte order mark is skipped");
+        Assertions.assertEquals("\"2\"", value(0, 2), "Tab separated values are not quoted");
+        Assertions.assertEquals(2.0, tableModel.getCell(0, 3).getNumber());
+        Assertions.assertEquals("über", value(1, 1));
+        Assertions.assertEquals(CellType.TEXT, tableModel.getCell(1, 1).getType());
+    }
+
+    @Test
+    public void testFieldsLongerThanTheBuffer() throws IOException {
+        var longText = "text ".repeat(DelimitedImporter.BUFFER_SIZE / 3);
+        var text = "2," + longText + ",\"" + longText + "\"\n3";
+        new DelimitedImporter(tableModel, ',').importFrom(trickle(text, 1 << 20));
+        Assertions.assertEquals(longText, value(0, 2));
+        Assertions.assertEquals(longText, value(0, 3));
+        Assertions.assertEquals(3.0, tableModel.getCell(1, 1).getNumber());
+    }
+
+    @Test
+    public void testQuotedFieldsDoNotGrowTheBuffer() throws IOException {
+        var longText = "a \"\"quoted\"\", text\n".repeat(DelimitedImporter.BUFFER_SIZE / 2);
+        var importer = new DelimitedImporter(tableModel, ',');
+        importer.importFrom(trickle("\"" + longText + "\" and after,1\n2", 1 << 20));
+        Assertions.assertEquals(longText.replace("\"\"", "\"") + " and after", value(0, 1));
+        Assertions.assertEquals(1.0, tableModel.getCell(0, 2).getNumber());
+        Assertions.assertEquals(2.0, tableModel.getCell(1, 1).getNumber());
+        Assertions.assertEquals(DelimitedImporter.BUFFER_SIZE, importer.getBufferCapacity());
+    }
+
+    @Test
+    public void testValuesOutsideTheTableStopTheImport() throws IOException {
+        var importer = new DelimitedImporter(tableModel, ',');
+        importer.importFrom(trickle("1,2,3,4,5,,,\n", 64)); // Empty fields past the last column are fine
+        Assertions.assertEquals(5.0, tableModel.getCell(0, 5).getNumber());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> importer.importFrom(trickle("7\n1,2,3,4,5,6\n", 64)));
+        Assertions.assertEquals(7.0, tableModel.getCell(0, 1).getNumber(), "Lines before the error are recalculated");
+    }
+}
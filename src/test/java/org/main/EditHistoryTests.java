@@ -0,0 +1,104 @@
+package org.main;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+public class EditHistoryTests {
+    private TableModel tableModel;
+    private EditHistory history;
+
+    @BeforeEach
+    public void setUp() {
+        tableModel = new TableModel(5, 5, 0, 0);
+        history = new EditHistory(tableModel, 10_000);
+    }
+
+    private void edit(int row, int column, String value) {
+        var cell = tableModel.getCell(row, column);
+        var oldValue = cell.getValue();
+        tableModel.setSelectedCell(cell);
+        tableModel.parse(value);
+        history.record(row, column, oldValue, value);
+    }
+
+    private String value(int row, int column) {
+        return tableModel.getCell(row, column).getParsedValue();
+    }
+
+    @Test
+    public void testUndoAndRedo() {
+        edit(0, 1, "1");
+        edit(0, 2, "A1 * 10");
+        edit(0, 1, "2");
+        Assertions.assertEquals("20.0", value(0, 2));
+
+        Assertions.assertTrue(history.undo());
+        Assertions.assertEquals("10.0", value(0, 2));
+        Assertions.assertTrue(history.undo());
+        Assertions.assertEquals("", value(0, 2));
+        Assertions.assertTrue(history.redo());
+        Assertions.assertEquals("10.0", value(0, 2));
+        Assertions.assertTrue(history.redo());
+        Assertions.assertEquals("20.0", value(0, 2));
+        Assertions.assertFalse(history.redo());
+    }
+
+    @Test
+    public void testNewEditClearsRedo() {
+        edit(0, 1, "1");
+        history.undo();
+        Assertions.assertTrue(history.canRedo());
+        edit(1, 1, "2");
+        Assertions.assertFalse(history.canRedo());
+        Assertions.assertFalse(history.redo());
+    }
+
+    @Test
+    public void testTransactionIsUndoneAsOneStep() {
+        edit(0, 1, "1");
+        history.beginTransaction();
+        edit(1, 1, "2");
+        history.beginTransaction();
+        edit(1, 1, "3");
+        edit(2, 1, "A2 + A1");
+        history.endTransaction();
+        Assertions.assertThrows(IllegalStateException.class, history::undo);
+        history.endTransaction();
+        Assertions.assertEquals("4.0", value(2, 1));
+
+        history.undo();
+        Assertions.assertEquals("", value(1, 1));
+        Assertions.assertEquals("", value(2, 1));
+        Assertions.assertEquals("1.0", value(0, 1));
+        history.redo();
+        Assertions.assertEquals("4.0", value(2, 1));
+        Assertions.assertThrows(IllegalStateException.class, history::endTransaction);
+    }
+
+    @Test
+    public void testBudgetDropsOldestSteps() {
+        var small = new EditHistory(tableModel, 1_000);
+        for (int i = 0; i < 100; i++) {
+            small.record(0, 1, String.valueOf(i), String.valueOf(i + 1));
+            Assertions.assertTrue(small.getByteSize() <= small.getByteBudget());
+        }
+        int steps = 0;
+        while (small.undo()) {
+            steps++;
+        }
+        Assertions.assertTrue(steps > 1 && steps < 100);
+        Assertions.assertEquals(String.valueOf(100 - steps) + ".0", value(0, 1));
+    }
+
+    @Test
+    public void testLatestStepIsKeptOverBudget() {
+        var tiny = new EditHistory(tableModel, 1);
+        tiny.record(0, 1, "", "5");
+        tiny.record(0, 1, "5", "6");
+        Assertions.assertTrue(tiny.undo());
+        Assertions.assertEquals("5.0", value(0, 1));
+        Assertions.assertFalse(tiny.undo());
+    }
+}
@@ -0,0 +1,67 @@
+package org.main;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+
+// Latency of an edit with a column of dependents, without a journal, with one, and with one while waiting for
+// the edit to be on disk as every edit would without group commit.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditJournalBenchmark {
+    private static final int ROWS = 100;
+
+    @Param({"none", "journal", "syncEveryEdit"})
+    private String mode;
+
+    private TableModel tableModel;
+    private EditJournal journal;
+    private Path file;
+    private int edits = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        tableModel = new TableModel(2, ROWS, 0, 0);
+        tableModel.edit(0, 1, "1");
+        for (int row = 0; row < ROWS; row++) {
+            tableModel.edit(row, 2, "A1 + " + row);
+        }
+        if (!mode.equals("none")) {
+            file = Files.createTempFile("edits", ".journal");
+            Files.delete(file);
+            journal = EditJournal.open(file, tableModel);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (journal != null) {
+            journal.close();
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public double edit() throws Exception {
+        tableModel.edit(0, 1, String.valueOf(edits++ % 1000));
+        if (mode.equals("syncEveryEdit")) {
+            journal.sync();
+        }
+        return tableModel.getCell(ROWS - 1, 2).getNumber();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(EditJournalBenchmark.class.getSimpleName()).build()).run();
+    }
+}
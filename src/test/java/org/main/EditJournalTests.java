@@ -0,0 +1,187 @@
+package org.main;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+public class EditJournalTests {
+    @TempDir
+    Path directory;
+
+    private TableModel newTable() {
+        return new TableModel(10, 1000, 0, 0);
+    }
+
+    @Test
+    public void testEditsSinceStartAreReplayed() throws Exception {
+        var path = directory.resolve("sheet.journal");
+        var tableModel = newTable();
+        var journal = EditJournal.open(path, tableModel);
+        tableModel.edit(0, 1, "2");
+        tableModel.edit(1, 1, "A1 * 3");
+        tableModel.edit(2, 1, "SUM(A1:A2)");
+        tableModel.edit(0, 2, "Grüße +");
+        tableModel.edit(0, 1, "5");
+        journal.sync();
+        Assertions.assertEquals(5, journal.getAppendedCount());
+        journal.close();
+
+        var recovered = newTable();
+        try (var replayed = EditJournal.open(path, recovered)) {
+            Assertions.assertEquals(15.0, recovered.getCell(1, 1).getNumber());
+            Assertions.assertEquals(20.0, recovered.getCell(2, 1).getNumber());
+            Assertions.assertEquals("Grüße +", recovered.getCell(0, 2).getValue());
+            Assertions.assertEquals(CellType.TEXT, recovered.getCell(0, 2).getType());
+            Assertions.assertEquals(0, replayed.getAppendedCount(), "Replaying records nothing");
+        }
+    }
+
+    @Test
+    public void testUndoneAndClearedCellsAreReplayed() throws Exception {
+        var path = directory.resolve("sheet.journal");
+        var tableModel = newTable();
+        var history = new EditHistory(tableModel, 1 << 20);
+        try (var journal = EditJournal.open(path, tableModel)) {
+            Assertions.assertSame(journal, tableModel.getJournal());
+            tableModel.edit(0, 1, "1");
+            history.record(0, 1, "", "1");
+            tableModel.edit(0, 1, "2");
+            history.record(0, 1, "1", "2");
+            history.undo();
+            tableModel.edit(3, 3, "A1 + 1");
+            tableModel.edit(3, 3, "");
+        }
+        var recovered = newTable();
+        EditJournal.open(path, recovered).close();
+        Assertions.assertEquals(1.0, recovered.getCell(0, 1).getNumber());
+        Assertions.assertEquals(CellType.EMPTY, recovered.getCell(3, 3).getType());
+    }
+
+    @Test
+    public void testSavingTruncatesAndReplayStartsFromTheSave() throws Exception {
+        var workbookPath = directory.resolve("sheet.stew");
+        var journalPath = directory.resolve("sheet.stew.journal");
+        var tableModel = newTable();
+        tableModel.edit(0, 1, "1");
+        var workbook = WorkbookFile.create(tableModel, workbookPath);
+        var journal = EditJournal.open(journalPath, tableModel);
+        tableModel.edit(1, 1, "A1 + 1");
+        journal.sync();
+        Assertions.assertTrue(Files.size(journalPath) > EditJournal.HEADER_SIZE);
+        workbook.save();
+        Assertions.assertEquals(EditJournal.HEADER_SIZE, Files.size(journalPath));
+        tableModel.edit(0, 1, "10");
+        tableModel.edit(2, 1, "A2 * 2");
+        journal.close();
+        workbook.close();
+
+        try (var reopened = WorkbookFile.open(workbookPath, 0, 0);
+             var replayed = EditJournal.open(journalPath, reopened.getTableModel())) {
+            var recovered = reopened.getTableModel();
+            Assertions.assertEquals(10.0, recovered.getCell(0, 1).getNumber());
+            Assertions.assertEquals(11.0, recovered.getCell(1, 1).getNumber());
+            Assertions.assertEquals(22.0, recovered.getCell(2, 1).getNumber());
+            Assertions.assertSame(replayed, recovered.getJournal());
+        }
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws Exception {
+        var path = directory.resolve("sheet.journal");
+        var tableModel = newTable();
+        try (var journal = EditJournal.open(path, tableModel)) {
+            tableModel.edit(0, 1, "1");
+            tableModel.edit(1, 1, "2");
+            Assertions.assertEquals(2, journal.getAppendedCount());
+        }
+        long intact = Files.size(path);
+        try (var channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(intact - 1); // The second record was cut short by a crash
+        }
+        var recovered = newTable();
+        try (var journal = EditJournal.open(path, recovered)) {
+            Assertions.assertEquals(1.0, recovered.getCell(0, 1).getNumber());
+            Assertions.assertEquals(CellType.EMPTY, recovered.getCell(1, 1).getType());
+            recovered.edit(2, 1, "3");
+            Assertions.assertEquals(1, journal.getAppendedCount());
+        }
+        var again = newTable();
+        EditJournal.open(path, again).close();
+        Assertions.assertEquals(1.0, again.getCell(0, 1).getNumber());
+        Assertions.assertEquals(3.0, again.getCell(2, 1).getNumber(), "Records after the torn one are readable");
+    }
+
+    @Test
+    public void testCorruptedRecordStopsTheReplay() throws Exception {
+        var path = directory.resolve("sheet.journal");
+        var tableModel = newTable();
+        try (var journal = EditJournal.open(path, tableModel)) {
+            tableModel.edit(0, 1, "1");
+            tableModel.edit(1, 1, "2");
+            tableModel.edit(2, 1, "3");
+            Assertions.assertEquals(3, journal.getAppendedCount());
+        }
+        var bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 1] ^= 1; // Last record, "3"
+        Files.write(path, bytes);
+        var recovered = newTable();
+        EditJournal.open(path, recovered).close();
+        Assertions.assertEquals(2.0, recovered.getCell(1, 1).getNumber());
+        Assertions.assertEquals(CellType.EMPTY, recovered.getCell(2, 1).getType());
+    }
+
+    @Test
+    public void testBulkWritesAreRecordedAtOnce() throws Exception {
+        var path = directory.resolve("sheet.journal");
+        var tableModel = newTable();
+        try (var journal = EditJournal.open(path, tableModel)) {
+            var text = new StringBuilder();
+            for (int row = 0; row < 500; row++) {
+                text.append(row).append(",A").append(row + 1).append(" * 2,Label\n");
+            }
+            tableModel.startWrites();
+            tableModel.write(0, 5, "1");
+            Assertions.assertEquals(0, journal.getAppendedCount(), "Nothing is recorded while the bulk write runs");
+            tableModel.finishWrites();
+            Assertions.assertEquals(1, journal.getAppendedCount());
+            new DelimitedImporter(tableModel, ',').importFrom(Channels.newChannel(new ByteArrayInputStream(text.toString().getBytes(StandardCharsets.UTF_8))));
+            Assertions.assertEquals(1 + 500 * 3, journal.getAppendedCount());
+        }
+        var recovered = newTable();
+        EditJournal.open(path, recovered).close();
+        Assertions.assertEquals(998.0, recovered.getCell(499, 2).getNumber());
+        Assertions.assertEquals("Label", recovered.getCell(499, 3).getParsedValue());
+        Assertions.assertEquals(1.0, recovered.getCell(0, 5).getNumber());
+    }
+
+    @Test
+    public void testFsyncsAreShared() throws Exception {
+        var path = directory.resolve("sheet.journal");
+        var tableModel = newTable();
+        try (var journal = EditJournal.open(path, tableModel)) {
+            for (int i = 0; i < 100_000; i++) {
+                journal.append(i % 1000, 1 + i % 10, String.valueOf(i));
+            }
+            journal.sync();
+            Assertions.assertEquals(100_000, journal.getAppendedCount());
+            Assertions.assertTrue(journal.getSyncCount() < 100_000 / 10, journal.getSyncCount() + " syncs");
+        }
+    }
+
+    @Test
+    public void testOtherFilesAreRejected() throws IOException {
+        var other = directory.resolve("other.csv");
+        Files.writeString(other, "1,2,3\n".repeat(20));
+        Assertions.assertThrows(IOException.class, () -> EditJournal.open(other, newTable()));
+    }
+}
@@ -0,0 +1,75 @@
+package org.main;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+
+public class IntervalTreeTests {
+    private static Set<String> stab(IntervalTree<String> tree, int point) {
+        var result = new HashSet<String>();
+        tree.stab(point, result::add);
+        return result;
+    }
+
+    @Test
+    public void testStab() {
+        var tree = new IntervalTree<String>();
+        tree.insert(0, 9, "a");
+        tree.insert(5, 5, "b");
+        tree.insert(8, 20, "c");
+
+        Assertions.assertEquals(Set.of("a"), stab(tree, 0));
+        Assertions.assertEquals(Set.of("a", "b"), stab(tree, 5));
+        Assertions.assertEquals(Set.of("a", "c"), stab(tree, 9));
+        Assertions.assertEquals(Set.of("c"), stab(tree, 20));
+        Assertions.assertEquals(Set.of(), stab(tree, 21));
+    }
+
+    @Test
+    public void testRemoveOnlyTheGivenInterval() {
+        var tree = new IntervalTree<String>();
+        long first = tree.insert(1, 4, "same");
+        tree.insert(1, 4, "same");
+
+        Assertions.assertTrue(tree.remove(1, 4, first));
+        Assertions.assertFalse(tree.remove(1, 4, first));
+        Assertions.assertEquals(1, tree.size());
+        Assertions.assertEquals(Set.of("same"), stab(tree, 2));
+    }
+
+    @Test
+    public void testRandomIntervalsMatchLinearScan() {
+        var random = new Random(7);
+        var tree = new IntervalTree<String>();
+        var intervals = new ArrayList<int[]>();
+        var ids = new ArrayList<Long>();
+        for (int i = 0; i < 2000; i++) {
+            int low = random.nextInt(10_000);
+            int high = low + random.nextInt(500);
+            intervals.add(new int[]{low, high, i});
+            ids.add(tree.insert(low, high, String.valueOf(i)));
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            var interval = intervals.get(i);
+            Assertions.assertTrue(tree.remove(interval[0], interval[1], ids.get(i)));
+            intervals.set(i, null);
+        }
+
+        for (int point = 0; point < 10_500; point += 37) {
+            List<String> expected = new ArrayList<>();
+            for (var interval : intervals) {
+                if (interval != null && interval[0] <= point && point <= interval[1]) {
+                    expected.add(String.valueOf(interval[2]));
+                }
+            }
+            Assertions.assertEquals(new HashSet<>(expected), stab(tree, point));
+        }
+        Assertions.assertEquals(1500, tree.size());
+    }
+}
@@ -0,0 +1,63 @@
+package org.main;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+
+// Scaling of the parallel recalculation mode: one input cell feeding two wide levels of independent formulas.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelRecalculationBenchmark {
+    @Param({"1", "2", "4", "8", "16"})
+    private int threads;
+
+    @Param({"20000"})
+    private int rows;
+
+    private ForkJoinPool pool;
+    private RecalculationEngine engine;
+    private Cell root;
+
+    @Setup
+    public void setUp() {
+        var tableModel = new TableModel(3, rows, 0, 0);
+        root = tableModel.getCell(0, 1);
+        root.setValue("3");
+        root.parse();
+        for (int i = 1; i <= rows; i++) {
+            var first = tableModel.getCell(i - 1, 2);
+            first.setValue("SQRT(A1 * " + i + ") + SIN(A1) * COS(A1) + LOG(A1 + " + i + ")");
+            first.parse();
+            var second = tableModel.getCell(i - 1, 3);
+            second.setValue("POW(B" + i + ", 2) / EXP(A1) + TAN(B" + i + ")");
+            second.parse();
+        }
+        pool = new ForkJoinPool(threads);
+        engine = tableModel.getRecalculationEngine();
+        engine.setMode(RecalculationEngine.Mode.PARALLEL);
+        engine.setPool(pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int recalculate() {
+        return engine.recalculate(root);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ParallelRecalculationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
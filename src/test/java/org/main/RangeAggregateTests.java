@@ -0,0 +1,96 @@
+package org.main;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+
+public class RangeAggregateTests {
+    private final TableModel tableModel = new TableModel(3, 10, 0, 0);
+
+    private RangeAggregate aggregateOfColumnA() {
+        var range = new CellRange(0, 1, 9, 1);
+        tableModel.getRangeAggregates().acquire(range);
+        return tableModel.getRangeAggregates().get(range);
+    }
+
+    private void enter(int row, String value) {
+        var cell = tableModel.getCell(row, 1);
+        cell.setValue(value);
+        cell.parse();
+    }
+
+    @Test
+    public void testValuesFollowEdits() {
+        enter(0, "5");
+        var aggregate = aggregateOfColumnA();
+        enter(1, "-2");
+        enter(2, "7");
+        Assertions.assertEquals(3, aggregate.getCount());
+        Assertions.assertEquals(10, aggregate.getSum());
+        Assertions.assertEquals(-2, aggregate.getMin());
+        Assertions.assertEquals(7, aggregate.getMax());
+
+        enter(2, "");
+        enter(1, "1");
+        Assertions.assertEquals(2, aggregate.getCount());
+        Assertions.assertEquals(6, aggregate.getSum());
+        Assertions.assertEquals(1, aggregate.getMin());
+        Assertions.assertEquals(5, aggregate.getMax());
+    }
+
+    @Test
+    public void testInfinityDoesNotLeaveNaN() {
+        var aggregate = aggregateOfColumnA();
+        enter(0, "1");
+        enter(1, "1 / 0");
+        Assertions.assertEquals(Double.POSITIVE_INFINITY, aggregate.getSum());
+        enter(2, "-1 / 0");
+        Assertions.assertTrue(Double.isNaN(aggregate.getSum()));
+        enter(1, "2");
+        enter(2, "3");
+        Assertions.assertEquals(6, aggregate.getSum());
+    }
+
+    @Test
+    public void testDeltasKeepTheSumExact() {
+        var aggregate = aggregateOfColumnA();
+        enter(0, "0.1");
+        for (int i = 0; i < 1000; i++) {
+            enter(1, String.valueOf(1e16 + i));
+            enter(1, "0.2");
+        }
+        Assertions.assertEquals(0.1 + 0.2, aggregate.getSum());
+    }
+
+    @Test
+    public void testErrorInRange() {
+        var aggregate = aggregateOfColumnA();
+        enter(0, "1 +");
+        Assertions.assertThrows(IllegalArgumentException.class, aggregate::getSum);
+        enter(0, "1");
+        Assertions.assertEquals(1, aggregate.getSum());
+    }
+
+    @Test
+    public void testHeaderRowIsSkipped() {
+        var loaded = new TableModel(3, 10, 0, 0);
+        loaded.load(0, 1, List.of(new String[] {"Amount", "Net sales"}, new String[] {"5", "2"},
+                new String[] {"7", "4"}, new String[] {"SUM(A1:A3)", "AVERAGE(B1:B3)"}));
+        Assertions.assertEquals(12.0, loaded.getCell(3, 1).getNumber());
+        Assertions.assertEquals(3.0, loaded.getCell(3, 2).getNumber());
+
+        enter(0, "Total");
+        enter(1, "5");
+        var sum = tableModel.getCell(9, 2);
+        sum.setValue("SUM(A1:A9)");
+        sum.parse();
+        Assertions.assertEquals(5.0, sum.getNumber());
+        enter(2, "MIN(A1:A2) + MAX(A1:A2)");
+        Assertions.assertEquals(10.0, tableModel.getCell(2, 1).getNumber());
+        enter(0, "Grand total");
+        Assertions.assertEquals(15.0, sum.getNumber(), "Replacing a label with a label changes nothing in the range");
+        Assertions.assertEquals(2, aggregateOfColumnA().getCount());
+    }
+}
@@ -0,0 +1,410 @@
+package org.main;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+public class RecalculationEngineTests {
+    private TableModel tableModel;
+    private Map<Cell, Integer> evaluations;
+    private Set<Thread> notifyingThreads;
+
+    @BeforeEach
+    public void setUp() {
+        evaluations = new HashMap<>();
+        notifyingThreads = new HashSet<>();
+        tableModel = new TableModel(10, 1000, 0, 0) {
+            @Override
+            public void handleCellUpdate(Cell cell) {
+                evaluations.merge(cell, 1, Integer::sum);
+                notifyingThreads.add(Thread.currentThread());
+            }
+        };
+    }
+
+    private Cell enter(int row, int column, String value) {
+        var cell = tableModel.getCell(row, column);
+        cell.setValue(value);
+        cell.parse();
+        return cell;
+    }
+
+    private int edit(Cell cell, String value) {
+        cell.setValue(value);
+        evaluations.clear();
+        return tableModel.getRecalculationEngine().recalculate(cell);
+    }
+
+    private void assertEvaluatedOnce() {
+        for (var count : evaluations.values()) {
+            Assertions.assertEquals(1, count, "Every affected cell should be evaluated exactly once");
+        }
+    }
+
+    @Test
+    public void testChain() {
+        var root = enter(0, 1, "1");
+        for (int i = 1; i < 20; i++) {
+            enter(i, 1, "A" + i + " + 1");
+        }
+
+        Assertions.assertEquals(20, edit(root, "5"));
+        Assertions.assertEquals(20, evaluations.size());
+        assertEvaluatedOnce();
+        Assertions.assertEquals("24.0", tableModel.getCell(19, 1).getParsedValue());
+    }
+
+    @Test
+    public void testDiamond() {
+        var root = enter(0, 1, "1");
+        enter(0, 2, "A1 * 2");
+        enter(0, 3, "A1 * 3");
+        var sink = enter(0, 4, "B1 + C1");
+
+        Assertions.assertEquals(4, edit(root, "2"));
+        assertEvaluatedOnce();
+        Assertions.assertEquals("10.0", sink.getParsedValue());
+    }
+
+    @Test
+    public void testStackedDiamonds() {
+        // Every layer doubles the number of paths from the root, the cascade must stay linear
+        var root = enter(0, 1, "1");
+        enter(0, 2, "1");
+        for (int i = 1; i < 15; i++) {
+            enter(i, 1, "A" + i + " + B" + i);
+            enter(i, 2, "A" + i + " - B" + i);
+        }
+
+        Assertions.assertEquals(29, edit(root, "2"));
+        Assertions.assertEquals(29, evaluations.size());
+        assertEvaluatedOnce();
+    }
+
+    @Test
+    public void testFanOut() {
+        var root = enter(0, 1, "1");
+        for (int i = 1; i < 10; i++) {
+            enter(0, i + 1, "A1 * " + i);
+        }
+
+        Assertions.assertEquals(10, edit(root, "3"));
+        Assertions.assertEquals(10, evaluations.size());
+        assertEvaluatedOnce();
+        Assertions.assertEquals("27.0", tableModel.getCell(0, 10).getParsedValue());
+    }
+
+    @Test
+    public void testUnrelatedCellsAreNotEvaluated() {
+        var root = enter(0, 1, "1");
+        enter(1, 1, "A1");
+        var unrelated = enter(0, 2, "7");
+
+        Assertions.assertEquals(2, edit(root, "4"));
+        Assertions.assertFalse(evaluations.containsKey(unrelated));
+    }
+
+    @Test
+    public void testFormulaIsCompiledOnce() {
+        var root = enter(0, 1, "1");
+        var dependent = enter(1, 1, "A1 + 1");
+        var expr = dependent.getCompiledExpr();
+
+        edit(root, "2");
+        edit(root, "3");
+        Assertions.assertSame(expr, dependent.getCompiledExpr());
+        Assertions.assertEquals("4.0", dependent.getParsedValue());
+
+        edit(dependent, "A1 * 2");
+        Assertions.assertNotSame(expr, dependent.getCompiledExpr());
+        Assertions.assertEquals("6.0", dependent.getParsedValue());
+    }
+
+    @Test
+    public void testReplacedFormulaDropsOldReferences() {
+        var first = enter(0, 1, "1");
+        var second = enter(0, 2, "A1");
+        edit(second, "5");
+
+        Assertions.assertEquals(1, edit(first, "B1"));
+        Assertions.assertEquals("5.0", first.getParsedValue());
+    }
+
+    @Test
+    public void testCycleIsRejected() {
+        var first = enter(0, 1, "10");
+        var second = enter(1, 1, "A1");
+        edit(first, "A2");
+
+        Assertions.assertEquals("A2", first.getParsedValue());
+        Assertions.assertEquals("A1", second.getParsedValue());
+        Assertions.assertTrue(tableModel.getCellDependencyGraph().getAllDependents(second).isEmpty());
+    }
+
+    @Test
+    public void testRangeFormulaFollowsEditsInsideTheRange() {
+        var sum = enter(0, 3, "SUM(A1:B100)");
+        Assertions.assertEquals("0.0", sum.getParsedValue());
+        var first = enter(4, 1, "2");
+        Assertions.assertEquals("2.0", sum.getParsedValue());
+        enter(99, 2, "A5 * 10");
+        Assertions.assertEquals("22.0", sum.getParsedValue());
+
+        // Both B100 and the sum read A5, the sum has to come last
+        Assertions.assertEquals(3, edit(first, "3"));
+        Assertions.assertEquals("33.0", sum.getParsedValue());
+        assertEvaluatedOnce();
+
+        // Cells outside the range do not trigger the sum
+        Assertions.assertEquals(1, edit(tableModel.getCell(100, 1), "5"));
+    }
+
+    @Test
+    public void testRangeSkipsTextAndEmptyCells() {
+        enter(0, 1, "4");
+        tableModel.setCellParsedValue(1, 1, "text");
+        enter(3, 1, "8");
+        var average = enter(0, 2, "AVERAGE(A1:A10)");
+        Assertions.assertEquals("6.0", average.getParsedValue());
+        Assertions.assertEquals("4.0", enter(1, 2, "MIN(A1:A10)").getParsedValue());
+        Assertions.assertEquals(CellError.VALUE, enter(2, 2, "A1:A10 + 1").getError());
+    }
+
+    @Test
+    public void testRangeCycleIsRejected() {
+        var inside = enter(0, 3, "SUM(C1:C3)");
+        Assertions.assertEquals(CellError.CYCLE, inside.getError());
+
+        var sum = enter(0, 2, "SUM(A1:A10)");
+        var reader = enter(5, 1, "B1 + 1");
+        Assertions.assertEquals(CellError.CYCLE, reader.getError());
+        Assertions.assertEquals(CellError.VALUE, sum.getError()); // Errors inside a range propagate
+    }
+
+    @Test
+    public void testRangeIsRegisteredOncePerColumn() {
+        for (int row = 0; row < 1000; row++) {
+            enter(row, 1, String.valueOf(row));
+        }
+        for (int row = 0; row < 50; row++) {
+            Assertions.assertEquals("499500.0", enter(row, 3, "SUM(A1:A1000)").getParsedValue());
+        }
+        Assertions.assertEquals(50, tableModel.getCellDependencyGraph().getDependents(tableModel.getCell(500, 1)).size());
+        Assertions.assertEquals(51, edit(tableModel.getCell(999, 1), "0"));
+        Assertions.assertEquals("498501.0", tableModel.getCell(49, 3).getParsedValue());
+    }
+
+    @Test
+    public void testAggregatesMatchRescanAfterEdits() {
+        var random = new Random(11);
+        var sum = enter(0, 3, "SUM(A1:B500)");
+        var average = enter(1, 3, "AVERAGE(A1:B500)");
+        var min = enter(2, 3, "MIN(A1:B500)");
+        var max = enter(3, 3, "MAX(A1:B500, -1000)");
+        for (int i = 0; i < 2000; i++) {
+            int row = random.nextInt(500);
+            int column = 1 + random.nextInt(2);
+            var value = random.nextInt(5) == 0 ? "" : String.valueOf(random.nextInt(2001) - 1000);
+            enter(row, column, value);
+        }
+        double total = 0;
+        int count = 0;
+        double lowest = Double.POSITIVE_INFINITY;
+        double highest = -1000;
+        for (int row = 0; row < 500; row++) {
+            for (int column = 1; column <= 2; column++) {
+                var cell = tableModel.getCell(row, column);
+                if (cell.getType() == CellType.NUMBER) {
+                    total += cell.getNumber();
+                    count++;
+                    lowest = Math.min(lowest, cell.getNumber());
+                    highest = Math.max(highest, cell.getNumber());
+                }
+            }
+        }
+        Assertions.assertEquals(total, sum.getNumber());
+        Assertions.assertEquals(total / count, average.getNumber(), 1e-9);
+        Assertions.assertEquals(lowest, min.getNumber());
+        Assertions.assertEquals(highest, max.getNumber());
+    }
+
+    @Test
+    public void testAggregateIsSharedAndReleased() {
+        var first = enter(0, 3, "SUM(A1:A100)");
+        var second = enter(1, 3, "MAX(A1:A100) + SUM(A1:A100)");
+        Assertions.assertEquals(1, tableModel.getRangeAggregates().size());
+        edit(first, "1");
+        Assertions.assertEquals(1, tableModel.getRangeAggregates().size());
+        edit(second, "2");
+        Assertions.assertEquals(0, tableModel.getRangeAggregates().size());
+    }
+
+    private Cell enterWideSheet(int rows) {
+        var root = enter(0, 1, "2");
+        for (int i = 1; i <= rows; i++) {
+            enter(i - 1, 2, "A1 * " + i + " + SQRT(" + i + ")");
+            enter(i - 1, 3, "B" + i + " / 3 + B" + (rows + 1 - i));
+            enter(i - 1, 4, "C" + i + " - A1 * B" + i);
+        }
+        enter(0, 5, "SUM(D1, D" + rows + ", C" + (rows / 2) + ")");
+        return root;
+    }
+
+    private double[] values(int rows) {
+        var values = new double[rows * 3 + 1];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < 3; j++) {
+                values[i * 3 + j] = tableModel.getCell(i, j + 2).getNumber();
+            }
+        }
+        values[rows * 3] = tableModel.getCell(0, 5).getNumber();
+        return values;
+    }
+
+    @Test
+    public void testParallelMatchesSerial() {
+        int rows = 2 * RecalculationEngine.PARALLEL_THRESHOLD;
+        var root = enterWideSheet(rows);
+        var engine = tableModel.getRecalculationEngine();
+
+        edit(root, "7");
+        var serial = values(rows);
+
+        engine.setMode(RecalculationEngine.Mode.PARALLEL);
+        engine.setPool(new ForkJoinPool(4));
+        edit(root, "2");
+        notifyingThreads.clear();
+        Assertions.assertEquals(rows * 3 + 2, edit(root, "7"));
+        assertEvaluatedOnce();
+
+        Assertions.assertArrayEquals(serial, values(rows));
+        Assertions.assertEquals(Set.of(Thread.currentThread()), notifyingThreads, "Listeners should only be notified from the editing thread");
+    }
+
+    @Test
+    public void testLoadCompilesInParallelAndEvaluatesEveryCell() {
+        var engine = tableModel.getRecalculationEngine();
+        var parsingThreads = ConcurrentHashMap.<Thread>newKeySet();
+        engine.setPool(new ForkJoinPool(4, pool -> {
+            var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            parsingThreads.add(thread);
+            return thread;
+        }, null, false));
+        var rows = new ArrayList<String[]>();
+        for (int row = 0; row < 1000; row++) {
+            // Every formula of the first column differs, the second column is filled down
+            rows.add(new String[] {String.valueOf(row), row == 0 ? "A1" : "B" + row + " + A" + (row + 1), "B" + (row + 1) + " * 2", ""});
+        }
+        tableModel.load(0, 1, rows);
+
+        for (int row = 0; row < 1000; row++) {
+            double runningSum = row * (row + 1) / 2.0;
+            Assertions.assertEquals(runningSum, tableModel.getCell(row, 2).getNumber());
+            Assertions.assertEquals(2 * runningSum, tableModel.getCell(row, 3).getNumber());
+        }
+        Assertions.assertNull(tableModel.findCell(0, 4), "Empty values do not store cells");
+        Assertions.assertFalse(parsingThreads.isEmpty(), "A large load is parsed on the pool");
+        Assertions.assertEquals(Set.of(Thread.currentThread()), notifyingThreads, "Listeners should only be notified from the loading thread");
+    }
+
+    @Test
+    public void testFailedFormulasAreNotCompiledAgainOnThePool() {
+        var graphUsedOnPool = new AtomicBoolean();
+        tableModel = new TableModel(3, 1000, 0, 0) {
+            @Override
+            public CellDependencyGraph getCellDependencyGraph() {
+                if (Thread.currentThread() instanceof ForkJoinWorkerThread) {
+                    graphUsedOnPool.set(true);
+                }
+                return super.getCellDependencyGraph();
+            }
+        };
+        var engine = tableModel.getRecalculationEngine();
+        engine.setMode(RecalculationEngine.Mode.PARALLEL);
+        engine.setPool(new ForkJoinPool(4));
+        var rows = new ArrayList<String[]>();
+        for (int row = 0; row < 1000; row++) {
+            rows.add(new String[] {"Label " + row, "A" + (row + 1) + " *", "C" + (row + 1)});
+        }
+        tableModel.load(0, 1, rows);
+
+        Assertions.assertEquals(CellType.TEXT, tableModel.getCell(500, 1).getType());
+        Assertions.assertEquals(CellError.PARSE, tableModel.getCell(500, 2).getError());
+        Assertions.assertEquals(CellError.CYCLE, tableModel.getCell(500, 3).getError());
+        Assertions.assertFalse(graphUsedOnPool.get(), "Evaluating a failed formula must not compile it again on the pool");
+        tableModel.edit(500, 2, "2");
+        Assertions.assertEquals(2.0, tableModel.getCell(500, 2).getNumber(), "A new formula is compiled again");
+    }
+
+    @Test
+    public void testParallelRecompilesRestoredFormulas() {
+        int rows = RecalculationEngine.PARALLEL_THRESHOLD;
+        var root = enterWideSheet(rows);
+        var history = new EditHistory(tableModel, 1 << 20);
+        edit(root, "5");
+        history.record(0, 1, "2", "5");
+        var expected = values(rows);
+
+        history.undo();
+        tableModel.getRecalculationEngine().setMode(RecalculationEngine.Mode.PARALLEL);
+        edit(tableModel.getCell(0, 1), "5");
+        Assertions.assertArrayEquals(expected, values(rows));
+    }
+
+    @Test
+    public void testCancelledPassDefersRemainingCells() {
+        var root = enter(0, 1, "1");
+        for (int i = 1; i < 200; i++) {
+            enter(i, 1, "A" + i + " + 1");
+        }
+        var engine = tableModel.getRecalculationEngine();
+        var checks = new int[1];
+        engine.setCancellation(() -> ++checks[0] > 1); // The first check passes, the second cancels
+
+        int evaluated = edit(root, "5");
+        Assertions.assertTrue(evaluated < 200);
+        Assertions.assertTrue(engine.hasDeferred());
+        Assertions.assertFalse(tableModel.getCell(1, 1).isPending());
+        Assertions.assertTrue(tableModel.getCell(199, 1).isPending());
+        Assertions.assertEquals("200.0", tableModel.getCell(199, 1).getParsedValue(), "Still the old value");
+
+        engine.setCancellation(() -> false);
+        Assertions.assertEquals(200 - evaluated, engine.recalculateDeferred());
+        Assertions.assertFalse(engine.hasDeferred());
+        Assertions.assertFalse(tableModel.getCell(199, 1).isPending());
+        Assertions.assertEquals("204.0", tableModel.getCell(199, 1).getParsedValue());
+    }
+
+    @Test
+    public void testNextPassTakesOverDeferredCells() {
+        var root = enter(0, 1, "1");
+        for (int i = 1; i < 200; i++) {
+            enter(i, 1, "A" + i + " + 1");
+        }
+        var other = enter(0, 5, "1");
+        var reader = enter(1, 5, "E1 * 2");
+        var engine = tableModel.getRecalculationEngine();
+        var checks = new int[1];
+        engine.setCancellation(() -> ++checks[0] > 1);
+        edit(root, "5");
+        engine.setCancellation(() -> false);
+
+        edit(other, "3");
+        Assertions.assertFalse(engine.hasDeferred());
+        Assertions.assertEquals("6.0", reader.getParsedValue());
+        Assertions.assertEquals("204.0", tableModel.getCell(199, 1).getParsedValue());
+        assertEvaluatedOnce();
+    }
+}
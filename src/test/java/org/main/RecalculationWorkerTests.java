@@ -0,0 +1,113 @@
+package org.main;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+public class RecalculationWorkerTests {
+    private static final int ROWS = 20_000;
+
+    private TableModel tableModel;
+    private RecalculationWorker worker;
+    private final List<Boolean> finishedPasses = Collections.synchronizedList(new ArrayList<>());
+    private final Thread testThread = Thread.currentThread();
+    private CountDownLatch backgroundGate = new CountDownLatch(0); // Holds passes on the background thread back
+
+    @BeforeEach
+    public void setUp() {
+        tableModel = new TableModel(3, ROWS, 0, 0);
+        worker = new RecalculationWorker(tableModel);
+        worker.setPassListener(new RecalculationWorker.PassListener() {
+            @Override
+            public void passStarted() {
+                if (Thread.currentThread() != testThread) {
+                    try {
+                        backgroundGate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void passFinished(boolean consistent) {
+                finishedPasses.add(consistent);
+            }
+        });
+    }
+
+    @AfterEach
+    public void tearDown() {
+        worker.shutdown();
+    }
+
+    private void enterChain() {
+        tableModel.edit(0, 1, "1");
+        for (int row = 1; row < ROWS; row++) {
+            tableModel.edit(row, 1, "A" + row + " + 1");
+        }
+    }
+
+    private void assertChain(double root) {
+        for (int row = 0; row < ROWS; row++) {
+            var cell = tableModel.getCell(row, 1);
+            Assertions.assertFalse(cell.isPending());
+            Assertions.assertEquals(String.valueOf(root + row), cell.getParsedValue());
+        }
+    }
+
+    @Test
+    public void testShortEditRunsInline() throws Exception {
+        tableModel.edit(0, 1, "1");
+        tableModel.edit(1, 1, "A1 * 2");
+        worker.setInlineBudgetNanos(TimeUnit.MINUTES.toNanos(1)); // However slow the machine
+
+        worker.submit(() -> tableModel.edit(0, 1, "4"));
+        Assertions.assertEquals("8.0", tableModel.getCell(1, 1).getParsedValue(), "Applied before submit returns");
+        Assertions.assertTrue(worker.awaitIdle(1, TimeUnit.SECONDS));
+        Assertions.assertEquals(List.of(true), finishedPasses);
+        Assertions.assertFalse(tableModel.getRecalculationEngine().hasDeferred());
+    }
+
+    @Test
+    public void testLongPassFinishesInBackground() throws Exception {
+        enterChain();
+
+        long version = worker.submit(() -> tableModel.edit(0, 1, "7"));
+        Assertions.assertEquals(1, version);
+        Assertions.assertTrue(worker.awaitIdle(10, TimeUnit.SECONDS));
+        assertChain(7);
+        Assertions.assertTrue(finishedPasses.get(finishedPasses.size() - 1), "The last pass leaves the table consistent");
+    }
+
+    @Test
+    public void testNewerEditCancelsRunningPass() throws Exception {
+        enterChain();
+        worker.setInlineBudgetNanos(0); // The first change leaves its pass to the background thread,
+        backgroundGate = new CountDownLatch(1); // which waits until the newer changes are queued
+
+        for (int i = 2; i <= 10; i++) {
+            int root = i;
+            worker.submit(() -> tableModel.edit(0, 1, String.valueOf(root)));
+        }
+        Assertions.assertEquals(9, worker.getLatestVersion());
+        backgroundGate.countDown();
+        Assertions.assertTrue(worker.awaitIdle(10, TimeUnit.SECONDS));
+        assertChain(10);
+        Assertions.assertFalse(tableModel.getRecalculationEngine().hasDeferred());
+
+        // The inline part and the background rest of the first pass, and the passes of the next seven changes,
+        // were each cancelled by a newer change. Only the last one finished.
+        var expected = new ArrayList<>(Collections.nCopies(9, false));
+        expected.add(true);
+        Assertions.assertEquals(expected, finishedPasses);
+    }
+}
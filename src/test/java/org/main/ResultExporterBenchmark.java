@@ -0,0 +1,79 @@
+package org.main;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+
+// Time to export the values of the sheet DelimitedImporterBenchmark imports, as CSV and binary, against writing
+// the same CSV through a Writer with one String per value.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultExporterBenchmark {
+    @Param({"100000"})
+    private int rows;
+
+    private TableModel tableModel;
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        var text = new StringBuilder();
+        for (int row = 1; row <= rows; row++) {
+            text.append(row).append(',').append(row * 0.25).append(",\"label ").append(row % 97).append("\",A")
+                    .append(row).append(" * B").append(row).append(" / 3\n");
+        }
+        file = Files.createTempFile("export", ".csv");
+        Files.writeString(file, text);
+        tableModel = new TableModel(4, rows, 0, 0);
+        DelimitedImporter.forFile(tableModel, file).importFile(file);
+        for (int row = 0; row < rows; row++) {
+            tableModel.setCellParsedValue(row, 3, "label " + row % 97);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public long csv() throws IOException {
+        return new ResultExporter(tableModel, ResultExporter.Format.CSV).exportFile(file);
+    }
+
+    @Benchmark
+    public long binary() throws IOException {
+        return new ResultExporter(tableModel, ResultExporter.Format.BINARY).exportFile(file);
+    }
+
+    @Benchmark
+    public long csvWithStrings() throws IOException {
+        try (var writer = Files.newBufferedWriter(file)) {
+            for (int row = 0; row < rows; row++) {
+                for (int column = 1; column <= tableModel.getWidth(); column++) {
+                    if (column > 1) {
+                        writer.write(',');
+                    }
+                    writer.write(tableModel.getCell(row, column).getParsedValue());
+                }
+                writer.write('\n');
+            }
+        }
+        return rows;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ResultExporterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,179 @@
+package org.main;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+public class ResultExporterTests {
+    @TempDir
+    Path directory;
+    private TableModel tableModel;
+
+    @BeforeEach
+    public void setUp() {
+        tableModel = new TableModel(20, 2000, 0, 0);
+    }
+
+    private String export(ResultExporter.Format format) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        new ResultExporter(tableModel, format).exportTo(Channels.newChannel(bytes));
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String format(double value) {
+        var bytes = new byte[ResultExporter.MAX_NUMBER_LENGTH];
+        return new String(bytes, 0, ResultExporter.putNumber(value, bytes, 0), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testNumbersParseBackExactly() {
+        var random = new Random(42);
+        var values = new ArrayList<>(List.of(0.0, -0.0, 1.0, -1.0, 0.1, 0.25, 1e-7, 123456789.125,
+                9007199254740991.0, 9007199254740993.0, 1e22, Double.MIN_VALUE, Double.MAX_VALUE, Math.PI, 2.0 / 3,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN));
+        for (int i = 0; i < 100_000; i++) {
+            values.add(Double.longBitsToDouble(random.nextLong()));
+            values.add(random.nextInt(1_000_000) / 100.0);
+            values.add(random.nextDouble() * Math.pow(10, random.nextInt(30) - 10));
+        }
+        for (double value : values) {
+            var text = format(value);
+            Assertions.assertEquals(Double.doubleToLongBits(value), Double.doubleToLongBits(Double.parseDouble(text)), text);
+        }
+        Assertions.assertEquals("0", format(0.0));
+        Assertions.assertEquals("-0", format(-0.0));
+        Assertions.assertEquals("0.1", format(0.1));
+        Assertions.assertEquals("-2.5", format(-2.5));
+        Assertions.assertEquals("1000000", format(1e6));
+        Assertions.assertEquals("0.0000001", format(1e-7));
+        Assertions.assertEquals("0.6666666666666666", format(2.0 / 3));
+        Assertions.assertEquals("NaN", format(-Double.NaN));
+        Assertions.assertEquals("-Infinity", format(Double.NEGATIVE_INFINITY));
+        Assertions.assertEquals("10000000000000000000000", format(1e22));
+        Assertions.assertEquals("0.00000000000000000001", format(1e-20));
+        Assertions.assertEquals("0.000001234", format(1.234e-6));
+        Assertions.assertTrue(format(Double.MIN_VALUE).length() <= ResultExporter.MAX_NUMBER_LENGTH);
+        Assertions.assertTrue(format(-Double.MAX_VALUE).length() <= ResultExporter.MAX_NUMBER_LENGTH);
+    }
+
+    @Test
+    public void testCsvKeepsPositionsAndQuotesText() throws IOException {
+        tableModel.edit(0, 1, "1");
+        tableModel.edit(0, 3, "0.5");
+        tableModel.edit(1, 4, "1 +");
+        tableModel.edit(2, 2, "A1 / 4");
+        tableModel.setCellParsedValue(5, 1, "a,\"b\"\tc");
+        tableModel.setCellParsedValue(5, 2, "Grüße 😀");
+        tableModel.getOrCreateCell(7, 7); // Stored but empty
+        Assertions.assertEquals("1,,0.5\n,,,#PARSE\n,0.25\n\n\n\"a,\"\"b\"\"\tc\",Grüße 😀\n",
+                export(ResultExporter.Format.CSV));
+        Assertions.assertEquals("1\t\t0.5\n\t\t\t#PARSE\n\t0.25\n\n\na,\"b\" c\tGrüße 😀\n",
+                export(ResultExporter.Format.TSV));
+    }
+
+    @Test
+    public void testCsvImportsBackToTheSameValues() throws IOException {
+        var rows = new ArrayList<String[]>();
+        for (int row = 0; row < tableModel.getHeight(); row++) {
+            var values = new String[tableModel.getWidth()];
+            for (int column = 0; column < values.length; column++) {
+                values[column] = row % 7 == 3 || column % 5 == 4 ? "" : column == 0 ? String.valueOf(row * 0.1)
+                        : "SIN(A" + (row + 1) + " * " + column + ") / " + (row + 1);
+            }
+            rows.add(values);
+        }
+        tableModel.load(0, 1, rows);
+        var file = directory.resolve("values.csv");
+        long count = ResultExporter.forFile(tableModel, file).exportFile(file);
+        Assertions.assertEquals(tableModel.getCellCount(), count);
+
+        var imported = new TableModel(tableModel.getWidth(), tableModel.getHeight(), 0, 0);
+        DelimitedImporter.forFile(imported, file).importFile(file);
+        Assertions.assertEquals(count, imported.getCellCount());
+        tableModel.forEachCell(cell -> Assertions.assertEquals(cell.getNumber(),
+                imported.getCell(cell.getRow(), cell.getColumn()).getNumber(), cell.getValue()));
+    }
+
+    @Test
+    public void testLabelsAndErrorsImportBack() throws IOException {
+        tableModel.edit(0, 1, "Item");
+        tableModel.edit(0, 2, "Total");
+        tableModel.edit(1, 1, "Rent");
+        tableModel.edit(1, 2, "SUM(B1:B1) + 800");
+        tableModel.edit(2, 1, "A3");
+        tableModel.edit(2, 2, "A2 * 2");
+        tableModel.edit(2, 3, "2 *");
+        var file = directory.resolve("values.csv");
+        ResultExporter.forFile(tableModel, file).exportFile(file);
+        Assertions.assertEquals("Item,Total\nRent,800\n#CYCLE,#VALUE,#PARSE\n", Files.readString(file));
+
+        var imported = new TableModel(tableModel.getWidth(), tableModel.getHeight(), 0, 0);
+        DelimitedImporter.forFile(imported, file).importFile(file);
+        Assertions.assertEquals(CellType.TEXT, imported.getCell(0, 2).getType());
+        Assertions.assertEquals("Total", imported.getCell(0, 2).getParsedValue());
+        Assertions.assertEquals(800.0, imported.getCell(1, 2).getNumber());
+        Assertions.assertEquals("#VALUE", imported.getCell(2, 2).getParsedValue());
+    }
+
+    @Test
+    public void testBinaryRecordsComeRowByRow() throws IOException {
+        tableModel.edit(70, 18, "2.5");
+        tableModel.edit(70, 2, "R71 * 2");
+        tableModel.edit(3, 1, "A4");
+        tableModel.setCellParsedValue(0, 19, "label");
+        var file = directory.resolve("values.bin");
+        Assertions.assertEquals(4, ResultExporter.forFile(tableModel, file).exportFile(file));
+
+        var in = ByteBuffer.wrap(Files.readAllBytes(file));
+        Assertions.assertEquals(0x53544558, in.getInt());
+        Assertions.assertEquals(1, in.getInt());
+        Assertions.assertEquals(20, in.getInt());
+        Assertions.assertEquals(2000, in.getInt());
+        var records = new StringBuilder();
+        while (in.hasRemaining()) {
+            records.append(in.getInt()).append(':').append(in.getInt()).append('=');
+            switch (CellType.values()[in.get()]) {
+                case NUMBER -> records.append(in.getDouble());
+                case TEXT -> {
+                    var bytes = new byte[in.getInt()];
+                    in.get(bytes);
+                    records.append(new String(bytes, StandardCharsets.UTF_8));
+                }
+                case ERROR -> records.append(CellError.values()[in.get()]);
+                case EMPTY -> Assertions.fail();
+            }
+            records.append(' ');
+        }
+        Assertions.assertEquals("0:19=label 3:1=CYCLE 70:2=5.0 70:18=2.5 ", records.toString());
+    }
+
+    @Test
+    public void testOpenedWorkbookIsExportedCompletely() throws IOException {
+        for (int row = 0; row < 300; row++) {
+            tableModel.edit(row, 1 + row % 20, String.valueOf(row));
+        }
+        var expected = export(ResultExporter.Format.CSV);
+        var path = directory.resolve("sheet.stew");
+        WorkbookFile.create(tableModel, path).close();
+        try (var workbook = WorkbookFile.open(path, 0, 0)) {
+            tableModel = workbook.getTableModel();
+            tableModel.getCell(100, 5); // One page is read, the others are exported straight from the file
+            Assertions.assertEquals(expected, export(ResultExporter.Format.CSV));
+            Assertions.assertEquals(1, workbook.getLoadedPageCount(), "Exporting reads no page into the table");
+            Assertions.assertTrue(workbook.getPageCount() > 4);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.main;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class SheetTableModelTests {
+    private final TableModel tableModel = new TableModel(26, 1_000_000, 0, 0);
+    private final SheetTableModel model = new SheetTableModel(tableModel);
+
+    @Test
+    public void testDimensionsAndLabels() {
+        Assertions.assertEquals(1_000_000, model.getRowCount());
+        Assertions.assertEquals(27, model.getColumnCount());
+        Assertions.assertEquals("Z", model.getColumnName(26));
+        Assertions.assertEquals("1000000", model.getValueAt(999_999, 0));
+        Assertions.assertFalse(model.isCellEditable(5, 0));
+        Assertions.assertTrue(model.isCellEditable(5, 1));
+    }
+
+    @Test
+    public void testReadingDoesNotStoreCells() {
+        for (int row = 0; row < 1000; row++) {
+            Assertions.assertEquals("", model.getValueAt(row, 3));
+        }
+        Assertions.assertEquals(0, tableModel.getCellCount());
+    }
+
+    @Test
+    public void testSelectedCellShowsFormula() {
+        var cell = tableModel.getCell(4, 2);
+        cell.setValue("2 * 3");
+        cell.parse();
+        Assertions.assertEquals("6.0", model.getValueAt(4, 2));
+        tableModel.setSelectedCell(tableModel.getCell(4, 2));
+        Assertions.assertEquals("2 * 3", model.getValueAt(4, 2));
+    }
+
+    @Test
+    public void testPendingCellShowsMarker() {
+        tableModel.edit(0, 1, "1");
+        for (int row = 1; row < 200; row++) {
+            tableModel.edit(row, 1, "A" + row + " + 1");
+        }
+        var engine = tableModel.getRecalculationEngine();
+        engine.setCancellation(() -> true);
+        tableModel.edit(0, 1, "2");
+        engine.setCancellation(() -> false);
+
+        Assertions.assertEquals(SheetTableModel.PENDING, model.getValueAt(150, 1));
+        tableModel.setSelectedCell(tableModel.getCell(150, 1));
+        Assertions.assertEquals("A150 + 1", model.getValueAt(150, 1));
+
+        engine.recalculateDeferred();
+        tableModel.setSelectedCell(null);
+        Assertions.assertEquals("152.0", model.getValueAt(150, 1));
+    }
+
+    @Test
+    public void testEditsGoToTheListener() {
+        var edits = new ArrayList<String>();
+        model.setEditListener((row, column, value) -> edits.add(row + ":" + column + "=" + value));
+        model.setValueAt("A1 + 1", 7, 3);
+        Assertions.assertEquals(List.of("7:3=A1 + 1"), edits);
+        Assertions.assertEquals(0, tableModel.getCellCount());
+    }
+}
@@ -3,6 +3,8 @@ package org.main;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.IntStream;
 
 
@@ -47,6 +49,7 @@ public class TableModelTests {
         Assertions.assertEquals(3, tableModel.getHeight());
         Assertions.assertArrayEquals(new String[]{"", "A", "B", "C", "D", "E"}, tableModel.getColumnLabels());
         Assertions.assertArrayEquals(new String[]{"1", "2", "3"}, tableModel.getRowLabels());
+        Assertions.assertSame(tableModel.getRowLabels(), tableModel.getRowLabels());
     }
 
     @Test
@@ -74,4 +77,63 @@ public class TableModelTests {
                 .toArray(String[]::new);
         Assertions.assertArrayEquals(expectedYAxisLabels, tableModel.getRowLabels());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testResolveReference() {
+        TableModel tableModel = new TableModel(30, 12, 0, 0);
+        Assertions.assertSame(tableModel.resolveReference("A1"), tableModel.getCell(0, 1));
+        Assertions.assertSame(tableModel.resolveReference("AB12"), tableModel.getCell(11, 28));
+        Assertions.assertSame(tableModel.resolveReference("=AD3+1", 1, 4), tableModel.getCell(2, 30));
+        Assertions.assertEquals("AD3", tableModel.getReferenceLabel(2, 30));
+    }
+
+    @Test
+    public void testResolveInvalidReference() {
+        TableModel tableModel = new TableModel(5, 3, 0, 0);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tableModel.resolveReference("A4"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tableModel.resolveReference("F1"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tableModel.resolveReference("A0"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tableModel.resolveReference("A1B"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tableModel.resolveReference("a1"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tableModel.resolveReference("AAAAAAAAAAAAAAAA1"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tableModel.resolveReference("A99999999999999999999"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tableModel.resolveReference("A"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tableModel.resolveReference("1"));
+    }
+
+    @Test
+    public void testHugeSheetOnlyStoresWrittenCells() {
+        TableModel tableModel = new TableModel(1_000, 1_000_000, 0, 0);
+        Assertions.assertEquals(0, tableModel.getCellCount());
+
+        Cell untouched = tableModel.getCell(999_999, 1_000);
+        Assertions.assertEquals("", untouched.getParsedValue());
+        Assertions.assertEquals(0, tableModel.getCellCount());
+
+        Cell cell = tableModel.getCell(500_000, 3);
+        cell.setValue("C1000000 + 1");
+        cell.parse();
+        Assertions.assertEquals(CellError.VALUE, cell.getError());
+        Assertions.assertEquals(2, tableModel.getCellCount(), "The written cell and the referenced cell should be stored");
+        Assertions.assertSame(cell, tableModel.getCell(500_000, 3));
+    }
+
+    @Test
+    public void testGetCellOutOfRange() {
+        TableModel tableModel = new TableModel(5, 3, 0, 0);
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> tableModel.getCell(3, 1));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> tableModel.getCell(0, 6));
+    }
+
+    @Test
+    public void testListenerIsOptional() {
+        var tableModel = new TableModel(2, 3, 0, 0);
+        tableModel.edit(0, 1, "1");
+        tableModel.edit(1, 1, "A1 + 1");
+        var changed = new ArrayList<String>();
+        tableModel.setListener(cell -> changed.add(tableModel.getReferenceLabel(cell.getRow(), cell.getColumn())));
+        tableModel.edit(0, 1, "5");
+        Assertions.assertEquals(6.0, tableModel.getCell(1, 1).getNumber());
+        Assertions.assertEquals(List.of("A1", "A1", "A2"), changed);
+    }
+}
@@ -0,0 +1,139 @@
+package org.main;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+
+public class UpdateCoalescerTests {
+    private final List<int[]> regions = new ArrayList<>();
+    private final UpdateCoalescer updates = new UpdateCoalescer((top, left, bottom, right) -> regions.add(new int[]{top, left, bottom, right}));
+
+    @Test
+    public void testPassIsPublishedAsOneRegion() {
+        updates.editStarted();
+        for (int row = 0; row < 20_000; row++) {
+            updates.cellChanged(row + 5, 2 + row % 3);
+        }
+        updates.flush();
+
+        Assertions.assertEquals(1, regions.size());
+        Assertions.assertArrayEquals(new int[]{5, 2, 20_004, 4}, regions.get(0));
+        Assertions.assertEquals(20_000, updates.getCellUpdates());
+        Assertions.assertEquals(1.0, updates.getEventsPerEdit());
+
+        updates.flush();
+        Assertions.assertEquals(1, regions.size(), "Nothing dirty, nothing published");
+    }
+
+    @Test
+    public void testTimerPublishesOncePerFrame() throws Exception {
+        // A recalculation pass over a table of formulas, notifying from the event thread like the controller does
+        var tableModel = new TableModel(3, 1000, 0, 0) {
+            @Override
+            public void handleCellUpdate(Cell cell) {
+                updates.cellChanged(cell.getRow(), cell.getColumn());
+            }
+        };
+        SwingUtilities.invokeAndWait(() -> {
+            for (int row = 1; row < 1000; row++) {
+                var cell = tableModel.getCell(row, 1);
+                cell.setValue("A" + row + " + 1");
+                cell.parse();
+            }
+            updates.flush();
+            regions.clear();
+
+            updates.editStarted();
+            var root = tableModel.getCell(0, 1);
+            root.setValue("1");
+            root.parse();
+        });
+        Thread.sleep(UpdateCoalescer.FRAME_MILLIS * 10);
+        SwingUtilities.invokeAndWait(() -> {});
+
+        Assertions.assertEquals(1, regions.size());
+        Assertions.assertArrayEquals(new int[]{0, 1, 999, 1}, regions.get(0));
+    }
+
+    @Test
+    public void testRunningPassHoldsRegionBack() {
+        updates.passStarted();
+        updates.cellChanged(3, 1);
+        updates.flush();
+        Assertions.assertTrue(regions.isEmpty(), "Half a pass is not published");
+
+        updates.passFinished(false);
+        updates.flush();
+        Assertions.assertEquals(1, regions.size(), "A flush after the pass publishes what it changed");
+
+        updates.passStarted();
+        updates.cellChanged(7, 2);
+        updates.passFinished(true);
+        updates.flush();
+        Assertions.assertEquals(2, regions.size());
+        Assertions.assertArrayEquals(new int[]{7, 2, 7, 2}, regions.get(1));
+    }
+
+    @Test
+    public void testCellsLeftToTheBackgroundShowAsPending() throws Exception {
+        int rows = 20_000;
+        var tableModel = new TableModel(3, rows, 0, 0);
+        tableModel.edit(0, 1, "1");
+        for (int row = 1; row < rows; row++) {
+            tableModel.edit(row, 1, "A" + row + " + 1");
+        }
+        // What the view shows for the last cell of the chain whenever a region is published
+        var view = new SheetTableModel(tableModel);
+        var shown = Collections.synchronizedList(new ArrayList<>());
+        var published = new Semaphore(0);
+        var updates = new UpdateCoalescer((top, left, bottom, right) -> {
+            shown.add(view.getValueAt(rows - 1, 1));
+            published.release();
+        });
+        tableModel.setListener(cell -> updates.cellChanged(cell.getRow(), cell.getColumn()));
+
+        // The inline part of the pass ends at once and the background thread waits, as if it were busy
+        var worker = new RecalculationWorker(tableModel);
+        var testThread = Thread.currentThread();
+        var backgroundGate = new CountDownLatch(1);
+        worker.setPassListener(new RecalculationWorker.PassListener() {
+            @Override
+            public void passStarted() {
+                updates.passStarted();
+                if (Thread.currentThread() != testThread) {
+                    try {
+                        backgroundGate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void passFinished(boolean consistent) {
+                updates.passFinished(consistent);
+            }
+        });
+        worker.setInlineBudgetNanos(0);
+        try {
+            worker.submit(() -> tableModel.edit(0, 1, "5"));
+            Assertions.assertTrue(published.tryAcquire(10, TimeUnit.SECONDS), "Published while the background pass runs");
+            Assertions.assertEquals(List.of(SheetTableModel.PENDING), shown);
+
+            backgroundGate.countDown();
+            Assertions.assertTrue(published.tryAcquire(10, TimeUnit.SECONDS));
+            Assertions.assertEquals(List.of(SheetTableModel.PENDING, "20004.0"), shown);
+        } finally {
+            backgroundGate.countDown();
+            worker.shutdown();
+        }
+    }
+}
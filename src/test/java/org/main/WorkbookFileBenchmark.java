@@ -0,0 +1,78 @@
+package org.main;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+
+// Time to open a saved workbook and show one screen of it, which reads only the pages on the screen, against
+// opening it and making the first edit, which reads every page and compiles every formula. The sheet is the
+// one DelimitedImporterBenchmark imports.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkbookFileBenchmark {
+    private static final int SCREEN_ROWS = 40;
+
+    @Param({"100000"})
+    private int rows;
+
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        var text = new StringBuilder();
+        for (int row = 1; row <= rows; row++) {
+            text.append(row).append(',').append(row * 0.25).append(",\"label ").append(row % 97).append("\",A")
+                    .append(row).append(" * B").append(row).append(" + 1\n");
+        }
+        var csv = Files.createTempFile("workbook", ".csv");
+        Files.writeString(csv, text);
+        var tableModel = new TableModel(4, rows, 0, 0);
+        DelimitedImporter.forFile(tableModel, csv).importFile(csv);
+        Files.delete(csv);
+        file = Files.createTempFile("workbook", ".stew");
+        WorkbookFile.create(tableModel, file).close();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public double openAndView() throws IOException {
+        try (var workbook = WorkbookFile.open(file, 0, 0)) {
+            var tableModel = workbook.getTableModel();
+            double sum = 0;
+            for (int row = rows / 2; row < rows / 2 + SCREEN_ROWS; row++) {
+                for (int column = 1; column <= tableModel.getWidth(); column++) {
+                    sum += tableModel.getCell(row, column).getNumber();
+                }
+            }
+            return sum;
+        }
+    }
+
+    @Benchmark
+    public double openAndEdit() throws IOException {
+        try (var workbook = WorkbookFile.open(file, 0, 0)) {
+            var tableModel = workbook.getTableModel();
+            tableModel.edit(rows / 2, 1, "2");
+            return tableModel.getCell(rows / 2, 4).getNumber();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(WorkbookFileBenchmark.class.getSimpleName()).build()).run();
+    }
+}
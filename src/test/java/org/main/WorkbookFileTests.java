@@ -0,0 +1,203 @@
+package org.main;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class WorkbookFileTests {
+    private static final int ROWS = 1000;
+
+    @TempDir
+    Path directory;
+    private Path path;
+
+    // A in every row, B filled down with a formula, a total over B, a text, a broken formula and a formula far
+    // below that depends on A1
+    @BeforeEach
+    public void setUp() throws IOException {
+        path = directory.resolve("sheet.stew");
+        var tableModel = new TableModel(6, ROWS, 0, 0);
+        var rows = new java.util.ArrayList<String[]>();
+        for (int row = 0; row < ROWS; row++) {
+            rows.add(new String[] {String.valueOf(row), "A" + (row + 1) + " * 2"});
+        }
+        tableModel.load(0, 1, rows);
+        tableModel.edit(0, 3, "SUM(B1:B" + ROWS + ")");
+        tableModel.edit(1, 3, "1 +");
+        tableModel.setCellParsedValue(2, 3, "Grüße");
+        tableModel.edit(900, 4, "A1 + 1");
+        WorkbookFile.create(tableModel, path).close();
+    }
+
+    @Test
+    public void testOpenReadsOnlyThePagesLookedAt() throws IOException {
+        try (var workbook = WorkbookFile.open(path, 0, 0)) {
+            var tableModel = workbook.getTableModel();
+            Assertions.assertEquals(6, tableModel.getWidth());
+            Assertions.assertEquals(ROWS, tableModel.getHeight());
+            Assertions.assertEquals(ROWS / CellStore.PAGE_ROWS + 1, workbook.getPageCount());
+            Assertions.assertEquals(0, workbook.getLoadedPageCount());
+            Assertions.assertEquals(0, tableModel.getCellCount());
+
+            var cell = tableModel.getCell(500, 2);
+            Assertions.assertEquals(1000.0, cell.getNumber(), "The saved result is shown without recalculating");
+            Assertions.assertEquals("A501 * 2", cell.getValue());
+            Assertions.assertEquals(1, workbook.getLoadedPageCount());
+            Assertions.assertTrue(tableModel.getCellCount() <= CellStore.PAGE_ROWS * 2);
+            Assertions.assertSame(cell.getTemplate(), tableModel.getCell(10, 2).getTemplate(), "Templates are interned again");
+
+            Assertions.assertEquals((double) ROWS * (ROWS - 1), tableModel.getCell(0, 3).getNumber());
+            Assertions.assertEquals(CellError.PARSE, tableModel.getCell(1, 3).getError());
+            Assertions.assertEquals("1 +", tableModel.getCell(1, 3).getValue());
+            Assertions.assertEquals("Grüße", tableModel.getCell(2, 3).getParsedValue());
+            Assertions.assertEquals(1.0, tableModel.getCell(900, 4).getNumber());
+            Assertions.assertEquals(3, workbook.getLoadedPageCount());
+        }
+    }
+
+    @Test
+    public void testFirstEditRecalculatesDependentsInPagesNotReadYet() throws IOException {
+        try (var workbook = WorkbookFile.open(path, 0, 0)) {
+            var tableModel = workbook.getTableModel();
+            tableModel.edit(0, 1, "100");
+            Assertions.assertEquals(workbook.getPageCount(), workbook.getLoadedPageCount());
+            Assertions.assertEquals(200.0, tableModel.getCell(0, 2).getNumber());
+            Assertions.assertEquals(101.0, tableModel.getCell(900, 4).getNumber());
+            Assertions.assertEquals((double) ROWS * (ROWS - 1) + 200, tableModel.getCell(0, 3).getNumber());
+        }
+    }
+
+    @Test
+    public void testViewReadsPagesWhileTheWorkbookIsSavedAndLoaded() throws Exception {
+        try (var workbook = WorkbookFile.open(path, 0, 0)) {
+            var tableModel = workbook.getTableModel();
+            var done = new AtomicBoolean();
+            var misses = new AtomicInteger();
+            var failure = new AtomicReference<Throwable>();
+            // Looks cells up like the view painting them, on a thread of its own
+            var view = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        for (int row = ROWS - 1; row >= 0; row--) {
+                            if (tableModel.findCell(row, 2) == null) {
+                                misses.incrementAndGet();
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            view.start();
+            for (int i = 0; i < 20; i++) {
+                workbook.save();
+            }
+            tableModel.getOrCreateCell(ROWS - 1, 6);
+            tableModel.edit(0, 1, "100");
+            workbook.save();
+            done.set(true);
+            view.join();
+
+            Assertions.assertNull(failure.get());
+            Assertions.assertEquals(0, misses.get(), "Every saved cell is found, also while the pages are loaded");
+            Assertions.assertEquals(200.0, tableModel.getCell(0, 2).getNumber());
+            Assertions.assertEquals(1998.0, tableModel.getCell(ROWS - 1, 2).getNumber());
+            Assertions.assertNotNull(tableModel.findCell(ROWS - 1, 6));
+        }
+    }
+
+    @Test
+    public void testCellsAreFoundWhileThePagesAreLoaded() throws Exception {
+        try (var workbook = WorkbookFile.open(path, 0, 0)) {
+            var tableModel = workbook.getTableModel();
+            Thread loader;
+            synchronized (workbook) {
+                loader = new Thread(tableModel::loadWorkbook);
+                loader.start();
+                while (loader.getState() != Thread.State.BLOCKED) { // Waits for the lock to read the pages
+                    Thread.onSpinWait();
+                }
+                Assertions.assertNotNull(tableModel.findCell(ROWS - 1, 2), "Pages not loaded yet are still read on lookup");
+            }
+            loader.join();
+            Assertions.assertEquals(workbook.getPageCount(), workbook.getLoadedPageCount());
+        }
+    }
+
+    @Test
+    public void testSaveAppendsOnlyChangedPages() throws IOException {
+        var before = Files.readAllBytes(path);
+        try (var workbook = WorkbookFile.open(path, 0, 0)) {
+            var tableModel = workbook.getTableModel();
+            tableModel.edit(0, 1, "100");
+            workbook.save();
+        }
+        var after = Files.readAllBytes(path);
+        Assertions.assertTrue(after.length > before.length);
+        Assertions.assertArrayEquals(Arrays.copyOfRange(before, WorkbookFile.HEADER_SIZE, before.length),
+                Arrays.copyOfRange(after, WorkbookFile.HEADER_SIZE, before.length), "Saved records are never overwritten");
+        Assertions.assertTrue(after.length - before.length < before.length / 4, "Only the two changed pages are written");
+
+        try (var workbook = WorkbookFile.open(path, 0, 0)) {
+            var tableModel = workbook.getTableModel();
+            Assertions.assertEquals(101.0, tableModel.getCell(900, 4).getNumber());
+            Assertions.assertEquals(200.0, tableModel.getCell(0, 2).getNumber());
+            Assertions.assertEquals(2.0, tableModel.getCell(1, 2).getNumber());
+        }
+    }
+
+    @Test
+    public void testReplacedPagesAreCompactedAway() throws IOException {
+        long size = Files.size(path);
+        try (var workbook = WorkbookFile.open(path, 0, 0)) {
+            var tableModel = workbook.getTableModel();
+            for (int i = 0; i < 50; i++) {
+                for (int row = 0; row < ROWS; row += 100) {
+                    tableModel.edit(row, 1, String.valueOf(i));
+                }
+                workbook.save();
+                Assertions.assertTrue(Files.size(path) < 3 * size, "Save " + i + " left " + Files.size(path) + " bytes");
+            }
+            tableModel.edit(ROWS - 1, 5, "E1 + 1");
+            workbook.save();
+        }
+        try (var workbook = WorkbookFile.open(path, 0, 0)) {
+            var tableModel = workbook.getTableModel();
+            Assertions.assertEquals(98.0, tableModel.getCell(100, 2).getNumber());
+            Assertions.assertEquals(202.0, tableModel.getCell(101, 2).getNumber());
+            Assertions.assertEquals(CellError.VALUE, tableModel.getCell(ROWS - 1, 5).getError());
+            tableModel.edit(0, 5, "1");
+            Assertions.assertEquals(2.0, tableModel.getCell(ROWS - 1, 5).getNumber());
+        }
+    }
+
+    @Test
+    public void testReadOnlyWorkbookIsNeverWritten() throws IOException {
+        var before = Files.readAllBytes(path);
+        try (var workbook = WorkbookFile.openReadOnly(path)) {
+            var tableModel = workbook.getTableModel();
+            Assertions.assertEquals(1000.0, tableModel.getCell(500, 2).getNumber());
+            tableModel.edit(0, 1, "100");
+            Assertions.assertEquals(101.0, tableModel.getCell(900, 4).getNumber());
+            Assertions.assertThrows(IllegalStateException.class, workbook::save);
+        }
+        Assertions.assertArrayEquals(before, Files.readAllBytes(path));
+    }
+
+    @Test
+    public void testOtherFilesAreRejected() throws IOException {
+        var other = directory.resolve("other.csv");
+        Files.writeString(other, "1,2,3\n".repeat(20));
+        Assertions.assertThrows(IOException.class, () -> WorkbookFile.open(other, 0, 0));
+    }
+}
@@ -0,0 +1,72 @@
+package org.parser;
+
+import org.main.Cell;
+import org.main.TableModel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+
+// Recalculation throughput of a sheet of formulas, compiled once (what Cell does) versus parsed on every evaluation.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormulaCacheBenchmark {
+    @Param({"1000"})
+    private int rows;
+
+    private Parser parser;
+    private Cell[] formulaCells;
+    private Expr[] compiledFormulas;
+
+    @Setup
+    public void setUp() {
+        var tableModel = new TableModel(3, rows, 0, 0);
+        parser = new Parser();
+        formulaCells = new Cell[rows * 2];
+        compiledFormulas = new Expr[rows * 2];
+        for (int i = 0; i < rows; i++) {
+            var label = String.valueOf(i + 1);
+            enter(tableModel.getCell(i, 1), label);
+            formulaCells[2 * i] = enter(tableModel.getCell(i, 2), "A" + label + " * 2 + SIN(A" + label + ")");
+            formulaCells[2 * i + 1] = enter(tableModel.getCell(i, 3), "(B" + label + " + A" + label + ") / 3");
+        }
+        for (int i = 0; i < formulaCells.length; i++) {
+            compiledFormulas[i] = parser.parse(formulaCells[i]);
+        }
+    }
+
+    private static Cell enter(Cell cell, String value) {
+        cell.setValue(value);
+        cell.parse();
+        return cell;
+    }
+
+    @Benchmark
+    public double recalculateCompiled() {
+        double total = 0;
+        for (var expr : compiledFormulas) {
+            total += expr.evaluate();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double recalculateReparsed() {
+        double total = 0;
+        for (var cell : formulaCells) {
+            total += parser.parse(cell).evaluate();
+        }
+        return total;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FormulaCacheBenchmark.class.getSimpleName()).build()).run();
+    }
+}
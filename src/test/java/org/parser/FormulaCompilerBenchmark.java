@@ -0,0 +1,68 @@
+package org.parser;
+
+import org.main.TableModel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+
+// Evaluation throughput of the formulas of a simulation-like sheet, interpreted as a tree versus compiled to hidden classes.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormulaCompilerBenchmark {
+    @Param({"1000"})
+    private int rows;
+
+    private Expr[] interpretedFormulas;
+    private Expr[] compiledFormulas;
+
+    @Setup
+    public void setUp() {
+        var tableModel = new TableModel(4, rows, 0, 0);
+        tableModel.setCompileThreshold(0);
+        var parser = new Parser();
+        interpretedFormulas = new Expr[rows * 2];
+        compiledFormulas = new Expr[rows * 2];
+        for (int i = 0; i < rows; i++) {
+            var label = String.valueOf(i + 1);
+            tableModel.edit(i, 1, label);
+            tableModel.edit(i, 2, String.valueOf(rows - i));
+            interpretedFormulas[2 * i] = parser.parse("A" + label + " * 1.05 - B" + label + " / 3 + POW(A" + label + ", 2) * 0.001",
+                    tableModel.getCell(i, 3));
+            interpretedFormulas[2 * i + 1] = parser.parse("MAX(A" + label + ", B" + label + ") - MIN(A" + label + ", B" + label + ") * -0.5 + SQRT(A" + label + ")",
+                    tableModel.getCell(i, 4));
+        }
+        for (int i = 0; i < interpretedFormulas.length; i++) {
+            compiledFormulas[i] = FormulaCompiler.compile(interpretedFormulas[i]);
+        }
+    }
+
+    @Benchmark
+    public double evaluateInterpreted() {
+        double total = 0;
+        for (var expr : interpretedFormulas) {
+            total += expr.evaluate();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double evaluateCompiled() {
+        double total = 0;
+        for (var expr : compiledFormulas) {
+            total += expr.evaluate();
+        }
+        return total;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FormulaCompilerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
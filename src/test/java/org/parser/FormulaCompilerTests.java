@@ -0,0 +1,154 @@
+package org.parser;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.main.Cell;
+import org.main.CellError;
+import org.main.CellType;
+import org.main.TableModel;
+
+import java.util.ArrayList;
+
+
+public class FormulaCompilerTests {
+    private TableModel tableModel;
+    private Parser parser;
+
+    @BeforeEach
+    public void setUp() {
+        tableModel = new TableModel(10, 100, 0, 0);
+        parser = new Parser();
+        tableModel.edit(0, 1, "3");
+        tableModel.edit(1, 1, "-0.5");
+        tableModel.edit(2, 1, "7");
+    }
+
+    // The compiled expression must give bit for bit the result of the tree it was compiled from
+    private void assertSameResult(String formula) {
+        var tree = parser.parse(formula, tableModel.getCell(9, 9));
+        var compiled = FormulaCompiler.compile(tree);
+        Assertions.assertNotSame(tree, compiled, formula);
+        Assertions.assertEquals(Double.doubleToRawLongBits(tree.evaluate()), Double.doubleToRawLongBits(compiled.evaluate()), formula);
+    }
+
+    @Test
+    public void testArithmeticMatchesInterpreter() {
+        assertSameResult("1 + 2 * 3 - 4 / 5");
+        assertSameResult("A1 * A2 + A3 / A1");
+        assertSameResult("-(A1 - A3) * -A2");
+        assertSameResult("A1 / 0");
+        assertSameResult("0 / 0");
+        assertSameResult("1 - 1 * 0");
+        assertSameResult("0.1 + 0.2 + 0.1 + 0.2");
+    }
+
+    @Test
+    public void testFunctionsMatchInterpreter() {
+        for (var formula : new String[]{"SIN(A1) + COS(A3) * TAN(A2)", "POW(A1, A3) - MOD(A3, A1)", "SQRT(A3) * LOG(A1)",
+                "EXP(A2) + ABS(A2) + ROUND(A2) + CEIL(A2) + FLOOR(A2)", "LOG10(A3) + DEGREES(A1) + RADIANS(A1) + SIGNUM(A2)",
+                "MIN(A1, A2, A3) * MAX(A3, 2, A1)", "SUM(A1, A2, A3) / AVERAGE(A1, A3)", "SUM(A1:A3) + MAX(A1:A3) * 2"}) {
+            assertSameResult(formula);
+        }
+    }
+
+    @Test
+    public void testErrorsAreThrownLikeTheInterpreter() {
+        tableModel.setCellParsedValue(3, 1, "text");
+        for (var formula : new String[]{"A4 + 1", "A9 * 2", "A1:A3 + 1", "MIN(A5:A9)", "AVERAGE(A5:A6)"}) {
+            var tree = parser.parse(formula, tableModel.getCell(9, 9));
+            var compiled = FormulaCompiler.compile(tree);
+            Assertions.assertThrows(IllegalArgumentException.class, compiled::evaluate, formula);
+        }
+    }
+
+    @Test
+    public void testCompiledFormulaReportsReferences() {
+        var tree = parser.parse("A1 + SUM(A2:A3)", tableModel.getCell(9, 9));
+        var compiled = FormulaCompiler.compile(tree);
+        var references = new ArrayList<Cell>();
+        var ranges = new ArrayList<Object>();
+        compiled.collectReferences(references::add);
+        compiled.collectRanges(ranges::add);
+        Assertions.assertEquals(1, references.size());
+        Assertions.assertEquals(1, ranges.size());
+    }
+
+    @Test
+    public void testFilledDownFormulasShareOneClass() {
+        var first = FormulaCompiler.compile(parser.parse("A1 * 2 + SUM(A1:A2)", tableModel.getCell(9, 8)));
+        var second = FormulaCompiler.compile(parser.parse("A2 * 2 + SUM(A2:A3)", tableModel.getCell(9, 9)));
+        var other = FormulaCompiler.compile(parser.parse("A2 * 3 + SUM(A2:A3)", tableModel.getCell(9, 9)));
+        Assertions.assertSame(first.getClass(), second.getClass());
+        Assertions.assertNotSame(first.getClass(), other.getClass(), "Constants are part of the bytecode");
+        Assertions.assertEquals(8.5, first.evaluate());
+        Assertions.assertEquals(5.5, second.evaluate());
+    }
+
+    @Test
+    public void testOversizedFormulaStaysInterpreted() {
+        var formula = new StringBuilder("A1");
+        for (int i = 0; i < FormulaCompiler.MAX_CODE_LENGTH / 4; i++) {
+            formula.append(" + A2");
+        }
+        var tree = parser.parse(formula.toString(), tableModel.getCell(9, 9));
+        Assertions.assertSame(tree, FormulaCompiler.compile(tree));
+    }
+
+    @Test
+    public void testTieringCompilesAfterThreshold() {
+        var tiered = (TieredExpr) FormulaCompiler.tiered(parser.parse("A1 * 2", tableModel.getCell(9, 9)), 3);
+        tiered.evaluate();
+        tiered.evaluate();
+        Assertions.assertFalse(tiered.isCompiled());
+        Assertions.assertEquals(6.0, tiered.evaluate());
+        Assertions.assertTrue(tiered.isCompiled());
+        Assertions.assertEquals(6.0, tiered.evaluate());
+        var untiered = new NumberExpr(1);
+        Assertions.assertSame(untiered, FormulaCompiler.tiered(untiered, 0));
+    }
+
+    @Test
+    public void testFailedCompilationKeepsInterpreting() {
+        var source = parser.parse("A1 * 2", tableModel.getCell(9, 9));
+        var attempts = new int[1];
+        var tiered = new TieredExpr(source, 2, expr -> {
+            attempts[0]++;
+            throw new IllegalStateException("Could not compile formula");
+        });
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertEquals(6.0, tiered.evaluate());
+        }
+        Assertions.assertFalse(tiered.isCompiled());
+        Assertions.assertEquals(1, attempts[0], "A failed formula is not compiled again");
+    }
+
+    @Test
+    public void testRejectedClassFallsBackToTheTree() {
+        var tree = parser.parse("A1 * 2 + A2", tableModel.getCell(9, 9));
+        int unsupported = FormulaCompiler.CLASS_VERSION + 1;
+        Assertions.assertSame(tree, FormulaCompiler.compile(tree, unsupported));
+        Assertions.assertSame(tree, FormulaCompiler.compile(tree, unsupported));
+        Assertions.assertNotSame(tree, FormulaCompiler.compile(tree));
+    }
+
+    @Test
+    public void testCompiledErrorsNameTheCell() {
+        var compiled = FormulaCompiler.compile(parser.parse("A4 + 1", tableModel.getCell(9, 9)));
+        var error = Assertions.assertThrows(IllegalArgumentException.class, compiled::evaluate);
+        Assertions.assertEquals("Empty cell value at A4", error.getMessage());
+    }
+
+    @Test
+    public void testCellsSwitchToCompiledFormulasTransparently() {
+        tableModel.setCompileThreshold(2);
+        var formula = tableModel.edit(0, 2, "A1 * A3 + 1");
+        for (int value = 1; value <= 5; value++) {
+            tableModel.edit(0, 1, String.valueOf(value));
+            Assertions.assertEquals(String.valueOf(value * 7 + 1.0), formula.getParsedValue());
+        }
+        tableModel.edit(2, 1, "");
+        Assertions.assertEquals(CellType.ERROR, formula.getType());
+        Assertions.assertEquals(CellError.VALUE, formula.getError());
+    }
+}
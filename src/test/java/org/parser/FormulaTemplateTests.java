@@ -0,0 +1,118 @@
+package org.parser;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.main.CellError;
+import org.main.CellType;
+import org.main.EditHistory;
+import org.main.TableModel;
+
+
+public class FormulaTemplateTests {
+    private static final int ROWS = 1000;
+
+    private TableModel tableModel;
+
+    @BeforeEach
+    public void setUp() {
+        tableModel = new TableModel(6, ROWS, 0, 0);
+        for (int row = 0; row < ROWS; row++) {
+            tableModel.edit(row, 1, String.valueOf(row));
+            tableModel.edit(row, 2, "2");
+            tableModel.edit(row, 3, "0.5");
+        }
+    }
+
+    private void fillDown(int column, String prefix, String suffix) {
+        for (int row = 0; row < ROWS; row++) {
+            tableModel.edit(row, column, prefix + (row + 1) + suffix);
+        }
+    }
+
+    @Test
+    public void testFilledDownColumnSharesOneTemplate() {
+        int before = tableModel.getFormulaTemplates().size();
+        for (int row = 0; row < ROWS; row++) {
+            int n = row + 1;
+            tableModel.edit(row, 4, "A" + n + "*B" + n + "+C" + n);
+        }
+        Assertions.assertEquals(before + 1, tableModel.getFormulaTemplates().size());
+        var template = tableModel.getCell(0, 4).getTemplate();
+        Assertions.assertEquals("RC[-3]*RC[-2]+RC[-1]", template.toString());
+        for (int row = 0; row < ROWS; row++) {
+            var cell = tableModel.getCell(row, 4);
+            Assertions.assertSame(template, cell.getTemplate());
+            Assertions.assertEquals("A" + (row + 1) + "*B" + (row + 1) + "+C" + (row + 1), cell.getValue());
+            Assertions.assertEquals(row * 2 + 0.5, cell.getNumber());
+        }
+    }
+
+    @Test
+    public void testFormulaTextIsKeptExactly() {
+        var formulas = new String[] {"  A1 *  ( B1+C1 ) ", "sum(A1:A3)", "SUM( A1 : B2 , 3)", "A1+a1", "A0 + 1", "Z1", "text"};
+        for (var formula : formulas) {
+            var cell = tableModel.edit(0, 5, formula);
+            Assertions.assertEquals(formula, cell.getValue());
+        }
+    }
+
+    @Test
+    public void testReferencesAreBoundToEachCell() {
+        fillDown(4, "A", " + 1");
+        tableModel.edit(3, 1, "100");
+        Assertions.assertEquals(101.0, tableModel.getCell(3, 4).getNumber(), "Each row reads its own cell");
+        Assertions.assertEquals(5.0, tableModel.getCell(4, 4).getNumber());
+        tableModel.edit(10, 5, "SUM(A1:B11)");
+        tableModel.edit(20, 5, "SUM(A11:B21)");
+        Assertions.assertSame(tableModel.getCell(10, 5).getTemplate(), tableModel.getCell(20, 5).getTemplate());
+        Assertions.assertEquals(0 + 1 + 2 + 100 + 4 + 5 + 6 + 7 + 8 + 9 + 10 + 22.0, tableModel.getCell(10, 5).getNumber());
+        Assertions.assertEquals(10 + 11 + 12 + 13 + 14 + 15 + 16 + 17 + 18 + 19 + 20 + 22.0, tableModel.getCell(20, 5).getNumber());
+        tableModel.edit(15, 2, "3");
+        Assertions.assertEquals(10 + 11 + 12 + 13 + 14 + 15 + 16 + 17 + 18 + 19 + 20 + 23.0, tableModel.getCell(20, 5).getNumber(),
+                "Ranges of bound templates are dependencies like parsed ones");
+    }
+
+    @Test
+    public void testSharedSubexpressionsAreBoundPerCell() {
+        fillDown(4, "(A", " + 1) * (A" + "0 + 1)"); // Only the first reference is relative, A0 is no reference
+        for (int row = 0; row < ROWS; row++) {
+            tableModel.edit(row, 5, "(A" + (row + 1) + " + 1) * (A" + (row + 1) + " + 1)");
+        }
+        Assertions.assertEquals(CellError.PARSE, tableModel.getCell(7, 4).getError(), "A0 is invalid in every row");
+        Assertions.assertEquals(64.0, tableModel.getCell(7, 5).getNumber());
+        Assertions.assertEquals(81.0, tableModel.getCell(8, 5).getNumber());
+        tableModel.edit(7, 1, "1");
+        Assertions.assertEquals(4.0, tableModel.getCell(7, 5).getNumber());
+        Assertions.assertEquals(81.0, tableModel.getCell(8, 5).getNumber());
+    }
+
+    @Test
+    public void testReferencesWithLeadingZerosStayWhereTheyPoint() {
+        tableModel.edit(0, 4, "A01 + 1");
+        tableModel.edit(5, 4, "A01 + 1");
+        Assertions.assertEquals("A01 + 1", tableModel.getCell(5, 4).getValue());
+        Assertions.assertEquals(1.0, tableModel.getCell(0, 4).getNumber());
+        Assertions.assertEquals(1.0, tableModel.getCell(5, 4).getNumber(), "A01 is A1 in every row");
+        Assertions.assertNotSame(tableModel.getCell(0, 4).getTemplate(), tableModel.getCell(5, 4).getTemplate());
+    }
+
+    @Test
+    public void testUndoRestoresTemplates() {
+        fillDown(4, "B", " * 3");
+        var history = new EditHistory(tableModel, 1 << 20);
+        history.beginTransaction();
+        for (int row = 0; row < ROWS; row++) {
+            history.record(row, 4, "B" + (row + 1) + " * 3", "C" + (row + 1) + " * 3");
+        }
+        history.endTransaction();
+        fillDown(4, "C", " * 3");
+        Assertions.assertEquals(1.5, tableModel.getCell(9, 4).getNumber());
+        history.undo();
+        Assertions.assertEquals("B10 * 3", tableModel.getCell(9, 4).getValue());
+        Assertions.assertEquals(6.0, tableModel.getCell(9, 4).getNumber());
+        tableModel.edit(9, 2, "5");
+        Assertions.assertEquals(15.0, tableModel.getCell(9, 4).getNumber());
+        Assertions.assertEquals(CellType.NUMBER, tableModel.getCell(ROWS - 1, 4).getType());
+    }
+}
@@ -0,0 +1,72 @@
+package org.parser;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.main.CellRange;
+import org.main.TableModel;
+
+import java.lang.management.ManagementFactory;
+import java.util.stream.DoubleStream;
+
+
+public class FunctionBindingTests {
+    private final TableModel tableModel = new TableModel(5, 100, 0, 0);
+    private final Parser parser = new Parser();
+
+    private Expr parse(String formula) {
+        return parser.parse(formula, tableModel.getCell(99, 5));
+    }
+
+    @Test
+    public void testCallsAreBoundToSpecializedNodes() {
+        Assertions.assertInstanceOf(UnaryFunctionExpr.class, parse("sqrt(4)"));
+        Assertions.assertInstanceOf(BinaryFunctionExpr.class, parse("Pow(2, 3)"));
+        Assertions.assertInstanceOf(AggregateExpr.class, parse("MAX(A1:A3)"));
+        Assertions.assertEquals(2.0, parse("sqrt(4)").evaluate());
+        Assertions.assertEquals(8.0, parse("Pow(2, 3)").evaluate());
+    }
+
+    @Test
+    public void testBadCallsAreRejectedByTheParser() {
+        for (var formula : new String[]{"UNKNOWN(1)", "POW(1)", "MOD(1, 2, 3)", "MIN(1)", "MAX()", "AVERAGE()", "ROUND()"}) {
+            Assertions.assertThrows(FormulaSyntaxException.class, () -> parse(formula), formula);
+        }
+        Assertions.assertEquals(0.0, parse("SUM()").evaluate());
+        Assertions.assertEquals(4.0, parse("MIN(A1:A2, 4)").evaluate(), "A range without numbers is skipped");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> parse("MIN(A1:A2)").evaluate());
+    }
+
+    @Test
+    public void testSumIsCompensatedLikeStreams() {
+        var sum = parse("SUM(10000000000000000, 1, -10000000000000000, 0.1, 0.2, 0.3, 0.001, 3.3)").evaluate();
+        Assertions.assertEquals(DoubleStream.of(1e16, 1, -1e16, 0.1, 0.2, 0.3, 0.001, 3.3).sum(), sum);
+
+        tableModel.edit(0, 1, "1 / 0");
+        tableModel.edit(1, 1, "2");
+        Assertions.assertEquals(Double.POSITIVE_INFINITY, parse("SUM(A1:A2, 1, A1)").evaluate());
+        Assertions.assertEquals(Double.POSITIVE_INFINITY, parse("AVERAGE(A1:A2, 1)").evaluate());
+    }
+
+    @Test
+    public void testEvaluationDoesNotAllocate() {
+        for (int row = 0; row < 50; row++) {
+            tableModel.edit(row, 1, String.valueOf(row));
+        }
+        var formula = tableModel.edit(0, 2, "SUM(A1:A50) + AVERAGE(A1:A50, A3) * MIN(A2, A3, A4) - MAX(A1:A10) + SIN(A5) + POW(A2, 2)");
+        var expr = FormulaCompiler.tiered(parse(formula.getValue()), 0);
+        tableModel.getRangeAggregates().acquire(new CellRange(0, 1, 49, 1));
+        tableModel.getRangeAggregates().acquire(new CellRange(0, 1, 9, 1));
+        double total = 0;
+        for (int i = 0; i < 10_000; i++) {
+            total += expr.evaluate(); // Warms up the paths, interpreted or compiled
+        }
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 100_000; i++) {
+            total += expr.evaluate();
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        Assertions.assertTrue(allocated < 100_000, allocated + " bytes allocated by 100000 evaluations");
+        Assertions.assertTrue(total > 0);
+    }
+}
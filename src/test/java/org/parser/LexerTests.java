@@ -0,0 +1,73 @@
+package org.parser;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+public class LexerTests {
+    private final Lexer lexer = new Lexer();
+
+    private List<String> scan(String text) {
+        var tokens = new ArrayList<String>();
+        lexer.reset(text);
+        while (!lexer.is(Lexer.Kind.END)) {
+            tokens.add(lexer.getKind() + "@" + lexer.getStart() + ":" + text.substring(lexer.getStart(), lexer.getEnd()));
+            lexer.next();
+        }
+        return tokens;
+    }
+
+    @Test
+    public void testTokensAndOffsets() {
+        Assertions.assertEquals(List.of("REFERENCE@0:AA10", "STAR@5:*", "NAME@7:LOG10", "OPEN@12:(", "REFERENCE@13:B2",
+                "COLON@15::", "REFERENCE@16:B9", "CLOSE@18:)", "MINUS@20:-", "NUMBER@22:.5"),
+                scan("AA10 * LOG10(B2:B9) - .5"));
+        Assertions.assertEquals(List.of("NAME@1:SIN", "OPEN@5:(", "NUMBER@6:1", "COMMA@7:,", "NUMBER@8:2", "CLOSE@9:)"),
+                scan(" SIN (1,2)\t"));
+    }
+
+    @Test
+    public void testInvalidWords() {
+        Assertions.assertEquals(List.of("INVALID@0:3a"), scan("3a"));
+        Assertions.assertEquals(List.of("INVALID@0:3."), scan("3."));
+        Assertions.assertEquals(List.of("INVALID@0:1.2.3"), scan("1.2.3"));
+        Assertions.assertEquals(List.of("INVALID@0:A1B"), scan("A1B"));
+        Assertions.assertEquals(List.of("NUMBER@0:3", "INVALID@2:^2"), scan("3 ^2"));
+        Assertions.assertEquals(List.of("NAME@0:abc"), scan("abc"));
+    }
+
+    private static String digits(Random random, int count) {
+        var digits = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            digits.append((char) ('0' + random.nextInt(10)));
+        }
+        return digits.toString();
+    }
+
+    @Test
+    public void testNumbersMatchParseDouble() {
+        var random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            var text = switch (i % 4) {
+                case 0 -> String.valueOf(random.nextInt(1_000_000));
+                case 1 -> String.valueOf(random.nextDouble() * Math.pow(10, random.nextInt(30) - 15));
+                case 2 -> random.nextInt(1000) + "." + digits(random, 1 + random.nextInt(20));
+                default -> "." + random.nextInt(1_000_000_000);
+            };
+            if (text.contains("E")) {
+                continue; // Exponents are not part of the formula syntax
+            }
+            lexer.reset(text);
+            Assertions.assertEquals(Lexer.Kind.NUMBER, lexer.getKind(), text);
+            Assertions.assertEquals(Double.parseDouble(text), lexer.getNumber(), text);
+        }
+        lexer.reset("123456789012345678901234567890.5");
+        Assertions.assertEquals(123456789012345678901234567890.5, lexer.getNumber());
+        lexer.reset("0000.000001");
+        Assertions.assertEquals(0.000001, lexer.getNumber());
+    }
+}
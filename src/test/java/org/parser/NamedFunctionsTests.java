@@ -298,9 +298,8 @@ public class NamedFunctionsTests {
         String input = "MIN(1)";
         cell.setValue(input);
 
-        Expr expression = parser.parse(cell);
-
-        assertThrows(IllegalArgumentException.class, expression::evaluate, "Function with incorrect number of arguments should throw exception");
+        var error = assertThrows(FormulaSyntaxException.class, () -> parser.parse(cell), "Function with incorrect number of arguments should be rejected by the parser");
+        assertEquals(1, error.getColumn());
     }
 
     @Test
@@ -308,8 +307,30 @@ public class NamedFunctionsTests {
         String input = "SIN(30, 40)";
         cell.setValue(input);
 
+        assertThrows(IllegalArgumentException.class, () -> parser.parse(cell).evaluate(), "Function with incorrect number of arguments should throw exception");
+    }
+
+    @Test
+    public void testFunctionsOverRange() {
+        var tableModel = cell.getTableModel();
+        for (int row = 0; row < 4; row++) {
+            var value = tableModel.getCell(row, 1);
+            value.setValue(String.valueOf(row + 1));
+            value.parse();
+        }
+        cell.setValue("SUM(A1:A4) + MAX(A1:A3) * AVERAGE(A2:A4, 10)");
+
+        Expr expression = parser.parse(cell);
+
+        assertEquals(10 + 3 * 4.75, expression.evaluate(), 0.0001, "Functions over a range failed");
+    }
+
+    @Test
+    public void testRangeOutsideFunction() {
+        cell.setValue("A1:A4");
+
         Expr expression = parser.parse(cell);
 
-        assertThrows(IllegalArgumentException.class, expression::evaluate, "Function with incorrect number of arguments should throw exception");
+        assertThrows(IllegalArgumentException.class, expression::evaluate, "A range is only valid as a function argument");
     }
 }
@@ -0,0 +1,120 @@
+package org.parser;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.main.CellType;
+import org.main.TableModel;
+
+import java.util.Random;
+
+
+public class OptimizerTests {
+    private static final String[] VALUES = {"0", "-0", "1", "-1", "2.5", "1 / 0", "-1 / 0", "0 / 0", "3", "0.1"};
+    private static final String[] FUNCTIONS = {"SIN", "SQRT", "ABS", "ROUND", "LOG", "SIGNUM"};
+
+    private TableModel tableModel;
+    private Parser parser;
+
+    @BeforeEach
+    public void setUp() {
+        tableModel = new TableModel(5, 20, 0, 0);
+        parser = new Parser();
+        for (int row = 0; row < VALUES.length; row++) {
+            tableModel.edit(row, 1, VALUES[row]); // A1:A10 hold zeros of both signs, infinities and NaN, A11 is empty
+        }
+    }
+
+    private Expr parse(String formula) {
+        return parser.parse(formula, tableModel.getCell(19, 5));
+    }
+
+    private static String evaluate(Expr expr) {
+        try {
+            return Long.toHexString(Double.doubleToLongBits(expr.evaluate()));
+        } catch (IllegalArgumentException e) {
+            return "error";
+        }
+    }
+
+    private String randomFormula(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return switch (random.nextInt(4)) {
+                case 0 -> "A" + (1 + random.nextInt(11));
+                case 1 -> random.nextBoolean() ? "1" : String.valueOf(random.nextInt(4));
+                case 2 -> "0";
+                default -> "A" + (1 + random.nextInt(3));
+            };
+        }
+        return switch (random.nextInt(7)) {
+            case 0 -> "-" + randomFormula(random, depth - 1);
+            case 1 -> "(" + randomFormula(random, depth - 1) + " " + "+-*/".charAt(random.nextInt(4)) + " " + randomFormula(random, depth - 1) + ")";
+            case 2 -> FUNCTIONS[random.nextInt(FUNCTIONS.length)] + "(" + randomFormula(random, depth - 1) + ")";
+            case 3 -> "POW(" + randomFormula(random, depth - 1) + ", " + randomFormula(random, depth - 1) + ")";
+            case 4 -> (random.nextBoolean() ? "MIN(" : "SUM(") + randomFormula(random, depth - 1) + ", A1:A" + (1 + random.nextInt(10)) + ")";
+            case 5 -> "(" + randomFormula(random, depth - 1) + " * -1)";
+            default -> {
+                var repeated = randomFormula(random, depth - 1);
+                yield "(" + repeated + " * " + repeated + ")";
+            }
+        };
+    }
+
+    @Test
+    public void testOptimizedTreesGiveIdenticalResults() {
+        var random = new Random(3);
+        for (int i = 0; i < 20_000; i++) {
+            var formula = randomFormula(random, 5);
+            var original = parse(formula);
+            var optimized = Optimizer.optimize(parse(formula));
+            Assertions.assertEquals(evaluate(original), evaluate(optimized), formula);
+            Assertions.assertEquals(evaluate(original), evaluate(FormulaCompiler.compile(optimized)), formula);
+        }
+    }
+
+    @Test
+    public void testIdentitiesKeepSignedZeros() {
+        for (var formula : new String[]{"A2 + 0", "0 + A2", "0 - A2", "A2 * 0", "A2 - 0", "A2 + -0", "-A2 * -1", "A2 / 1", "1 * A2"}) {
+            Assertions.assertEquals(evaluate(parse(formula)), evaluate(Optimizer.optimize(parse(formula))), formula);
+        }
+        Assertions.assertInstanceOf(CellExpr.class, Optimizer.optimize(parse("--(A2 - 0) * 1 / 1")));
+        Assertions.assertInstanceOf(BinaryExpr.class, Optimizer.optimize(parse("A2 + 0")), "-0 + 0 is 0, so this stays");
+    }
+
+    @Test
+    public void testConstantSubtreesAreFolded() {
+        var optimized = Optimizer.optimize(parse("POW(2, 10) * A3 + SIN(30) * A4 - -(1 + 2)"));
+        var references = new int[1];
+        optimized.collectReferences(cell -> references[0]++);
+        Assertions.assertEquals(2, references[0]);
+        var folded = (BinaryExpr) optimized;
+        Assertions.assertEquals('-', folded.getOperator(), "-(1 + 2) is folded into the constant -3");
+        Assertions.assertEquals(-3.0, ((NumberExpr) folded.getRight()).getValue());
+        Assertions.assertEquals('+', ((BinaryExpr) Optimizer.optimize(parse("A3 - -A4"))).getOperator());
+        Assertions.assertEquals(1024.0, ((NumberExpr) ((BinaryExpr) ((BinaryExpr) folded.getLeft()).getLeft()).getLeft()).getValue());
+        Assertions.assertInstanceOf(NumberExpr.class, Optimizer.optimize(parse("MAX(1, 2, SQRT(16)) / 3")));
+    }
+
+    @Test
+    public void testRepeatedSubexpressionsAreEvaluatedOnce() {
+        var optimized = Optimizer.optimize(parse("(A3 + A5) * (A3 + A5) + SQRT(A3 + A5) + SUM(A1:A4) / SUM(A1:A4)"));
+        var let = Assertions.assertInstanceOf(LetExpr.class, optimized);
+        Assertions.assertEquals(2, let.getBindings().length);
+        Assertions.assertEquals(evaluate(parse("(A3 + A5) * (A3 + A5) + SQRT(A3 + A5) + SUM(A1:A4) / SUM(A1:A4)")), evaluate(optimized));
+
+        tableModel.edit(2, 1, "6.5");
+        tableModel.edit(4, 1, "2.5");
+        Assertions.assertEquals(81 + 3 + 1.0, optimized.evaluate(), "Shared values follow the cells");
+        Assertions.assertEquals(81 + 3 + 1.0, FormulaCompiler.compile(optimized).evaluate());
+    }
+
+    @Test
+    public void testCellsUseOptimizedFormulas() {
+        var cell = tableModel.edit(0, 2, "(A9 + 1) * (A9 + 1) - POW(2, 3)");
+        Assertions.assertEquals("8.0", cell.getParsedValue());
+        tableModel.edit(8, 1, "4");
+        Assertions.assertEquals("17.0", cell.getParsedValue());
+        tableModel.edit(8, 1, "");
+        Assertions.assertEquals(CellType.ERROR, cell.getType());
+    }
+}
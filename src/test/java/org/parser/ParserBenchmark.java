@@ -0,0 +1,56 @@
+package org.parser;
+
+import org.main.Cell;
+import org.main.TableModel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+
+// Parsing throughput when loading a sheet, mixing references, ranges, functions and numeric literals.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"1000"})
+    private int rows;
+
+    private Parser parser;
+    private Cell cell;
+    private String[] formulas;
+
+    @Setup
+    public void setUp() {
+        var tableModel = new TableModel(30, rows, 0, 0);
+        parser = new Parser();
+        cell = tableModel.getCell(0, 1);
+        formulas = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            var label = String.valueOf(i + 1);
+            formulas[i] = switch (i % 3) {
+                case 0 -> "A" + label + " * 1.0725 + AB" + label + " / 12 - 0.5";
+                case 1 -> "SUM(B1:B" + label + ") / MAX(C" + label + ", 1)";
+                default -> "ROUND(POW(1 + 0.035, " + (i % 40) + ") * 1000.25)";
+            };
+        }
+    }
+
+    @Benchmark
+    public int parseSheet() {
+        int nodes = 0;
+        for (var formula : formulas) {
+            nodes += parser.parse(formula, cell).hashCode() & 1;
+        }
+        return nodes;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ParserBenchmark.class.getSimpleName()).build()).run();
+    }
+}
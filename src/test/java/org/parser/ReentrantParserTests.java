@@ -0,0 +1,61 @@
+package org.parser;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.main.TableModel;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+
+public class ReentrantParserTests {
+    private TableModel tableModel;
+    private Parser parser;
+
+    @BeforeEach
+    public void setUp() {
+        tableModel = new TableModel(5, 100, 0, 0);
+        parser = new Parser();
+        for (int row = 0; row < 100; row++) {
+            tableModel.edit(row, 1, String.valueOf(row));
+        }
+    }
+
+    @Test
+    public void testFailedParseDoesNotAffectTheNext() {
+        var cell = tableModel.getCell(0, 2);
+        Assertions.assertThrows(FormulaSyntaxException.class, () -> parser.parse("(1 + (2", cell));
+        Assertions.assertThrows(FormulaSyntaxException.class, () -> parser.parse("SUM(A1, ", cell));
+        Assertions.assertEquals(6.0, parser.parse("2 * 3", cell).evaluate());
+        Assertions.assertEquals(7.0, parser.parse("(1 + A7)", cell).evaluate());
+    }
+
+    @Test
+    public void testOneParserIsSharedByManyThreads() throws Exception {
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var tasks = new ArrayList<Callable<Double>>();
+            for (int i = 0; i < 2000; i++) {
+                int row = i % 100;
+                // Every other formula fails halfway, which must not leave anything behind for the next parse
+                var formula = i % 2 == 0 ? "(A" + (row + 1) + " + 1) * POW(2, 3)" : "(A" + (row + 1) + " + ";
+                tasks.add(() -> {
+                    try {
+                        return parser.parse(formula, tableModel.getCell(0, 3)).evaluate();
+                    } catch (FormulaSyntaxException e) {
+                        return Double.NaN;
+                    }
+                });
+            }
+            var results = executor.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                double expected = i % 2 == 0 ? (i % 100 + 1) * 8.0 : Double.NaN;
+                Assertions.assertEquals(expected, results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
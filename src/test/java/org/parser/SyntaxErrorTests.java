@@ -0,0 +1,51 @@
+package org.parser;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.main.TableModel;
+
+
+public class SyntaxErrorTests {
+    private final TableModel tableModel = new TableModel(30, 20, 0, 0);
+    private final Parser parser = new Parser();
+
+    private int column(String formula) {
+        var error = Assertions.assertThrows(FormulaSyntaxException.class, () -> parser.parse(formula, tableModel.getCell(0, 1)));
+        Assertions.assertTrue(error.getMessage().endsWith("at column " + error.getColumn()), error.getMessage());
+        return error.getColumn();
+    }
+
+    @Test
+    public void testErrorsPointAtTheFailingToken() {
+        Assertions.assertEquals(3, column("3 3"));
+        Assertions.assertEquals(4, column("3 +"));
+        Assertions.assertEquals(1, column("+ 3"));
+        Assertions.assertEquals(8, column("(3 + 2))"));
+        Assertions.assertEquals(7, column("(3 + 2"));
+        Assertions.assertEquals(6, column("3 + a"), "Where the '(' of the call is missing");
+        Assertions.assertEquals(9, column("SUM(A1: 7)"));
+        Assertions.assertEquals(5, column("2 * 3a"));
+    }
+
+    @Test
+    public void testCallsWithWrongArgumentCounts() {
+        Assertions.assertEquals(5, column("2 * SIN(30, 40)"));
+        Assertions.assertEquals(1, column("MIN(1)"));
+        Assertions.assertEquals(5, column("1 + POW(2)"));
+    }
+
+    @Test
+    public void testReferencesOutsideTheTable() {
+        Assertions.assertEquals(5, column("1 + A21"));
+        Assertions.assertEquals(9, column("SUM(A1, AE1)"));
+        Assertions.assertEquals(5, column("SUM(A1:A99)"));
+    }
+
+    @Test
+    public void testMultiLetterColumns() {
+        tableModel.edit(4, 27, "2.5");
+        Assertions.assertEquals(5.0, parser.parse("AA5 * 2", tableModel.getCell(0, 1)).evaluate());
+        Assertions.assertEquals(2.5, parser.parse("SUM(Z5:AD5)", tableModel.getCell(0, 1)).evaluate());
+        Assertions.assertEquals(1.0, parser.parse("LOG10(10)", tableModel.getCell(0, 1)).evaluate(), "Still a function");
+    }
+}